@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.benchmarks;
+
+import de.dimaki.refuel.appcast.control.AppcastParser;
+import de.dimaki.refuel.appcast.control.JaxbAppcastParser;
+import de.dimaki.refuel.appcast.control.StaxAppcastParser;
+import de.dimaki.refuel.appcast.entity.Appcast;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing throughput of small and huge appcasts held in memory.
+ * Use the "-prof gc" profiler to compare the allocation rates of the parsers.
+ *
+ * @author Dino Tsoumakis
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AppcastParserBenchmark {
+
+    @Param({"jaxb", "stax"})
+    public String parser;
+
+    @Param({"1", "100", "10000"})
+    public int items;
+
+    private AppcastParser appcastParser;
+    private byte[] xml;
+
+    @Setup
+    public void setUp() throws Exception {
+        appcastParser = "jaxb".equals(parser) ? new JaxbAppcastParser() : new StaxAppcastParser(Integer.MAX_VALUE);
+        xml = createAppcast(items).getBytes(StandardCharsets.UTF_8);
+    }
+
+    static String createAppcast(int items) {
+        StringBuilder xml = new StringBuilder(512 + items * 768)
+                .append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n")
+                .append("<rss version=\"2.0\" xmlns:sparkle=\"http://www.andymatuschak.org/xml-namespaces/sparkle\">\n")
+                .append("<channel>\n<title>Benchmark App Changelog</title>\n<link>http://localhost/appcast.xml</link>\n")
+                .append("<description>Most recent changes with links to updates.</description>\n<language>en</language>\n");
+        for (int i = items; i > 0; i--) {
+            String version = "1." + (i / 100) + "." + (i % 100);
+            xml.append("<item>\n<title>Version ").append(version).append("</title>\n")
+                    .append("<description><![CDATA[<ul><li>Fixed ").append(i % 7).append(" bugs</li><li>Lorem ipsum dolor sit amet, ")
+                    .append("consectetur adipiscing elit. Suspendisse sed felis ac ante ultrices rhoncus.</li></ul>]]></description>\n")
+                    .append("<pubDate>Tue, 02 Oct 2013 15:20:11 +0100</pubDate>\n")
+                    .append("<sparkle:releaseNotesLink>http://localhost/notes/").append(version).append(".html</sparkle:releaseNotesLink>\n")
+                    .append("<enclosure url=\"http://localhost/app-").append(version).append(".zip\" sparkle:version=\"").append(version)
+                    .append("\" length=\"").append(1048576 + i).append("\" type=\"application/octet-stream\"")
+                    .append(" sparkle:sha256=\"76d82dec4eccdbeb6bc25c24028b688030d90ff391f4231dcd25308698221987\"/>\n")
+                    .append("</item>\n");
+        }
+        return xml.append("</channel>\n</rss>\n").toString();
+    }
+
+    @Benchmark
+    public Appcast parse() throws Exception {
+        return appcastParser.parse(new ByteArrayInputStream(xml));
+    }
+}
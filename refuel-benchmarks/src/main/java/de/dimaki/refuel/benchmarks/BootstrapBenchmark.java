@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.benchmarks;
+
+import de.dimaki.refuel.Bootstrap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to replace the application file with the update on start.
+ * The update file is kept, so each invocation copies over the previous result.
+ *
+ * @author Dino Tsoumakis
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = 1)
+@Measurement(iterations = 20, batchSize = 1)
+@Fork(1)
+public class BootstrapBenchmark {
+
+    @Param({"1048576", "134217728"})
+    public int size;
+
+    private Path workDir;
+    private Path applicationFile;
+    private Path updateDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("refuel-bootstrap");
+        updateDir = Files.createDirectory(workDir.resolve("update"));
+        applicationFile = workDir.resolve("app.jar");
+        byte[] data = Fixtures.randomBytes(size, 4711);
+        Files.write(applicationFile, data);
+        Files.write(updateDir.resolve("app-2.0.jar"), data);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.delete(workDir);
+    }
+
+    @Benchmark
+    public Path update() throws IOException {
+        return Bootstrap.update(applicationFile, updateDir, false);
+    }
+}
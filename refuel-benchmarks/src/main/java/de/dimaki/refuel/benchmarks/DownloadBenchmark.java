@@ -0,0 +1,162 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import de.dimaki.refuel.appcast.boundary.AppcastManager;
+import de.dimaki.refuel.appcast.entity.Appcast;
+import de.dimaki.refuel.appcast.entity.Channel;
+import de.dimaki.refuel.appcast.entity.Enclosure;
+import de.dimaki.refuel.appcast.entity.Item;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Download throughput and hash cost against an in-process HTTP server on the loopback interface.
+ * The "none" digest gives the pure transfer cost, the difference to the other digests is the
+ * cost of verifying the download.
+ *
+ * @author Dino Tsoumakis
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = 1)
+@Measurement(iterations = 20, batchSize = 1)
+@Fork(1)
+public class DownloadBenchmark {
+
+    @Param({"1048576", "67108864"})
+    public int size;
+
+    @Param({"none", "MD5", "SHA-256", "SHA-512"})
+    public String digest;
+
+    @Param({"1", "4"})
+    public int segments;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private Path targetDir;
+    private AppcastManager manager;
+    private Appcast appcast;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final byte[] data = Fixtures.randomBytes(size, 4711);
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(serverExecutor);
+        server.createContext("/update.zip", exchange -> respond(exchange, data));
+        server.start();
+
+        Enclosure enclosure = new Enclosure();
+        enclosure.setUrl("http://localhost:" + server.getAddress().getPort() + "/update.zip");
+        enclosure.setLength(size);
+        enclosure.setVersion("2.0");
+        switch (digest) {
+            case "MD5":
+                enclosure.setMd5(toHex(MessageDigest.getInstance(digest).digest(data)));
+                break;
+            case "SHA-256":
+                enclosure.setSha256(toHex(MessageDigest.getInstance(digest).digest(data)));
+                break;
+            case "SHA-512":
+                enclosure.setSha512(toHex(MessageDigest.getInstance(digest).digest(data)));
+                break;
+            default:
+                break;
+        }
+        Item item = new Item();
+        item.setEnclosure(enclosure);
+        Channel channel = new Channel();
+        channel.setItems(Collections.singletonList(item));
+        appcast = new Appcast();
+        appcast.setChannel(channel);
+
+        targetDir = Files.createTempDirectory("refuel-download");
+        manager = new AppcastManager();
+        manager.setSegmentCount(segments);
+    }
+
+    @TearDown(Level.Invocation)
+    public void cleanUp() throws IOException {
+        Fixtures.delete(targetDir.resolve("update.zip"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        Fixtures.delete(targetDir);
+    }
+
+    @Benchmark
+    public Path download() throws Exception {
+        return manager.download(appcast, targetDir);
+    }
+
+    private static void respond(HttpExchange exchange, byte[] data) throws IOException {
+        int from = 0;
+        int to = data.length - 1;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        if (range != null) {
+            String[] fromTo = range.substring(6).split("-");
+            from = Integer.parseInt(fromTo[0]);
+            if (fromTo.length > 1) {
+                to = Integer.parseInt(fromTo[1]);
+            }
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + data.length);
+        }
+        int length = to - from + 1;
+        exchange.sendResponseHeaders(range != null ? 206 : 200, length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(data, from, length);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.benchmarks;
+
+import com.sun.net.httpserver.HttpServer;
+import de.dimaki.refuel.updater.boundary.Updater;
+import de.dimaki.refuel.updater.entity.ApplicationStatus;
+import de.dimaki.refuel.updater.entity.UpdateCheck;
+import de.dimaki.refuel.updater.entity.UpdateStatus;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Status checks of many applications, one by one vs. batched with
+ * getApplicationStatuses, against an in-process HTTP server with a simulated latency.
+ * Every appcast URL is shared by two applications.
+ *
+ * @author Dino Tsoumakis
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, batchSize = 1)
+@Measurement(iterations = 10, batchSize = 1)
+@Fork(1)
+public class UpdaterBenchmark {
+
+    private static final int APPLICATIONS = 24;
+    private static final int MAX_CONCURRENCY = 16;
+    private static final int MAX_PER_HOST = 8;
+
+    /**
+     * Server latency per request in ms
+     */
+    @Param({"0", "25"})
+    public int latency;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private Updater updater;
+    private List<UpdateCheck> checks;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final byte[] xml = AppcastParserBenchmark.createAppcast(1).getBytes(StandardCharsets.UTF_8);
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(serverExecutor);
+        server.createContext("/app/", exchange -> {
+            try {
+                Thread.sleep(latency);
+                exchange.sendResponseHeaders(200, xml.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(xml);
+                }
+            } catch (InterruptedException ex) {
+                // Server stopped
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+
+        checks = new ArrayList<>();
+        for (int i = 0; i < APPLICATIONS; i++) {
+            URL url = new URL("http", "localhost", server.getAddress().getPort(), "/app/" + i);
+            checks.add(new UpdateCheck("1.0.0", url));
+            checks.add(new UpdateCheck("1.0.1", url));
+        }
+        updater = new Updater();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public List<ApplicationStatus> serial() {
+        List<ApplicationStatus> statuses = new ArrayList<>(checks.size());
+        for (UpdateCheck check : checks) {
+            statuses.add(updater.getApplicationStatus(check.getLocalVersion(), check.getUpdateUrl()));
+        }
+        return statuses;
+    }
+
+    @Benchmark
+    public Map<UpdateCheck, UpdateStatus> batch() {
+        return updater.getApplicationStatuses(checks, MAX_CONCURRENCY, MAX_PER_HOST);
+    }
+}
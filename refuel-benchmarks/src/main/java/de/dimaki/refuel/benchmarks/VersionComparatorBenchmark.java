@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.benchmarks;
+
+import de.dimaki.refuel.updater.control.VersionComparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a single version comparison on corpora of realistic version strings.
+ * Each invocation compares the next pair of a pre-shuffled corpus, so branch
+ * prediction cannot learn a single input.
+ *
+ * @author Dino Tsoumakis
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class VersionComparatorBenchmark {
+
+    private static final int CORPUS_SIZE = 4096;
+
+    @Param({"LEGACY", "SEMANTIC"})
+    public VersionComparator.Mode mode;
+
+    /**
+     * numeric: dotted numbers of 2 to 4 components, e.g. "1.12.3"
+     * qualified: pre-releases, build metadata and prefixes, e.g. "v2.0.0-rc.1+build.7"
+     * build: long Sparkle-style build numbers, e.g. "2.0.4711"
+     */
+    @Param({"numeric", "qualified", "build"})
+    public String corpus;
+
+    private VersionComparator comparator;
+    private String[] versions;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        comparator = new VersionComparator(mode);
+        Random random = new Random(4711);
+        versions = new String[CORPUS_SIZE];
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            versions[i] = createVersion(random);
+        }
+    }
+
+    private String createVersion(Random random) {
+        switch (corpus) {
+            case "qualified":
+                String[] qualifiers = {"", "", "-alpha", "-beta.2", "-rc.1", "-SNAPSHOT", "rc1", "-final", "-M3"};
+                return (random.nextBoolean() ? "v" : "") + random.nextInt(4) + "." + random.nextInt(12) + "." + random.nextInt(20)
+                        + qualifiers[random.nextInt(qualifiers.length)] + (random.nextInt(4) == 0 ? "+build." + random.nextInt(1000) : "");
+            case "build":
+                return random.nextInt(3) + "." + random.nextInt(3) + "." + (4000 + random.nextInt(1000));
+            default:
+                StringBuilder version = new StringBuilder().append(random.nextInt(4));
+                int components = 1 + random.nextInt(3);
+                for (int i = 0; i < components; i++) {
+                    version.append('.').append(random.nextInt(i == 0 ? 12 : 30));
+                }
+                return version.toString();
+        }
+    }
+
+    @Benchmark
+    public int compare() {
+        int i = next;
+        next = (i + 2) & (CORPUS_SIZE - 1);
+        return comparator.compare(versions[i], versions[i + 1]);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.benchmarks;
+
+import de.dimaki.refuel.updater.control.ZipHandler;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Extraction time of update archives with many small vs. few large files.
+ * Both layouts hold the same amount of half compressible data.
+ *
+ * @author Dino Tsoumakis
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = 1)
+@Measurement(iterations = 20, batchSize = 1)
+@Fork(1)
+public class ZipHandlerBenchmark {
+
+    private static final int TOTAL_SIZE = 32 * 1024 * 1024;
+
+    /**
+     * Number of files in the archive
+     */
+    @Param({"4", "8192"})
+    public int files;
+
+    private Path workDir;
+    private Path zipFile;
+    private Path targetDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("refuel-unzip");
+        zipFile = workDir.resolve("update.zip");
+        targetDir = workDir.resolve("target");
+        int fileSize = TOTAL_SIZE / files;
+        byte[] random = Fixtures.randomBytes(fileSize / 2, 4711);
+        byte[] zeros = new byte[fileSize - random.length];
+        try (OutputStream out = Files.newOutputStream(zipFile);
+                ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (int i = 0; i < files; i++) {
+                // Spread the small files over some directories like in a real application
+                zip.putNextEntry(new ZipEntry("app/lib" + (i % 16) + "/file" + i + ".bin"));
+                zip.write(random);
+                zip.write(zeros);
+                zip.closeEntry();
+            }
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void cleanUp() throws IOException {
+        Fixtures.delete(targetDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.delete(workDir);
+    }
+
+    @Benchmark
+    public Set<Path> unzip() throws Exception {
+        return ZipHandler.unzip(zipFile, targetDir, false);
+    }
+}
@@ -15,6 +15,8 @@
  */
 package de.dimaki.refuel;
 
+import de.dimaki.refuel.metrics.boundary.Metrics;
+import de.dimaki.refuel.metrics.control.Instrumentation;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.URL;
@@ -89,10 +91,14 @@ public class Bootstrap {
             Thread.getAllStackTraces().keySet().stream().forEach((thread) -> {
                 thread.setContextClassLoader(this.appClassLoader);
             });
+            long time = System.nanoTime();
             this.appClazz = this.appClassLoader.loadClass(applicationClass);
             final Method method = this.appClazz.getMethod(methodName);
+            Metrics.get().recordTime(Instrumentation.BOOTSTRAP_CLASS_LOAD, System.nanoTime() - time);
+            time = System.nanoTime();
             this.appInstance = this.appClazz.newInstance();
             method.invoke(this.appInstance);
+            Metrics.get().recordTime(Instrumentation.BOOTSTRAP_START, System.nanoTime() - time);
         } catch (final Exception ex) {
             throw new IOException(ex);
         }
@@ -15,58 +15,130 @@
  */
 package de.dimaki.refuel.appcast.boundary;
 
+import de.dimaki.refuel.appcast.control.AppcastCache;
 import de.dimaki.refuel.appcast.control.AppcastException;
+import de.dimaki.refuel.appcast.control.AppcastParseException;
+import de.dimaki.refuel.appcast.control.AppcastParser;
+import de.dimaki.refuel.appcast.control.BatchScheduler;
+import de.dimaki.refuel.appcast.control.BlockIndex;
+import de.dimaki.refuel.appcast.control.BlockSync;
+import de.dimaki.refuel.appcast.control.ContentDecoder;
+import de.dimaki.refuel.appcast.control.DeltaPatch;
+import de.dimaki.refuel.appcast.control.DigestingChannel;
+import de.dimaki.refuel.appcast.control.DownloadInProgressException;
+import de.dimaki.refuel.appcast.control.HttpStatusException;
+import de.dimaki.refuel.appcast.control.JaxbAppcastParser;
+import de.dimaki.refuel.appcast.control.KeepAliveTransport;
+import de.dimaki.refuel.appcast.control.ProgressListener;
+import de.dimaki.refuel.appcast.control.ProgressTracker;
+import de.dimaki.refuel.appcast.control.RateLimiter;
+import de.dimaki.refuel.appcast.control.ResumableDownload;
+import de.dimaki.refuel.appcast.control.RetryPolicy;
+import de.dimaki.refuel.appcast.control.SegmentedDownload;
+import de.dimaki.refuel.appcast.control.TransferBudget;
+import de.dimaki.refuel.appcast.control.Transport;
 import de.dimaki.refuel.appcast.entity.Appcast;
 import de.dimaki.refuel.appcast.entity.Enclosure;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import de.dimaki.refuel.appcast.entity.Item;
+import de.dimaki.refuel.appcast.entity.TransferProgress;
+import de.dimaki.refuel.metrics.boundary.Metrics;
+import de.dimaki.refuel.metrics.control.Instrumentation;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
 import java.net.Proxy;
+import java.net.ProxySelector;
 import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.UnknownHostException;
-import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
-import java.security.SecureRandom;
-import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
+ * Fetches appcasts and downloads their enclosures.
+ * Instances are cheap to create and safe to be shared between threads.
  *
  * @author Dino Tsoumakis
  */
 public class AppcastManager {
+    private static final Logger LOG = LoggerFactory.getLogger(AppcastManager.class);
     public static final String MANIFEST_APPCAST_VERSION = "Appcast-Version";
     public static final String MANIFEST_APPCAST_URL = "Appcast-Url";
     public static final int DEFAULT_CONNECT_TIMEOUT = 8000;
     public static final int DEFAULT_READ_TIMEOUT = 8000;
+    public static final long DEFAULT_MIN_SEGMENT_SIZE = 1024 * 1024;
+    public static final long DEFAULT_STALL_TIMEOUT = 30000;
 
-    //Client client;
-    Unmarshaller unmarshaller;
+    private static final Executor DEFAULT_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "refuel-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    // Appcast parser, JAXB by default
+    AppcastParser parser;
+    // Optional appcast cache
+    AppcastCache cache;
+    // Executor for asynchronous operations
+    Executor executor = DEFAULT_EXECUTOR;
+    // Retry policy and circuit breaker for fetches and downloads,
+    // an unreachable host blocks synchronous checks for about 27s by default
+    RetryPolicy retryPolicy = new RetryPolicy();
+    // Segmented downloads
+    int segmentCount = 1;
+    long minSegmentSize = DEFAULT_MIN_SEGMENT_SIZE;
+    // Directory for partial downloads, null for the target directory
+    Path partDirectory;
+    // Optional bandwidth limit of the downloads of this manager
+    RateLimiter rateLimiter;
+    // Optional process-wide limit of parallel downloads and bandwidth
+    TransferBudget transferBudget;
+    // Optional progress listener
+    ProgressListener progressListener;
+    // Stall detection, off by default
+    long minTransferRate = 0;
+    long stallTimeout = DEFAULT_STALL_TIMEOUT;
     // Trust all certs
     boolean trustAllCerts = false;
     // Verify Hostname
     boolean verifyHostname = true;
+    // Transport for all connections, null for a keep-alive transport with the SSL settings above
+    Transport transport;
+    // Keep-alive transport for the current SSL settings, created on first use
+    private volatile Transport defaultTransport;
 
     public AppcastManager() throws JAXBException {
-        JAXBContext jc = JAXBContext.newInstance(Appcast.class);
-        unmarshaller = jc.createUnmarshaller();
+        parser = new JaxbAppcastParser();
     }
 
     /**
@@ -106,56 +178,286 @@ public class AppcastManager {
      * @throws AppcastException in case of an error
      */
     public Appcast fetch(final URL url, Proxy proxy, int connectTimeout, int readTimeout, Map<String, String> requestProperties) throws AppcastException {
-        Appcast appcast = null;
+        return fetch(url, proxy, connectTimeout, readTimeout, requestProperties, null);
+    }
+
+    /**
+     * Fetch an appcast from the given URL asynchronously on the configured executor
+     *
+     * @param url The update URL
+     * @return The future appcast content, completed exceptionally with an {@link AppcastException} in case of an error
+     * @see #setExecutor(java.util.concurrent.Executor)
+     */
+    public CompletableFuture<Appcast> fetchAsync(final URL url) {
+        return fetchAsync(url, null, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, null);
+    }
+
+    /**
+     * Fetch an appcast from the given URL asynchronously on the configured executor.
+     * Cancelling the returned future aborts the connection.
+     *
+     * @param url The update URL
+     * @param proxy proxy data
+     * @param connectTimeout the connect timeout in milliseconds
+     * @param readTimeout the read timeout in milliseconds
+     * @param requestProperties optional request properties
+     * @return The future appcast content, completed exceptionally with an {@link AppcastException} in case of an error
+     * @see #setExecutor(java.util.concurrent.Executor)
+     */
+    public CompletableFuture<Appcast> fetchAsync(final URL url, Proxy proxy, int connectTimeout, int readTimeout, Map<String, String> requestProperties) {
+        final CompletableFuture<Appcast> future = new CompletableFuture<>();
+        final Cancellation cancellation = new Cancellation();
+        future.whenComplete((appcast, ex) -> {
+            if (future.isCancelled()) {
+                cancellation.cancel();
+            }
+        });
         try {
-            URLConnection conn;
-            if (proxy == null) {
-                conn = url.openConnection();
-            } else {
-                conn = url.openConnection(proxy);
+            executor.execute(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    future.complete(fetch(url, proxy, connectTimeout, readTimeout, requestProperties, cancellation));
+                } catch (AppcastException | RuntimeException ex) {
+                    future.completeExceptionally(ex);
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            future.completeExceptionally(ree);
+        }
+        return future;
+    }
+
+    /**
+     * Fetch appcasts from many URLs in parallel on the configured executor.
+     * Identical URLs are fetched only once.
+     *
+     * @param urls The update URLs
+     * @param maxConcurrency Max. number of concurrent fetches
+     * @param maxConnectionsPerHost Max. number of concurrent fetches from the same host
+     * @return The future appcasts by URL (external form), completed exceptionally with an
+     * {@link AppcastException} in case of an error
+     */
+    public Map<String, CompletableFuture<Appcast>> fetchAll(Collection<URL> urls, int maxConcurrency, int maxConnectionsPerHost) {
+        return fetchAll(urls, maxConcurrency, maxConnectionsPerHost, null, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, null);
+    }
+
+    /**
+     * Fetch appcasts from many URLs in parallel on the configured executor.
+     * Identical URLs are fetched only once.
+     *
+     * @param urls The update URLs
+     * @param maxConcurrency Max. number of concurrent fetches
+     * @param maxConnectionsPerHost Max. number of concurrent fetches from the same host
+     * @param proxy proxy data
+     * @param connectTimeout the connect timeout in milliseconds
+     * @param readTimeout the read timeout in milliseconds
+     * @param requestProperties optional request properties
+     * @return The future appcasts by URL (external form), completed exceptionally with an
+     * {@link AppcastException} in case of an error
+     */
+    public Map<String, CompletableFuture<Appcast>> fetchAll(Collection<URL> urls, int maxConcurrency, int maxConnectionsPerHost,
+            Proxy proxy, int connectTimeout, int readTimeout, Map<String, String> requestProperties) {
+        BatchScheduler scheduler = new BatchScheduler(executor, maxConcurrency, maxConnectionsPerHost);
+        Map<String, CompletableFuture<Appcast>> results = new LinkedHashMap<>();
+        for (final URL url : urls) {
+            String key = url.toExternalForm();
+            if (results.containsKey(key)) {
+                continue;
             }
-            conn.setConnectTimeout(connectTimeout);
-            conn.setReadTimeout(readTimeout);
-
-            // init SSL
-            if ((trustAllCerts || !verifyHostname) && conn instanceof HttpsURLConnection) {
-                HttpsURLConnection httpsConn = (HttpsURLConnection)conn;
-                if (trustAllCerts) {
-                    SSLContext sslContext = createSslContext();
-                    httpsConn.setSSLSocketFactory(sslContext.getSocketFactory());
+            final CompletableFuture<Appcast> future = new CompletableFuture<>();
+            results.put(key, future);
+            scheduler.submit(url.getHost(), () -> {
+                try {
+                    future.complete(fetch(url, proxy, connectTimeout, readTimeout, requestProperties));
+                } catch (AppcastException | RuntimeException ex) {
+                    future.completeExceptionally(ex);
                 }
-                if (!verifyHostname) {
-                    httpsConn.setHostnameVerifier(new TrustAllHostnameVerifier());
+            }, future::completeExceptionally);
+        }
+        return results;
+    }
+
+    private Appcast fetch(final URL url, Proxy proxy, int connectTimeout, int readTimeout, Map<String, String> requestProperties,
+            Cancellation cancellation) throws AppcastException {
+        long start = System.nanoTime();
+        int failed = 0;
+        while (true) {
+            try {
+                retryPolicy.check(url);
+                Appcast appcast = fetchOnce(url, proxy, connectTimeout, readTimeout, requestProperties, cancellation);
+                retryPolicy.onSuccess(url);
+                Metrics.get().recordTime(Instrumentation.FETCH_TOTAL, System.nanoTime() - start);
+                return appcast;
+            } catch (AppcastParseException ape) {
+                throw new AppcastException("Could not read appcast from URL", url, 404, ape.getMessage());
+            } catch (GeneralSecurityException ex) {
+                throw new AppcastException("Could not initialize SSL context", url, 500, ex.getMessage());
+            } catch (IOException ex) {
+                failed++;
+                retryPolicy.onFailure(url, ex);
+                if (!retryPolicy.shouldRetry(ex, failed)) {
+                    throw toAppcastException(url, ex);
+                }
+                LOG.info("Fetching ''{}'' failed ({}), retrying in {} ms...", url, ex.toString(), retryPolicy.getBackoff(ex, failed));
+                try {
+                    retryPolicy.await(ex, failed);
+                } catch (InterruptedIOException iex) {
+                    throw toAppcastException(url, ex);
                 }
-                conn = httpsConn;
             }
+        }
+    }
 
-            final URLConnection connection = conn;
+    /**
+     * Resolve the host in advance to measure the DNS lookup.
+     * The connection resolves it from the JVM cache afterwards. Hosts of proxied
+     * connections are resolved by the proxy and are not measured.
+     */
+    private static void recordDnsTime(URL url, Proxy proxy, Instrumentation metrics) {
+        String host = url.getHost();
+        if (host == null || host.isEmpty() || !isDirect(url, proxy)) {
+            return;
+        }
+        long time = System.nanoTime();
+        try {
+            InetAddress.getAllByName(host);
+            metrics.recordTime(Instrumentation.FETCH_DNS, System.nanoTime() - time);
+        } catch (UnknownHostException ex) {
+            // Reported by the connection
+        }
+    }
 
-            // Add request properties
-            if (requestProperties != null) {
-                requestProperties.forEach((k,v) -> {
-                    connection.setRequestProperty(k, v);
-                });
+    private static boolean isDirect(URL url, Proxy proxy) {
+        if (proxy != null) {
+            return proxy.type() == Proxy.Type.DIRECT;
+        }
+        ProxySelector selector = ProxySelector.getDefault();
+        if (selector == null) {
+            return true;
+        }
+        try {
+            for (Proxy selected : selector.select(url.toURI())) {
+                if (selected.type() != Proxy.Type.DIRECT) {
+                    return false;
+                }
             }
+            return true;
+        } catch (URISyntaxException | IllegalArgumentException ex) {
+            return false;
+        }
+    }
 
-            connection.connect();
-            appcast = (Appcast)unmarshaller.unmarshal(connection.getInputStream());
-        } catch (JAXBException jbe) {
-            throw new AppcastException("Could not read appcast from URL", url, 404, jbe.getMessage());
-        } catch (SocketTimeoutException ste) {
-            throw new AppcastException("Timeout reading appcast from URL", url, 408, (ste.getCause() != null) ? ste.getCause().getMessage() : ste.getMessage());
-        } catch (UnknownHostException uhe) {
-            throw new AppcastException("Unknown Host", url, 404, uhe.getMessage());
-        } catch (IOException ex) {
-            throw new AppcastException("Could not establish connection to URL", url, 403, ex.getMessage());
-        } catch (GeneralSecurityException ex) {
-            throw new AppcastException("Could not initialize SSL context", url, 500, ex.getMessage());
+    private static AppcastException toAppcastException(URL url, IOException ex) {
+        AppcastException aex;
+        if (ex instanceof SocketTimeoutException) {
+            aex = new AppcastException("Timeout reading appcast from URL", url, 408, (ex.getCause() != null) ? ex.getCause().getMessage() : ex.getMessage());
+        } else if (ex instanceof UnknownHostException) {
+            aex = new AppcastException("Unknown Host", url, 404, ex.getMessage());
+        } else if (ex instanceof HttpStatusException) {
+            HttpStatusException hse = (HttpStatusException) ex;
+            aex = new AppcastException("Server returned an error for URL", url, hse.getStatus(), hse.getMessage(), hse.getRetryAfter());
+        } else {
+            // No response at all, e.g. refused connections or an open circuit
+            aex = new AppcastException("Could not establish connection to URL", url, AppcastException.NO_STATUS, ex.getMessage());
+        }
+        aex.initCause(ex);
+        return aex;
+    }
+
+    private Appcast fetchOnce(final URL url, Proxy proxy, int connectTimeout, int readTimeout, Map<String, String> requestProperties,
+            Cancellation cancellation) throws IOException, AppcastParseException, GeneralSecurityException {
+        final Instrumentation metrics = Metrics.get();
+        Appcast appcast = null;
+        AppcastCache.Entry cached = null;
+        if (cache != null) {
+            cached = cache.get(url, parser);
+            if (cached != null && cached.isFresh()) {
+                return cached.getAppcast();
+            }
+        }
+
+        if (metrics.isEnabled()) {
+            recordDnsTime(url, proxy, metrics);
+        }
+
+        final URLConnection connection = getConnectionTransport().open(url, proxy, connectTimeout, readTimeout);
+
+        // Compressed responses are decoded while parsing, can be overridden by the request properties
+        connection.setRequestProperty("Accept-Encoding", ContentDecoder.ACCEPT_ENCODING);
+
+        // Add request properties
+        if (requestProperties != null) {
+            requestProperties.forEach((k,v) -> {
+                connection.setRequestProperty(k, v);
+            });
+        }
+
+        // Conditional request for cached appcasts
+        if (cached != null) {
+            if (cached.getETag() != null) {
+                connection.setRequestProperty("If-None-Match", cached.getETag());
+            }
+            if (cached.getLastModified() != null) {
+                connection.setRequestProperty("If-Modified-Since", cached.getLastModified());
+            }
+        }
+
+        if (cancellation != null) {
+            cancellation.attach(connection);
+        }
+        long time = System.nanoTime();
+        connection.connect();
+        metrics.recordTime(Instrumentation.FETCH_CONNECT, System.nanoTime() - time);
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection httpConn = (HttpURLConnection) connection;
+            time = System.nanoTime();
+            int status = httpConn.getResponseCode();
+            metrics.recordTime(Instrumentation.FETCH_TTFB, System.nanoTime() - time);
+            if (status >= 400) {
+                long retryAfter = HttpStatusException.getRetryAfter(httpConn);
+                KeepAliveTransport.release(httpConn);
+                throw new HttpStatusException("Server returned HTTP " + status, status, retryAfter);
+            }
+        }
+        if (cache != null && connection instanceof HttpURLConnection) {
+            HttpURLConnection httpConn = (HttpURLConnection) connection;
+            long maxAge = AppcastCache.getMaxAge(httpConn.getHeaderField("Cache-Control"));
+            if (cached != null && httpConn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                httpConn.getInputStream().close();
+                return cache.revalidate(url, cached, maxAge).getAppcast();
+            }
+            time = System.nanoTime();
+            try (InputStream is = open(connection, cancellation)) {
+                appcast = cache.put(url, is, parser, httpConn.getHeaderField("ETag"),
+                        httpConn.getHeaderField("Last-Modified"), maxAge).getAppcast();
+            }
+            metrics.recordTime(Instrumentation.FETCH_PARSE, System.nanoTime() - time);
+        } else {
+            time = System.nanoTime();
+            try (InputStream is = open(connection, cancellation)) {
+                appcast = parser.parse(is);
+            }
+            metrics.recordTime(Instrumentation.FETCH_PARSE, System.nanoTime() - time);
         }
         // Got a valid response
         return appcast;
     }
 
+    private static InputStream open(URLConnection connection, Cancellation cancellation) throws IOException {
+        InputStream is = connection.getInputStream();
+        if (cancellation != null) {
+            is = cancellation.wrap(is);
+        }
+        try {
+            return ContentDecoder.decode(is, connection.getContentEncoding(), connection.getURL());
+        } catch (IOException ex) {
+            is.close();
+            throw ex;
+        }
+    }
+
     /**
      * Get the latest appcast version string from the given url
      *
@@ -187,7 +489,10 @@ public class AppcastManager {
     }
 
     /**
-     * Download the file from the given URL to the specified target
+     * Download the newest item of the appcast to the specified target, see {@link Appcast#getLatestItem()}.
+     * Failed downloads are retried according to the retry policy. An incomplete
+     * download is kept as hidden partial file and resumed by the next call.
+     * The verified file is moved to the target directory atomically.
      *
      * @param appcast The appcast content
      * @param targetDir The target download dir (update directory)
@@ -195,64 +500,402 @@ public class AppcastManager {
      * @throws IOException in case of an error
      */
     public Path download(Appcast appcast, Path targetDir) throws IOException, Exception {
+        TransferBudget.Permit permit = acquirePermit();
+        try {
+            return downloadItem(appcast.getLatestItem(), targetDir);
+        } finally {
+            permit.close();
+        }
+    }
+
+    private Path downloadItem(Item item, Path targetDir) throws IOException, Exception {
         Path downloaded = null;
-        Enclosure enclosure = appcast.getLatestEnclosure();
+        Enclosure enclosure = (item != null) ? item.getEnclosure() : null;
         if (enclosure != null) {
             String url = enclosure.getUrl();
             if (url != null && !url.isEmpty()) {
-                URL enclosureUrl = new URL(url);
                 String targetName = url.substring( url.lastIndexOf('/')+1, url.length() );
-                long length = enclosure.getLength();
+                downloaded = download(enclosure, targetDir, targetDir.resolve(targetName));
+            }
+        }
+
+        return downloaded;
+    }
+
+    /**
+     * Download the update for the given installed version to the specified target,
+     * the newest item of the appcast, see {@link Appcast#getLatestItem()}.
+     * If the appcast offers a delta update from the installed version, only the delta
+     * is downloaded and applied to the local file. Otherwise, if the enclosure has a
+     * block index, only the blocks missing in the local file are downloaded.
+     * The result is verified against the hashes of the full enclosure. If this fails,
+     * the full enclosure is downloaded.
+     *
+     * @param appcast The appcast content
+     * @param targetDir The target download dir (update directory)
+     * @param localVersion The installed version
+     * @param localFile The installed file the delta updates are created for
+     * @return Path to the downloaded update file
+     * @throws IOException in case of an error
+     */
+    public Path download(Appcast appcast, Path targetDir, String localVersion, Path localFile) throws IOException, Exception {
+        TransferBudget.Permit permit = acquirePermit();
+        try {
+            return downloadItem(appcast.getLatestItem(), targetDir, localVersion, localFile);
+        } finally {
+            permit.close();
+        }
+    }
+
+    /**
+     * Download the given item for the installed version to the specified target,
+     * e.g. the latest item for a channel and system from the {@link Appcast#getIndex(java.util.Comparator) index}.
+     * Like {@link #download(Appcast, Path, String, Path)}, delta updates and block sync are used if possible.
+     *
+     * @param item The item to download
+     * @param targetDir The target download dir (update directory)
+     * @param localVersion The installed version, may be null
+     * @param localFile The installed file the delta updates are created for, may be null
+     * @return Path to the downloaded update file
+     * @throws IOException in case of an error
+     */
+    public Path download(Item item, Path targetDir, String localVersion, Path localFile) throws IOException, Exception {
+        if (item == null) {
+            throw new IllegalArgumentException("Item cannot be null!");
+        }
+        TransferBudget.Permit permit = acquirePermit();
+        try {
+            return downloadItem(item, targetDir, localVersion, localFile);
+        } finally {
+            permit.close();
+        }
+    }
 
-                File tmpFile = null;
-                ReadableByteChannel rbc = null;
-                FileOutputStream fos = null;
+    private Path downloadItem(Item item, Path targetDir, String localVersion, Path localFile) throws IOException, Exception {
+        Enclosure enclosure = (item != null) ? item.getEnclosure() : null;
+        if (enclosure != null && enclosure.getUrl() != null && localFile != null && Files.isRegularFile(localFile)) {
+            String url = enclosure.getUrl();
+            Path target = targetDir.resolve(url.substring( url.lastIndexOf('/')+1, url.length() ));
+            Enclosure delta = item.getDelta(localVersion);
+            if (delta != null && delta.getUrl() != null) {
                 try {
-                    tmpFile = File.createTempFile("ac-", ".part");
-                    rbc = Channels.newChannel(enclosureUrl.openStream());
-                    fos = new FileOutputStream(tmpFile);
-                    fos.getChannel().transferFrom(rbc, 0, Long.MAX_VALUE);
-
-                    // Verify if file is ok
-                    // Check size
-                    if (length > 0) {
-                        long size = Files.size(tmpFile.toPath());
-                        if (length != size) {
-                            throw new Exception("Downloaded file has wrong size! Expected: " + length + " -- Actual: " + size);
-                        }
-                    }
-
-                    // Check MD5/DSA Signature
-                    String md5 = enclosure.getMd5();
-                    if (md5 != null) {
-                        MessageDigest md = MessageDigest.getInstance("MD5");
-                        md.reset();
-                        byte[] bytes = new byte[2048];
-                        int numBytes;
-                        try (FileInputStream is = new FileInputStream(tmpFile)) {
-                            while ((numBytes = is.read(bytes)) != -1) {
-                                md.update(bytes, 0, numBytes);
-                            }
-                        }
-                        String hash = toHex(md.digest());
-                        if (!md5.equalsIgnoreCase(hash)) {
-                            throw new Exception("Downloaded file has wrong MD5 hash! Expected: " + md5 + " -- Actual: " + hash);
-                        }
-                    }
-
-                    // Copy file to target dir
-                    downloaded = Files.copy(tmpFile.toPath(), targetDir.resolve(targetName), StandardCopyOption.REPLACE_EXISTING);
-                } finally {
-                    try { if (fos != null) fos.close(); } catch (IOException e) { /*  ignore */ }
-                    try { if (rbc != null) rbc.close(); } catch (IOException e) { /*  ignore */ }
-                    if (tmpFile != null) {
-                        Files.deleteIfExists(tmpFile.toPath());
-                    }
+                    return downloadDelta(enclosure, delta, localFile, targetDir, target);
+                } catch (Exception ex) {
+                    LOG.warn("Delta update from version ''{}'' failed, downloading full update: {}", localVersion, ex.toString());
+                }
+            }
+            if (enclosure.getBlockIndex() != null) {
+                try {
+                    return downloadBlocks(enclosure, localFile, targetDir, target);
+                } catch (Exception ex) {
+                    LOG.warn("Block sync of ''{}'' failed, downloading full update: {}", url, ex.toString());
                 }
             }
         }
+        return downloadItem(item, targetDir);
+    }
 
-        return downloaded;
+    /**
+     * Wait for a download slot of the transfer budget
+     */
+    private TransferBudget.Permit acquirePermit() throws IOException {
+        if (transferBudget == null) {
+            return () -> { };
+        }
+        return transferBudget.acquire();
+    }
+
+    /**
+     * @return The rate limiters for downloads, may be empty
+     */
+    private List<RateLimiter> getRateLimiters() {
+        List<RateLimiter> limiters = new ArrayList<>(2);
+        if (rateLimiter != null) {
+            limiters.add(rateLimiter);
+        }
+        if (transferBudget != null && transferBudget.getRateLimiter() != null) {
+            limiters.add(transferBudget.getRateLimiter());
+        }
+        return limiters;
+    }
+
+    /**
+     * Download and verify the enclosure and move it to the target file
+     */
+    private Path download(Enclosure enclosure, Path targetDir, Path target) throws IOException, Exception {
+        String url = enclosure.getUrl();
+        URL enclosureUrl = new URL(url);
+        long length = enclosure.getLength();
+
+        // Expected checksums by digest algorithm, computed while downloading
+        Map<String, String> checksums = getChecksums(enclosure);
+        List<MessageDigest> digests = getDigests(checksums);
+
+        ResumableDownload transfer = new ResumableDownload(enclosureUrl, getPartFile(enclosure, targetDir, ".part"), retryPolicy,
+                DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+        ProgressTracker tracker = newTracker(url, length);
+        Transport connections = getConnectionTransport();
+        transfer.setTransport(connections);
+        transfer.setDigests(digests);
+        transfer.setRateLimiters(getRateLimiters());
+        transfer.setProgressTracker(tracker);
+        Path partFile = null;
+        // Resume an interrupted download rather than starting a segmented one
+        if (segmentCount > 1 && length > 0 && !Files.exists(transfer.getPartFile())) {
+            SegmentedDownload segmented = new SegmentedDownload(enclosureUrl, transfer.getPartFile(), length,
+                    segmentCount, minSegmentSize, retryPolicy, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+            segmented.setTransport(connections);
+            segmented.setRateLimiters(getRateLimiters());
+            segmented.setProgressTracker(tracker);
+            try {
+                if (segmented.isSupported()) {
+                    partFile = segmented.run(executor);
+                    // Segments arrive out of order and cannot be digested inline
+                    DigestingChannel.update(partFile, digests);
+                }
+            } catch (DownloadInProgressException ex) {
+                // Must not discard the file of the other download
+                throw ex;
+            } catch (IOException ex) {
+                LOG.warn("Segmented download of ''{}'' failed, falling back to a single connection: {}", url, ex.toString());
+                // Only deleted under the lock, run() fails if another download holds it
+                transfer.discard();
+                transfer.setDigests(digests);
+            }
+        }
+        if (partFile == null) {
+            // Throws if incomplete, the partial file is kept to be resumed
+            partFile = transfer.run();
+        }
+        recordTransfer(tracker);
+        try {
+            return verifyAndPromote(tracker, partFile, length, checksums, digests, target);
+        } finally {
+            // Complete, no need to resume. Kept if another download has locked it meanwhile
+            transfer.discard();
+        }
+    }
+
+    /**
+     * Download the delta enclosure and apply it to the local file
+     */
+    private Path downloadDelta(Enclosure enclosure, Enclosure delta, Path localFile, Path targetDir, Path target) throws IOException, Exception {
+        Map<String, String> checksums = getChecksums(enclosure);
+        if (checksums.isEmpty()) {
+            throw new Exception("Delta update requires a hash of the full update to verify the result!");
+        }
+        List<MessageDigest> digests = getDigests(checksums);
+
+        Path patchFile = download(delta, targetDir, getPartFile(delta, targetDir, ".delta"));
+        Path partFile = getPartFile(enclosure, targetDir, ".patched");
+        try {
+            LOG.debug("Applying delta update from version ''{}'' to ''{}''", delta.getDeltaFrom(), localFile);
+            ProgressTracker tracker = newTracker(enclosure.getUrl(), enclosure.getLength());
+            DeltaPatch.apply(localFile, patchFile, partFile, digests);
+            return verifyAndPromote(tracker, partFile, enclosure.getLength(), checksums, digests, target);
+        } finally {
+            Files.deleteIfExists(patchFile);
+            Files.deleteIfExists(partFile);
+        }
+    }
+
+    /**
+     * Download the blocks missing in the local file and build the enclosure file
+     */
+    private Path downloadBlocks(Enclosure enclosure, Path localFile, Path targetDir, Path target) throws IOException, Exception {
+        Map<String, String> checksums = getChecksums(enclosure);
+        if (checksums.isEmpty()) {
+            throw new Exception("Block sync requires a hash of the full update to verify the result!");
+        }
+        List<MessageDigest> digests = getDigests(checksums);
+
+        URL enclosureUrl = new URL(enclosure.getUrl());
+        Transport connections = getConnectionTransport();
+        BlockIndex index = fetchBlockIndex(new URL(enclosureUrl, enclosure.getBlockIndex()), connections);
+        if (enclosure.getLength() > 0 && index.getLength() != enclosure.getLength()) {
+            throw new Exception("Block index does not match enclosure length " + enclosure.getLength());
+        }
+
+        Path partFile = getPartFile(enclosure, targetDir, ".sync");
+        try {
+            ProgressTracker tracker = newTracker(enclosure.getUrl(), index.getLength());
+            BlockSync sync = new BlockSync(enclosureUrl, index, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+            sync.setTransport(connections);
+            sync.setRateLimiters(getRateLimiters());
+            sync.setProgressTracker(tracker);
+            sync.run(localFile, partFile, digests);
+            recordTransfer(tracker);
+            LOG.debug("Block sync reused {} of {} bytes", sync.getReused(), index.getLength());
+            return verifyAndPromote(tracker, partFile, enclosure.getLength(), checksums, digests, target);
+        } finally {
+            Files.deleteIfExists(partFile);
+        }
+    }
+
+    /**
+     * Fetch a block index, retried like the downloads
+     */
+    private BlockIndex fetchBlockIndex(URL url, Transport connections) throws IOException {
+        int failed = 0;
+        while (true) {
+            try {
+                retryPolicy.check(url);
+                BlockIndex index = readBlockIndex(url, connections);
+                retryPolicy.onSuccess(url);
+                return index;
+            } catch (IOException ex) {
+                failed++;
+                retryPolicy.onFailure(url, ex);
+                if (!retryPolicy.shouldRetry(ex, failed)) {
+                    throw ex;
+                }
+                LOG.info("Fetching block index ''{}'' failed ({}), retrying in {} ms...", url, ex.toString(), retryPolicy.getBackoff(ex, failed));
+                retryPolicy.await(ex, failed);
+            }
+        }
+    }
+
+    private BlockIndex readBlockIndex(URL url, Transport connections) throws IOException {
+        URLConnection conn = connections.open(url, null, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+        HttpURLConnection http = (conn instanceof HttpURLConnection) ? (HttpURLConnection) conn : null;
+        if (http != null) {
+            int status = http.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                long retryAfter = HttpStatusException.getRetryAfter(http);
+                KeepAliveTransport.release(http);
+                throw new HttpStatusException("Block index request for '" + url + "' failed with HTTP " + status, status, retryAfter);
+            }
+        }
+        boolean complete = false;
+        try (InputStream is = conn.getInputStream()) {
+            BlockIndex index = BlockIndex.read(is);
+            // Read to the end, so the connection can be reused
+            while (is.read() >= 0) {
+                // Discard
+            }
+            complete = true;
+            return index;
+        } finally {
+            if (!complete && http != null) {
+                http.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Record bytes, rate and duration of the transfer
+     */
+    private static void recordTransfer(ProgressTracker tracker) {
+        Instrumentation metrics = Metrics.get();
+        if (metrics.isEnabled()) {
+            long nanos = tracker.getTransferTime();
+            metrics.recordValue(Instrumentation.DOWNLOAD_BYTES, tracker.getTransferredBytes());
+            metrics.recordTime(Instrumentation.DOWNLOAD_TRANSFER, nanos);
+            if (nanos > 0) {
+                metrics.recordValue(Instrumentation.DOWNLOAD_RATE, (long) (tracker.getTransferredBytes() * 1e9 / nanos));
+            }
+        }
+    }
+
+    private ProgressTracker newTracker(String url, long length) {
+        ProgressTracker tracker = new ProgressTracker(url, (length > 0) ? length : -1, progressListener);
+        tracker.setStallDetection(minTransferRate, stallTimeout);
+        return tracker;
+    }
+
+    private Path verifyAndPromote(ProgressTracker tracker, Path partFile, long length, Map<String, String> checksums,
+            List<MessageDigest> digests, Path target) throws IOException, Exception {
+        tracker.phase(TransferProgress.Phase.VERIFY);
+        long time = System.nanoTime();
+        verify(partFile, length, checksums, digests);
+        Metrics.get().recordTime(Instrumentation.DOWNLOAD_VERIFY, System.nanoTime() - time);
+        tracker.phase(TransferProgress.Phase.MOVE);
+        Path promoted = promote(partFile, target);
+        tracker.phase(TransferProgress.Phase.DONE);
+        return promoted;
+    }
+
+    /**
+     * Verify size and hashes of the file
+     * @param digests The digests, already updated with the file content
+     */
+    private static void verify(Path file, long length, Map<String, String> checksums, List<MessageDigest> digests) throws IOException, Exception {
+        // Check size
+        if (length > 0) {
+            long size = Files.size(file);
+            if (length != size) {
+                throw new Exception("Downloaded file has wrong size! Expected: " + length + " -- Actual: " + size);
+            }
+        }
+
+        // Check MD5/SHA hashes
+        for (MessageDigest md : digests) {
+            String expected = checksums.get(md.getAlgorithm());
+            String hash = toHex(md.digest());
+            if (!expected.equalsIgnoreCase(hash)) {
+                throw new Exception("Downloaded file has wrong " + md.getAlgorithm() + " hash! Expected: " + expected + " -- Actual: " + hash);
+            }
+        }
+    }
+
+    private static List<MessageDigest> getDigests(Map<String, String> checksums) throws GeneralSecurityException {
+        List<MessageDigest> digests = new ArrayList<>();
+        for (String algorithm : checksums.keySet()) {
+            digests.add(MessageDigest.getInstance(algorithm));
+        }
+        return digests;
+    }
+
+    /**
+     * Get the checksums of the given enclosure by digest algorithm
+     */
+    private static Map<String, String> getChecksums(Enclosure enclosure) {
+        Map<String, String> checksums = new LinkedHashMap<>();
+        putChecksum(checksums, "MD5", enclosure.getMd5());
+        putChecksum(checksums, "SHA-1", enclosure.getSha1());
+        putChecksum(checksums, "SHA-256", enclosure.getSha256());
+        putChecksum(checksums, "SHA-512", enclosure.getSha512());
+        return checksums;
+    }
+
+    private static void putChecksum(Map<String, String> checksums, String algorithm, String value) {
+        if (value != null && !value.trim().isEmpty()) {
+            checksums.put(algorithm, value.trim());
+        }
+    }
+
+    /**
+     * Get the persistent partial file for the given enclosure, keyed by URL and version.
+     * The hidden file does not match the update files picked up by the Bootstrap.
+     */
+    private Path getPartFile(Enclosure enclosure, Path targetDir, String suffix) throws IOException, GeneralSecurityException {
+        MessageDigest md = MessageDigest.getInstance("SHA-1");
+        String key = enclosure.getUrl() + "#" + enclosure.getVersion();
+        Path dir = (partDirectory != null) ? partDirectory : targetDir;
+        Files.createDirectories(dir);
+        return dir.resolve(".ac-" + toHex(md.digest(key.getBytes(StandardCharsets.UTF_8))) + suffix);
+    }
+
+    /**
+     * Move the complete file to its target, so no partial file is ever visible there.
+     * Copies to a temporary file next to the target first if the file cannot be moved atomically,
+     * e.g. if it resides on another file system.
+     */
+    private static Path promote(Path partFile, Path target) throws IOException {
+        try {
+            return Files.move(partFile, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            LOG.debug("Cannot move ''{}'' atomically, copying it: {}", partFile, ex.getMessage());
+        }
+        Path tmpFile = Files.createTempFile(target.getParent(), ".ac-", ".tmp");
+        try {
+            Files.copy(partFile, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmpFile, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+        Files.delete(partFile);
+        return target;
     }
 
     private static String toHex(byte[] arrayBytes) {
@@ -264,6 +907,178 @@ public class AppcastManager {
         return sb.toString();
     }
 
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Set the retry policy for fetches and downloads.
+     * Use one policy for many managers to share its circuit breaker.
+     * The default policy makes 3 attempts: with the default timeouts of 8s an unreachable
+     * host blocks synchronous calls like {@link de.dimaki.refuel.updater.boundary.Updater#checkApplicationStatus(String, URL) Updater.checkApplicationStatus}
+     * for about 27s (3 timeouts plus 1s and 2s backoff). Use {@link RetryPolicy#NONE} or
+     * shorter timeouts to fail faster.
+     * @param retryPolicy The retry policy, {@link RetryPolicy#NONE} to disable retries
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        if (retryPolicy == null) {
+            throw new IllegalArgumentException("Retry policy cannot be null!");
+        }
+        this.retryPolicy = retryPolicy;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Set the max. number of parallel connections for a download.
+     * Segmented downloads are only used if the server supports byte ranges
+     * and the enclosure length is known.
+     * @param segmentCount The max. number of segments, 1 to disable segmented downloads (default)
+     */
+    public void setSegmentCount(int segmentCount) {
+        if (segmentCount < 1) {
+            throw new IllegalArgumentException("Segment count must be at least 1!");
+        }
+        this.segmentCount = segmentCount;
+    }
+
+    public long getMinSegmentSize() {
+        return minSegmentSize;
+    }
+
+    /**
+     * Set the min. size of a download segment
+     * @param minSegmentSize The min. segment size in bytes, default is 1 MiB
+     */
+    public void setMinSegmentSize(long minSegmentSize) {
+        if (minSegmentSize < 1) {
+            throw new IllegalArgumentException("Min. segment size must be at least 1!");
+        }
+        this.minSegmentSize = minSegmentSize;
+    }
+
+    public Path getPartDirectory() {
+        return partDirectory;
+    }
+
+    /**
+     * Set the directory for partial downloads.
+     * Interrupted downloads are kept there and resumed on the next attempt.
+     * Should be on the same file system as the target directory, otherwise
+     * the complete file has to be copied.
+     * @param partDirectory The directory, null for the target directory (default)
+     */
+    public void setPartDirectory(Path partDirectory) {
+        this.partDirectory = partDirectory;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Limit the bandwidth of the downloads of this manager,
+     * e.g. <code>new RateLimiter(256 * 1024)</code> to trickle updates in the background
+     * @param rateLimiter The rate limiter, null for unlimited
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    public TransferBudget getTransferBudget() {
+        return transferBudget;
+    }
+
+    /**
+     * Set the budget limiting parallel downloads and their total bandwidth.
+     * Use the same budget for all managers of the process.
+     * @param transferBudget The budget, null for unlimited
+     */
+    public void setTransferBudget(TransferBudget transferBudget) {
+        this.transferBudget = transferBudget;
+    }
+
+    public ProgressListener getProgressListener() {
+        return progressListener;
+    }
+
+    /**
+     * Set the listener for the progress of downloads
+     * @param progressListener The listener, null for none
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    public long getMinTransferRate() {
+        return minTransferRate;
+    }
+
+    public long getStallTimeout() {
+        return stallTimeout;
+    }
+
+    /**
+     * Abort downloads staying below the given rate for the stall timeout.
+     * Stalled downloads are retried and resumed like broken connections.
+     * @param minTransferRate The min. rate in bytes per second, 0 to disable stall detection
+     * @param stallTimeout The time in milliseconds a download may stay below the min. rate
+     */
+    public void setStallDetection(long minTransferRate, long stallTimeout) {
+        if (minTransferRate < 0 || stallTimeout < 0) {
+            throw new IllegalArgumentException("Min. transfer rate and stall timeout cannot be negative!");
+        }
+        this.minTransferRate = minTransferRate;
+        this.stallTimeout = stallTimeout;
+    }
+
+    public AppcastParser getParser() {
+        return parser;
+    }
+
+    /**
+     * Set the parser used to read fetched appcasts.
+     * E.g. a {@link de.dimaki.refuel.appcast.control.StaxAppcastParser} reading only the newest items.
+     * @param parser The appcast parser
+     */
+    public void setParser(AppcastParser parser) {
+        if (parser == null) {
+            throw new IllegalArgumentException("Parser cannot be null!");
+        }
+        this.parser = parser;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Set the executor for asynchronous fetches and segmented downloads.
+     * @param executor The executor, by default a shared pool of daemon threads
+     */
+    public void setExecutor(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor cannot be null!");
+        }
+        this.executor = executor;
+    }
+
+    public AppcastCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Set the cache for fetched appcasts.
+     * Cached appcasts are revalidated with conditional requests and
+     * not fetched at all as long as their Cache-Control max-age is not exceeded.
+     * @param cache The appcast cache, null to disable caching (default)
+     */
+    public void setCache(AppcastCache cache) {
+        this.cache = cache;
+    }
+
     public boolean isTrustAllCerts() {
         return trustAllCerts;
     }
@@ -274,6 +1089,7 @@ public class AppcastManager {
      */
     public void setTrustAllCerts(boolean trustAllCerts) {
         this.trustAllCerts = trustAllCerts;
+        this.defaultTransport = null;
     }
 
     public boolean isVerifyHostname() {
@@ -286,26 +1102,89 @@ public class AppcastManager {
      */
     public void setVerifyHostname(boolean verifyHostname) {
         this.verifyHostname = verifyHostname;
+        this.defaultTransport = null;
     }
 
-    private SSLContext createSslContext() throws GeneralSecurityException {
-        SSLContext sslContext = SSLContext.getInstance("TLS");
+    public Transport getTransport() {
+        return transport;
+    }
 
-        TrustManager[] trustAll = new TrustManager[] {new X509TrustManager() {
-                @Override
-                public java.security.cert.X509Certificate[] getAcceptedIssuers() {
-                    return null;
-                }
+    /**
+     * Set the transport opening all connections of this manager.
+     * The SSL settings of this manager are not applied to a custom transport.
+     * @param transport The transport, null for the default keep-alive transport
+     */
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Get the transport for the next connections. The default transport is shared
+     * until the SSL settings change, so its connections can be reused.
+     */
+    private Transport getConnectionTransport() throws GeneralSecurityException {
+        if (transport != null) {
+            return transport;
+        }
+        Transport t = defaultTransport;
+        if (t == null) {
+            if (trustAllCerts || !verifyHostname) {
+                t = new KeepAliveTransport(trustAllCerts ? KeepAliveTransport.getTrustAllSocketFactory() : null,
+                        verifyHostname ? null : new TrustAllHostnameVerifier());
+            } else {
+                t = KeepAliveTransport.DEFAULT;
+            }
+            defaultTransport = t;
+        }
+        return t;
+    }
+
+    /**
+     * Aborts the connection of a cancelled asynchronous fetch.
+     * A connection still waiting for the response is closed immediately,
+     * a running transfer stops with the next data received.
+     */
+    static class Cancellation {
+        private volatile boolean cancelled;
+        private volatile URLConnection connection;
+
+        void attach(URLConnection connection) throws IOException {
+            this.connection = connection;
+            if (cancelled) {
+                throw new InterruptedIOException("Fetch cancelled");
+            }
+        }
+
+        InputStream wrap(InputStream is) {
+            return new FilterInputStream(is) {
                 @Override
-                public void checkClientTrusted(X509Certificate[] certs, String authType) {
+                public int read() throws IOException {
+                    checkCancelled();
+                    return super.read();
                 }
+
                 @Override
-                public void checkServerTrusted(X509Certificate[] certs, String authType) {
+                public int read(byte[] b, int off, int len) throws IOException {
+                    checkCancelled();
+                    return super.read(b, off, len);
                 }
+            };
+        }
+
+        void cancel() {
+            cancelled = true;
+            final URLConnection c = connection;
+            if (c instanceof HttpURLConnection) {
+                // disconnect() blocks while a body read is in progress
+                CompletableFuture.runAsync(((HttpURLConnection) c)::disconnect);
             }
-        };
-        sslContext.init(null, trustAll, new SecureRandom());
-        return sslContext;
+        }
+
+        private void checkCancelled() throws IOException {
+            if (cancelled) {
+                throw new InterruptedIOException("Fetch cancelled");
+            }
+        }
     }
 
     /**
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import de.dimaki.refuel.appcast.entity.Appcast;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache for fetched appcasts.
+ * Keeps the parsed appcast together with its HTTP validators (ETag/Last-Modified)
+ * and expiry time. If a directory is given, the raw appcast and its metadata are
+ * stored there, so the cache survives restarts.
+ * Note that cached appcast objects are shared between all callers.
+ *
+ * @author Dino Tsoumakis
+ */
+public class AppcastCache {
+    private static final Logger LOG = LoggerFactory.getLogger(AppcastCache.class);
+    private static final String BODY_SUFFIX = ".xml";
+    private static final String META_SUFFIX = ".properties";
+    private static final String KEY_URL = "url";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_EXPIRES = "expires";
+
+    /** max-age value for responses that must not be stored */
+    public static final long NO_STORE = -1;
+
+    private final Path directory;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Create an in-memory cache
+     */
+    public AppcastCache() {
+        this.directory = null;
+    }
+
+    /**
+     * Create a cache persisted in the given directory
+     * @param directory The cache directory, created if it does not exist
+     * @throws IOException if the directory could not be created
+     */
+    public AppcastCache(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get the cached entry for the given URL.
+     * Entries not in memory yet are loaded from the cache directory.
+     *
+     * @param url The appcast URL
+     * @param parser The parser used to read persisted appcasts
+     * @return The entry or null if there is none
+     */
+    public Entry get(URL url, AppcastParser parser) {
+        String key = url.toExternalForm();
+        Entry entry = entries.get(key);
+        if (entry == null && directory != null) {
+            entry = load(key, parser);
+            if (entry != null) {
+                Entry existing = entries.putIfAbsent(key, entry);
+                if (existing != null) {
+                    entry = existing;
+                }
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Parse a fetched appcast and store it in the cache
+     *
+     * @param url The appcast URL
+     * @param input The response body
+     * @param parser The appcast parser
+     * @param etag The ETag response header, may be null
+     * @param lastModified The Last-Modified response header, may be null
+     * @param maxAge The max. age in seconds, see {@link #getMaxAge(String)}
+     * @return The new entry
+     * @throws IOException in case of an I/O error
+     * @throws AppcastParseException if the response is no valid appcast
+     */
+    public Entry put(URL url, InputStream input, AppcastParser parser, String etag, String lastModified, long maxAge)
+            throws IOException, AppcastParseException {
+        String key = url.toExternalForm();
+        if (maxAge == NO_STORE) {
+            // Also drops a persisted copy, which would be loaded again otherwise
+            invalidate(url);
+            return new Entry(parser.parse(input), null, null, 0);
+        }
+        Entry entry;
+        if (directory == null) {
+            entry = new Entry(parser.parse(input), etag, lastModified, expires(maxAge));
+        } else {
+            String name = hash(key);
+            Path tmp = Files.createTempFile(directory, name, ".part");
+            try {
+                Files.copy(input, tmp, StandardCopyOption.REPLACE_EXISTING);
+                Appcast appcast;
+                try (InputStream is = Files.newInputStream(tmp)) {
+                    appcast = parser.parse(is);
+                }
+                entry = new Entry(appcast, etag, lastModified, expires(maxAge));
+                move(tmp, directory.resolve(name + BODY_SUFFIX));
+                storeMetadata(key, entry);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        entries.put(key, entry);
+        return entry;
+    }
+
+    /**
+     * Mark the entry as valid again after a "304 Not Modified" response
+     *
+     * @param url The appcast URL
+     * @param entry The revalidated entry
+     * @param maxAge The new max. age in seconds
+     * @return The updated entry
+     */
+    public Entry revalidate(URL url, Entry entry, long maxAge) {
+        String key = url.toExternalForm();
+        Entry updated = new Entry(entry.getAppcast(), entry.getETag(), entry.getLastModified(), expires(maxAge));
+        entries.put(key, updated);
+        if (directory != null) {
+            try {
+                storeMetadata(key, updated);
+            } catch (IOException ex) {
+                LOG.warn("Could not update appcast cache metadata for ''{}'': {}", key, ex.getMessage());
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Remove the entry for the given URL
+     * @param url The appcast URL
+     */
+    public void invalidate(URL url) {
+        String key = url.toExternalForm();
+        entries.remove(key);
+        if (directory != null) {
+            String name = hash(key);
+            try {
+                Files.deleteIfExists(directory.resolve(name + META_SUFFIX));
+                Files.deleteIfExists(directory.resolve(name + BODY_SUFFIX));
+            } catch (IOException ex) {
+                LOG.warn("Could not remove cached appcast ''{}'': {}", key, ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Get the max. age from a Cache-Control header
+     * @param cacheControl The header value, may be null
+     * @return The max. age in seconds, 0 if the response has to be revalidated
+     * or {@link #NO_STORE} if it must not be stored at all
+     */
+    public static long getMaxAge(String cacheControl) {
+        if (cacheControl == null) {
+            return 0;
+        }
+        long maxAge = 0;
+        for (String directive : cacheControl.split(",")) {
+            String d = directive.trim().toLowerCase(Locale.ROOT);
+            if (d.equals("no-store")) {
+                return NO_STORE;
+            } else if (d.equals("no-cache")) {
+                maxAge = 0;
+                break;
+            } else if (d.startsWith("max-age=")) {
+                try {
+                    maxAge = Math.max(0, Long.parseLong(d.substring(8).replace("\"", "").trim()));
+                } catch (NumberFormatException ex) {
+                    maxAge = 0;
+                }
+            }
+        }
+        return maxAge;
+    }
+
+    private Entry load(String key, AppcastParser parser) {
+        String name = hash(key);
+        Path meta = directory.resolve(name + META_SUFFIX);
+        Path body = directory.resolve(name + BODY_SUFFIX);
+        if (!Files.exists(meta) || !Files.exists(body)) {
+            return null;
+        }
+        try {
+            Properties p = new Properties();
+            try (Reader r = Files.newBufferedReader(meta, StandardCharsets.UTF_8)) {
+                p.load(r);
+            }
+            if (!key.equals(p.getProperty(KEY_URL))) {
+                return null;
+            }
+            Appcast appcast;
+            try (InputStream is = Files.newInputStream(body)) {
+                appcast = parser.parse(is);
+            }
+            return new Entry(appcast, p.getProperty(KEY_ETAG), p.getProperty(KEY_LAST_MODIFIED),
+                    Long.parseLong(p.getProperty(KEY_EXPIRES, "0")));
+        } catch (IOException | AppcastParseException | NumberFormatException ex) {
+            LOG.warn("Ignoring invalid cached appcast ''{}'': {}", key, ex.getMessage());
+            return null;
+        }
+    }
+
+    private void storeMetadata(String key, Entry entry) throws IOException {
+        Properties p = new Properties();
+        p.setProperty(KEY_URL, key);
+        if (entry.getETag() != null) {
+            p.setProperty(KEY_ETAG, entry.getETag());
+        }
+        if (entry.getLastModified() != null) {
+            p.setProperty(KEY_LAST_MODIFIED, entry.getLastModified());
+        }
+        p.setProperty(KEY_EXPIRES, Long.toString(entry.getExpires()));
+        String name = hash(key);
+        Path tmp = Files.createTempFile(directory, name, ".part");
+        try {
+            try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                p.store(w, null);
+            }
+            move(tmp, directory.resolve(name + META_SUFFIX));
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static long expires(long maxAge) {
+        return maxAge > 0 ? System.currentTimeMillis() + maxAge * 1000 : 0;
+    }
+
+    private static String hash(String key) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * A cached appcast with its validators
+     */
+    public static class Entry {
+        private final Appcast appcast;
+        private final String etag;
+        private final String lastModified;
+        private final long expires;
+
+        Entry(Appcast appcast, String etag, String lastModified, long expires) {
+            this.appcast = appcast;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expires = expires;
+        }
+
+        public Appcast getAppcast() {
+            return appcast;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return Expiry time in milliseconds since epoch, 0 if the entry has to be revalidated
+         */
+        public long getExpires() {
+            return expires;
+        }
+
+        /**
+         * @return true if the entry may be used without asking the server
+         */
+        public boolean isFresh() {
+            return expires > System.currentTimeMillis();
+        }
+    }
+}
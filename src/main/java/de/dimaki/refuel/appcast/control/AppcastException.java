@@ -23,9 +23,13 @@ import java.net.URL;
  */
 public class AppcastException extends Exception {
 
+    /** Status of errors without an HTTP response, e.g. a refused connection */
+    public static final int NO_STATUS = -1;
+
     URL url;
     int status;
     String statusInfo;
+    long retryAfter = -1;
 
     public AppcastException(String message, URL url, int status, String statusInfo) {
         super(message);
@@ -34,6 +38,18 @@ public class AppcastException extends Exception {
         this.statusInfo = statusInfo;
     }
 
+    /**
+     * @param message The message
+     * @param url The appcast URL
+     * @param status The HTTP status, {@link #NO_STATUS} without a response
+     * @param statusInfo Additional status information
+     * @param retryAfter Time in milliseconds the server asked to wait, -1 if unknown
+     */
+    public AppcastException(String message, URL url, int status, String statusInfo, long retryAfter) {
+        this(message, url, status, statusInfo);
+        this.retryAfter = retryAfter;
+    }
+
     public URL getUrl() {
         return url;
     }
@@ -45,4 +61,11 @@ public class AppcastException extends Exception {
     public String getStatusInfo() {
         return statusInfo;
     }
+
+    /**
+     * @return Time in milliseconds the server asked to wait before the next request, -1 if unknown
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
 }
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+/**
+ * Thrown by an {@link AppcastParser} if the content is no valid appcast.
+ *
+ * @author Dino Tsoumakis
+ */
+public class AppcastParseException extends Exception {
+
+    public AppcastParseException(String message) {
+        super(message);
+    }
+
+    public AppcastParseException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import de.dimaki.refuel.appcast.entity.Appcast;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads an appcast document into the appcast entities.
+ * Implementations must be safe to be used from multiple threads.
+ *
+ * @author Dino Tsoumakis
+ */
+public interface AppcastParser {
+
+    /**
+     * Parse the appcast from the given stream.
+     * The stream is not closed by the parser.
+     *
+     * @param input The appcast XML
+     * @return The parsed appcast
+     * @throws IOException if the stream could not be read
+     * @throws AppcastParseException if the content is no valid appcast
+     */
+    Appcast parse(InputStream input) throws IOException, AppcastParseException;
+}
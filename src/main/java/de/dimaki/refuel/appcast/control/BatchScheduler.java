@@ -0,0 +1,163 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs tasks on an executor with a global concurrency limit and a limit per host.
+ * Hosts are served round robin, so many tasks for one host do not block the others.
+ * Waiting tasks are queued, no thread is blocked waiting for a free slot.
+ * Tasks rejected by the executor are reported to their rejection handler,
+ * the remaining tasks are still dispatched.
+ *
+ * @author Dino Tsoumakis
+ */
+public class BatchScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchScheduler.class);
+    private final Executor executor;
+    private final int maxConcurrency;
+    private final int maxPerHost;
+    // Pending tasks by host, in round robin order
+    private final LinkedHashMap<String, Deque<Task>> pending = new LinkedHashMap<>();
+    private final Map<String, Integer> activeByHost = new HashMap<>();
+    private int active;
+
+    /**
+     * @param executor The executor running the tasks
+     * @param maxConcurrency Max. number of tasks running at the same time
+     * @param maxPerHost Max. number of tasks for the same host running at the same time
+     */
+    public BatchScheduler(Executor executor, int maxConcurrency, int maxPerHost) {
+        if (maxConcurrency < 1 || maxPerHost < 1) {
+            throw new IllegalArgumentException("Limits must be at least 1!");
+        }
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+        this.maxPerHost = maxPerHost;
+    }
+
+    /**
+     * Submit a task for the given host
+     * @param host The host the task connects to
+     * @param task The task
+     */
+    public void submit(String host, Runnable task) {
+        submit(host, task, null);
+    }
+
+    /**
+     * Submit a task for the given host
+     * @param host The host the task connects to
+     * @param task The task
+     * @param onRejected Called with the exception if the executor rejects the task, may be null
+     */
+    public synchronized void submit(String host, Runnable task, Consumer<RuntimeException> onRejected) {
+        Deque<Task> queue = pending.get(host);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            pending.put(host, queue);
+        }
+        queue.add(new Task(task, onRejected));
+        dispatch();
+    }
+
+    /**
+     * @return Number of currently running tasks
+     */
+    public synchronized int getActiveCount() {
+        return active;
+    }
+
+    private void dispatch() {
+        while (active < maxConcurrency) {
+            String host = null;
+            Task task = null;
+            Iterator<Map.Entry<String, Deque<Task>>> it = pending.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Deque<Task>> e = it.next();
+                if (activeByHost.getOrDefault(e.getKey(), 0) < maxPerHost) {
+                    host = e.getKey();
+                    task = e.getValue().poll();
+                    it.remove();
+                    if (!e.getValue().isEmpty()) {
+                        // Move host to the end of the round
+                        pending.put(host, e.getValue());
+                    }
+                    break;
+                }
+            }
+            if (task == null) {
+                return;
+            }
+            start(host, task);
+        }
+    }
+
+    private void start(final String host, final Task task) {
+        active++;
+        activeByHost.merge(host, 1, Integer::sum);
+        try {
+            executor.execute(() -> {
+                try {
+                    task.runnable.run();
+                } finally {
+                    finished(host);
+                }
+            });
+        } catch (RuntimeException ex) {
+            // Release the slot without dispatching, the caller continues with the next task
+            release(host);
+            if (task.onRejected != null) {
+                task.onRejected.accept(ex);
+            } else {
+                LOG.warn("Task for host ''{}'' rejected: {}", host, ex.toString());
+            }
+        }
+    }
+
+    private synchronized void finished(String host) {
+        release(host);
+        dispatch();
+    }
+
+    private void release(String host) {
+        active--;
+        if (activeByHost.merge(host, -1, Integer::sum) <= 0) {
+            activeByHost.remove(host);
+        }
+    }
+
+    private static class Task {
+        final Runnable runnable;
+        final Consumer<RuntimeException> onRejected;
+
+        Task(Runnable runnable, Consumer<RuntimeException> onRejected) {
+            this.runnable = runnable;
+            this.onRejected = onRejected;
+        }
+    }
+}
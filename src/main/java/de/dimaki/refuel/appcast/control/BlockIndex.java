@@ -0,0 +1,201 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Checksums of the fixed size blocks of a file, published next to an enclosure
+ * so clients can find the blocks they already have (see {@link BlockSync}).
+ * <p>
+ * Format (big endian): magic, block size, file length, followed by the
+ * {@link RollingChecksum} and the MD5 hash of each block.
+ * <p>
+ * Usage: <code>java -cp refuel.jar de.dimaki.refuel.appcast.control.BlockIndex &lt;file&gt; &lt;index file&gt; [block size]</code>
+ *
+ * @author Dino Tsoumakis
+ */
+public class BlockIndex {
+
+    public static final int MAGIC = 0x52464231; // "RFB1"
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    static final int HASH_LENGTH = 16;
+    // Blocks allocated before reading, more as the data arrives
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private final int blockSize;
+    private final long length;
+    private final int[] checksums;
+    private final byte[][] hashes;
+
+    BlockIndex(int blockSize, long length, int[] checksums, byte[][] hashes) {
+        this.blockSize = blockSize;
+        this.length = length;
+        this.checksums = checksums;
+        this.hashes = hashes;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public int getBlockCount() {
+        return checksums.length;
+    }
+
+    /**
+     * @param block The block number
+     * @return The length of the block, only the last one may be shorter
+     */
+    public int getBlockLength(int block) {
+        return (int) Math.min(blockSize, length - (long) block * blockSize);
+    }
+
+    int getChecksum(int block) {
+        return checksums[block];
+    }
+
+    byte[] getHash(int block) {
+        return hashes[block];
+    }
+
+    /**
+     * Create the index of the given file
+     * @param file The file
+     * @param blockSize The block size
+     * @return The index
+     * @throws IOException in case of an error
+     */
+    public static BlockIndex create(Path file, int blockSize) throws IOException {
+        if (blockSize < 16 || blockSize > DeltaGenerator.MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size must be between 16 and " + DeltaGenerator.MAX_BLOCK_SIZE + "!");
+        }
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = fc.size();
+            if ((length + blockSize - 1) / blockSize > DeltaGenerator.MAX_BLOCKS) {
+                throw new IOException("File too large for block size " + blockSize + ": " + length + " bytes");
+            }
+            int count = (int) ((length + blockSize - 1) / blockSize);
+            int[] checksums = new int[count];
+            byte[][] hashes = new byte[count][];
+            MessageDigest md = newDigest();
+            ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+            for (int block = 0; block < count; block++) {
+                buffer.clear();
+                while (buffer.hasRemaining()) {
+                    if (fc.read(buffer) < 0) {
+                        break;
+                    }
+                }
+                checksums[block] = RollingChecksum.of(buffer.array(), 0, buffer.position());
+                md.update(buffer.array(), 0, buffer.position());
+                hashes[block] = md.digest();
+            }
+            return new BlockIndex(blockSize, length, checksums, hashes);
+        }
+    }
+
+    /**
+     * Read an index. The index usually comes from the network, so the arrays
+     * grow with the data actually read rather than with the header.
+     * @param input The input stream
+     * @return The index
+     * @throws IOException in case of an error or invalid data
+     */
+    public static BlockIndex read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Invalid block index");
+        }
+        int blockSize = in.readInt();
+        long length = in.readLong();
+        if (blockSize < 16 || blockSize > DeltaGenerator.MAX_BLOCK_SIZE || length < 0
+                || (length + blockSize - 1) / blockSize > DeltaGenerator.MAX_BLOCKS) {
+            throw new IOException("Invalid block index: block size " + blockSize + ", length " + length);
+        }
+        int count = (int) ((length + blockSize - 1) / blockSize);
+        int[] checksums = new int[Math.min(count, INITIAL_CAPACITY)];
+        byte[][] hashes = new byte[checksums.length][];
+        for (int block = 0; block < count; block++) {
+            if (block == checksums.length) {
+                int capacity = (int) Math.min(count, 2L * block);
+                checksums = Arrays.copyOf(checksums, capacity);
+                hashes = Arrays.copyOf(hashes, capacity);
+            }
+            checksums[block] = in.readInt();
+            hashes[block] = new byte[HASH_LENGTH];
+            in.readFully(hashes[block]);
+        }
+        return new BlockIndex(blockSize, length, checksums, hashes);
+    }
+
+    /**
+     * Write the index
+     * @param output The output stream
+     * @throws IOException in case of an error
+     */
+    public void write(OutputStream output) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+        out.writeInt(MAGIC);
+        out.writeInt(blockSize);
+        out.writeLong(length);
+        for (int block = 0; block < checksums.length; block++) {
+            out.writeInt(checksums[block]);
+            out.write(hashes[block]);
+        }
+        out.flush();
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BlockIndex <file> <index file> [block size]");
+            System.exit(1);
+        }
+        int blockSize = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_BLOCK_SIZE;
+        BlockIndex index = create(Paths.get(args[0]), blockSize);
+        try (OutputStream os = Files.newOutputStream(Paths.get(args[1]))) {
+            index.write(os);
+        }
+        System.out.println(index.getBlockCount() + " blocks of " + blockSize + " bytes");
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rebuilds a remote file from the blocks of a local file ("zsync").
+ * The local file is scanned with a {@link RollingChecksum} for blocks of the
+ * {@link BlockIndex}, only the missing blocks are fetched with range requests.
+ *
+ * @author Dino Tsoumakis
+ */
+public class BlockSync {
+    private static final Logger LOG = LoggerFactory.getLogger(BlockSync.class);
+    // Size of the mapped windows of the local file
+    private static final int MAP_SIZE = 64 * 1024 * 1024;
+
+    private final URL url;
+    private final BlockIndex index;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private long reused;
+    private List<RateLimiter> rateLimiters = Collections.emptyList();
+    private Transport transport = KeepAliveTransport.DEFAULT;
+    private ProgressTracker progressTracker;
+
+    /**
+     * @param url The URL of the remote file
+     * @param index The block index of the remote file
+     * @param connectTimeout The connect timeout in milliseconds
+     * @param readTimeout The read timeout in milliseconds
+     */
+    public BlockSync(URL url, BlockIndex index, int connectTimeout, int readTimeout) {
+        this.url = url;
+        this.index = index;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Set the rate limiters for the download, e.g. the limit of the
+     * appcast manager and the one of a process-wide budget
+     * @param rateLimiters The rate limiters
+     */
+    public void setRateLimiters(List<RateLimiter> rateLimiters) {
+        this.rateLimiters = rateLimiters;
+    }
+
+    /**
+     * Set the transport opening the connections
+     * @param transport The transport
+     */
+    public void setTransport(Transport transport) {
+        if (transport == null) {
+            throw new IllegalArgumentException("Transport cannot be null!");
+        }
+        this.transport = transport;
+    }
+
+    /**
+     * Set the tracker for the progress of the sync.
+     * Blocks taken from the local file count as present before the transfer.
+     * @param progressTracker The tracker, null for none
+     */
+    public void setProgressTracker(ProgressTracker progressTracker) {
+        this.progressTracker = progressTracker;
+    }
+
+    /**
+     * @return Number of bytes taken from the local file by the last run
+     */
+    public long getReused() {
+        return reused;
+    }
+
+    /**
+     * Build the remote file from the local file and the missing blocks
+     *
+     * @param localFile The local file, e.g. an older version
+     * @param target The file to write
+     * @param digests Digests to update with the target content
+     * @throws IOException in case of an error
+     */
+    public void run(Path localFile, Path target, Collection<MessageDigest> digests) throws IOException {
+        try (FileChannel local = FileChannel.open(localFile, StandardOpenOption.READ);
+                FileChannel fc = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            long[] found = findBlocks(local);
+            if (progressTracker != null) {
+                long present = 0;
+                for (int block = 0; block < found.length; block++) {
+                    if (found[block] >= 0) {
+                        present += index.getBlockLength(block);
+                    }
+                }
+                progressTracker.transfer(present);
+            }
+            WritableByteChannel out = new DigestingChannel(fc, digests);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(DigestingChannel.BUFFER_SIZE);
+            reused = 0;
+            int block = 0;
+            while (block < index.getBlockCount()) {
+                if (found[block] >= 0) {
+                    int length = index.getBlockLength(block);
+                    // Blocks may be larger than the buffer
+                    for (int copied = 0; copied < length; ) {
+                        buffer.clear();
+                        buffer.limit(Math.min(buffer.capacity(), length - copied));
+                        while (buffer.hasRemaining()) {
+                            if (local.read(buffer, found[block] + copied + buffer.position()) < 0) {
+                                throw new IOException("Local file changed while reading");
+                            }
+                        }
+                        buffer.flip();
+                        copied += buffer.remaining();
+                        while (buffer.hasRemaining()) {
+                            out.write(buffer);
+                        }
+                    }
+                    reused += length;
+                    block++;
+                } else {
+                    // Fetch all consecutive missing blocks at once
+                    int last = block;
+                    while (last + 1 < index.getBlockCount() && found[last + 1] < 0) {
+                        last++;
+                    }
+                    long start = (long) block * index.getBlockSize();
+                    long end = (long) last * index.getBlockSize() + index.getBlockLength(last) - 1;
+                    fetch(start, end, out, buffer);
+                    block = last + 1;
+                }
+            }
+            if (fc.size() != index.getLength()) {
+                throw new IOException("Block sync produced " + fc.size() + " of " + index.getLength() + " bytes");
+            }
+        }
+        LOG.debug("Reused {} of {} bytes of ''{}''", reused, index.getLength(), localFile);
+    }
+
+    /**
+     * Find the blocks of the index in the local file
+     * @return The offset of each block in the local file, -1 if not found
+     */
+    long[] findBlocks(FileChannel local) throws IOException {
+        int blockSize = index.getBlockSize();
+        long[] found = new long[index.getBlockCount()];
+        Arrays.fill(found, -1);
+        long size = local.size();
+        if (size < blockSize) {
+            return found;
+        }
+        // Full blocks by weak checksum, the last block may be shorter
+        BlockTable blocks = new BlockTable(index.getBlockCount());
+        for (int block = 0; block < index.getBlockCount(); block++) {
+            if (index.getBlockLength(block) == blockSize) {
+                blocks.add(index.getChecksum(block), block);
+            }
+        }
+        int remaining = blocks.size();
+        // The file is mapped in windows, so positions beyond 2 GB work
+        int mapSize = (int) Math.min(Integer.MAX_VALUE, Math.max(MAP_SIZE, 2L * blockSize));
+        MappedByteBuffer data = null;
+        long mapStart = 0;
+        byte[] window = new byte[blockSize];
+        MessageDigest md = BlockIndex.newDigest();
+        RollingChecksum checksum = new RollingChecksum();
+        long position = 0;
+        boolean rolling = false;
+        while (remaining > 0 && position + blockSize <= size) {
+            if (data == null || position + blockSize > mapStart + data.capacity()) {
+                mapStart = rolling ? position - 1 : position;
+                data = local.map(FileChannel.MapMode.READ_ONLY, mapStart, Math.min(mapSize, size - mapStart));
+            }
+            int offset = (int) (position - mapStart);
+            if (rolling) {
+                checksum.roll(data.get(offset - 1), data.get(offset + blockSize - 1));
+            } else {
+                data.position(offset);
+                data.get(window);
+                checksum.reset(window, 0, blockSize);
+                rolling = true;
+            }
+            boolean matched = false;
+            int entry = blocks.first(checksum.getValue());
+            if (entry >= 0) {
+                data.position(offset);
+                data.get(window);
+                byte[] hash = md.digest(window);
+                for (; entry >= 0; entry = blocks.next(entry)) {
+                    int block = blocks.getBlock(entry);
+                    if (found[block] < 0 && Arrays.equals(hash, index.getHash(block))) {
+                        found[block] = position;
+                        remaining--;
+                        matched = true;
+                    }
+                }
+            }
+            if (matched) {
+                // Continue behind the block
+                position += blockSize;
+                rolling = false;
+            } else {
+                position++;
+            }
+        }
+        // The last block can only match at the end
+        int last = index.getBlockCount() - 1;
+        int lastLength = index.getBlockLength(last);
+        if (lastLength < blockSize && size >= lastLength) {
+            ByteBuffer tail = ByteBuffer.allocate(lastLength);
+            while (tail.hasRemaining()) {
+                if (local.read(tail, size - lastLength + tail.position()) < 0) {
+                    return found;
+                }
+            }
+            md.update(tail.array());
+            if (Arrays.equals(md.digest(), index.getHash(last))) {
+                found[last] = size - lastLength;
+            }
+        }
+        return found;
+    }
+
+    private void fetch(long start, long end, WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        URLConnection conn = transport.open(url, null, connectTimeout, readTimeout);
+        if (!(conn instanceof HttpURLConnection)) {
+            throw new IOException("Range requests not supported for URL: " + url);
+        }
+        HttpURLConnection http = (HttpURLConnection) conn;
+        http.setRequestProperty("Range", "bytes=" + start + "-" + end);
+        int status = http.getResponseCode();
+        if (status != HttpURLConnection.HTTP_PARTIAL) {
+            long retryAfter = HttpStatusException.getRetryAfter(http);
+            KeepAliveTransport.release(http);
+            throw new HttpStatusException("Range request for '" + url + "' failed with HTTP " + status, status, retryAfter);
+        }
+        long[] range = ResumableDownload.parseContentRange(http.getHeaderField("Content-Range"));
+        if (range[0] != start || (range[1] >= 0 && range[1] != index.getLength())) {
+            http.disconnect();
+            throw new IOException("Unexpected content range: " + http.getHeaderField("Content-Range"));
+        }
+        long remaining = end - start + 1;
+        ReadableByteChannel channel = Channels.newChannel(http.getInputStream());
+        if (progressTracker != null) {
+            channel = progressTracker.wrap(channel);
+        }
+        try (ReadableByteChannel in = ThrottledChannel.wrap(channel, rateLimiters)) {
+            while (remaining > 0) {
+                buffer.clear();
+                if (remaining < buffer.capacity()) {
+                    buffer.limit((int) remaining);
+                }
+                if (in.read(buffer) < 0) {
+                    throw new IOException("Incomplete range: " + (end - start + 1 - remaining) + " of " + (end - start + 1) + " bytes");
+                }
+                buffer.flip();
+                remaining -= buffer.remaining();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+        }
+    }
+}
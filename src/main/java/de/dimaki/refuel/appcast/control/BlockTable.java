@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import java.util.Arrays;
+
+/**
+ * Hash table of blocks by weak {@link RollingChecksum}, without boxing.
+ * Looking up a checksum which is not in the table takes a single array access,
+ * so it can be done for every byte position of a large file.
+ * <p>
+ * Usage:
+ * <pre>
+ * for (int e = table.first(checksum); e >= 0; e = table.next(e)) {
+ *     int block = table.getBlock(e);
+ * }
+ * </pre>
+ *
+ * @author Dino Tsoumakis
+ */
+final class BlockTable {
+
+    private final int[] heads;
+    private final int[] tails;
+    private final int mask;
+    private final int[] checksums;
+    private final int[] blocks;
+    private final int[] next;
+    private int size;
+
+    /**
+     * @param capacity Max. number of blocks
+     */
+    BlockTable(int capacity) {
+        if (capacity < 0 || capacity > (1 << 29)) {
+            throw new IllegalArgumentException("Capacity must be between 0 and " + (1 << 29) + "!");
+        }
+        int buckets = Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) << 1;
+        heads = new int[buckets];
+        Arrays.fill(heads, -1);
+        tails = new int[buckets];
+        mask = buckets - 1;
+        checksums = new int[capacity];
+        blocks = new int[capacity];
+        next = new int[capacity];
+    }
+
+    /**
+     * Add a block. Blocks with the same checksum are returned in the order they were added.
+     * @param checksum The weak checksum of the block
+     * @param block The block number
+     */
+    void add(int checksum, int block) {
+        int e = size++;
+        checksums[e] = checksum;
+        blocks[e] = block;
+        next[e] = -1;
+        int bucket = bucket(checksum);
+        if (heads[bucket] < 0) {
+            heads[bucket] = e;
+        } else {
+            next[tails[bucket]] = e;
+        }
+        tails[bucket] = e;
+    }
+
+    /**
+     * @param checksum The weak checksum
+     * @return The first entry with the checksum, -1 if there is none
+     */
+    int first(int checksum) {
+        return find(heads[bucket(checksum)], checksum);
+    }
+
+    /**
+     * @param entry The current entry
+     * @return The next entry with the same checksum, -1 if there is none
+     */
+    int next(int entry) {
+        return find(next[entry], checksums[entry]);
+    }
+
+    /**
+     * @param entry The entry
+     * @return The block number of the entry
+     */
+    int getBlock(int entry) {
+        return blocks[entry];
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int find(int entry, int checksum) {
+        int e = entry;
+        while (e >= 0 && checksums[e] != checksum) {
+            e = next[e];
+        }
+        return e;
+    }
+
+    private int bucket(int checksum) {
+        // Spread the low bits, the weak checksum has most entropy in its upper half
+        int h = checksum * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
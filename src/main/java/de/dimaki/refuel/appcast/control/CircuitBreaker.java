@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stops requests to hosts which are overloaded or unavailable.
+ * <p>
+ * After the given number of consecutive failures the circuit of a host is open
+ * and requests fail immediately until the open duration has passed. A server
+ * answering with Retry-After opens the circuit for the requested time at once.
+ * Afterwards requests are allowed again, the next failure opens the circuit again.
+ *
+ * @author Dino Tsoumakis
+ */
+public class CircuitBreaker {
+
+    private final int failureThreshold;
+    private final long openDuration;
+    private final Map<String, State> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * Thrown instead of a request while the circuit of the host is open
+     */
+    public static class OpenException extends HttpStatusException {
+        public OpenException(String message, long retryAfter) {
+            super(message, 503, retryAfter);
+        }
+    }
+
+    /**
+     * Create a default circuit breaker: open for 30s after 5 failures
+     */
+    public CircuitBreaker() {
+        this(5, 30000);
+    }
+
+    /**
+     * @param failureThreshold Number of consecutive failures opening the circuit
+     * @param openDuration Time in milliseconds the circuit stays open
+     */
+    public CircuitBreaker(int failureThreshold, long openDuration) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold must be at least 1!");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openDuration = Math.max(0, openDuration);
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public long getOpenDuration() {
+        return openDuration;
+    }
+
+    /**
+     * Check if a request to the host of the URL is allowed
+     * @param url The URL
+     * @throws OpenException if the circuit is open
+     */
+    public void check(URL url) throws OpenException {
+        long remaining = getRemainingOpenTime(url);
+        if (remaining > 0) {
+            throw new OpenException("Host '" + url.getHost() + "' is unavailable, retry in " + remaining + " ms", remaining);
+        }
+    }
+
+    /**
+     * @param url The URL
+     * @return Time in milliseconds the circuit of the host stays open, 0 if it is closed
+     */
+    public long getRemainingOpenTime(URL url) {
+        State state = hosts.get(key(url));
+        if (state == null) {
+            return 0;
+        }
+        return Math.max(0, state.openUntil - System.currentTimeMillis());
+    }
+
+    /**
+     * Record a successful request, closes the circuit
+     * @param url The URL
+     */
+    public void onSuccess(URL url) {
+        hosts.remove(key(url));
+    }
+
+    /**
+     * Record a failed request. Only errors of an overloaded or unavailable
+     * server count, e.g. a missing file does not.
+     *
+     * @param url The URL
+     * @param ex The error
+     */
+    public void onFailure(URL url, IOException ex) {
+        if (ex instanceof OpenException || !isServerFailure(ex)) {
+            return;
+        }
+        long retryAfter = (ex instanceof HttpStatusException) ? ((HttpStatusException) ex).getRetryAfter() : -1;
+        long now = System.currentTimeMillis();
+        hosts.compute(key(url), (k, state) -> {
+            State s = (state != null) ? state : new State();
+            s.failures++;
+            if (retryAfter >= 0) {
+                s.openUntil = now + retryAfter;
+            } else if (s.failures >= failureThreshold) {
+                s.openUntil = now + openDuration;
+            }
+            return s;
+        });
+    }
+
+    /**
+     * @param ex The error
+     * @return true for overload (5xx, 429), timeouts and refused connections
+     */
+    protected boolean isServerFailure(IOException ex) {
+        if (ex instanceof HttpStatusException) {
+            int status = ((HttpStatusException) ex).getStatus();
+            return status >= 500 || status == 429;
+        }
+        return ex instanceof SocketTimeoutException || ex instanceof ConnectException;
+    }
+
+    private static String key(URL url) {
+        return url.getHost().toLowerCase() + ":" + ((url.getPort() >= 0) ? url.getPort() : url.getDefaultPort());
+    }
+
+    /**
+     * Failures of a host, only modified inside compute()
+     */
+    private static class State {
+        int failures;
+        volatile long openUntil;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decompresses appcast responses while they are read, without buffering them.
+ * Handles the gzip and deflate content encodings and pre-compressed ".gz" files.
+ *
+ * @author Dino Tsoumakis
+ */
+public class ContentDecoder {
+
+    /**
+     * Value of the Accept-Encoding request header for the supported encodings
+     */
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private static final String GZIP_EXTENSION = ".gz";
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Hide constructor
+     */
+    private ContentDecoder() {
+        super();
+    }
+
+    /**
+     * Decode the response body of the given URL
+     *
+     * @param input The response body
+     * @param contentEncoding The Content-Encoding response header, may be null
+     * @param url The URL, a gzip compressed body of a ".gz" URL is decompressed as well
+     * @return The decoded stream
+     * @throws IOException if the encoding is not supported or the body is corrupt
+     */
+    public static InputStream decode(InputStream input, String contentEncoding, URL url) throws IOException {
+        InputStream is = decode(input, contentEncoding);
+        if (url != null && url.getPath().toLowerCase(Locale.ROOT).endsWith(GZIP_EXTENSION)) {
+            // Served as is or with Content-Encoding: gzip by some servers
+            BufferedInputStream bis = new BufferedInputStream(is, BUFFER_SIZE);
+            bis.mark(2);
+            int b0 = bis.read();
+            int b1 = bis.read();
+            bis.reset();
+            is = (b0 == 0x1f && b1 == 0x8b) ? new GZIPInputStream(bis, BUFFER_SIZE) : bis;
+        }
+        return is;
+    }
+
+    /**
+     * Decode a body with the given content encoding
+     *
+     * @param input The body
+     * @param contentEncoding The Content-Encoding header, may be null
+     * @return The decoded stream
+     * @throws IOException if the encoding is not supported or the body is corrupt
+     */
+    public static InputStream decode(InputStream input, String contentEncoding) throws IOException {
+        if (contentEncoding == null) {
+            return input;
+        }
+        switch (contentEncoding.trim().toLowerCase(Locale.ROOT)) {
+            case "":
+            case "identity":
+                return input;
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(input, BUFFER_SIZE);
+            case "deflate":
+                return inflate(input);
+            default:
+                throw new IOException("Unsupported content encoding: " + contentEncoding);
+        }
+    }
+
+    /**
+     * Deflate is meant to be zlib wrapped, but some servers send raw deflate data
+     */
+    private static InputStream inflate(InputStream input) throws IOException {
+        BufferedInputStream bis = new BufferedInputStream(input, BUFFER_SIZE);
+        bis.mark(2);
+        int b0 = bis.read();
+        int b1 = bis.read();
+        bis.reset();
+        boolean zlib = b1 >= 0 && (b0 & 0x0f) == 8 && ((b0 << 8) | b1) % 31 == 0;
+        final Inflater inflater = new Inflater(!zlib);
+        return new InflaterInputStream(bis, inflater, BUFFER_SIZE) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    // Not ended by the stream as it is not its own
+                    inflater.end();
+                    super.close();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+
+/**
+ * Creates a {@link DeltaPatch} between two release artifacts.
+ * Blocks of the source file are looked up in the target file with a
+ * {@link RollingChecksum}, everything else is stored as new data.
+ * <p>
+ * Usage: <code>java -cp refuel.jar de.dimaki.refuel.appcast.control.DeltaGenerator &lt;old file&gt; &lt;new file&gt; &lt;patch file&gt; [block size]</code>
+ *
+ * @author Dino Tsoumakis
+ */
+public class DeltaGenerator {
+
+    public static final int DEFAULT_BLOCK_SIZE = 2048;
+    public static final int MAX_BLOCK_SIZE = 1024 * 1024;
+    /** Max. number of full blocks of the source file, e.g. 1 TB with the default block size */
+    public static final int MAX_BLOCKS = 1 << 29;
+
+    // Part of the new file held in memory
+    private static final int WINDOW_SIZE = 4 * 1024 * 1024;
+
+    private final int blockSize;
+
+    public DeltaGenerator() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param blockSize Size of the source blocks to look up
+     */
+    public DeltaGenerator(int blockSize) {
+        if (blockSize < 16 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size must be between 16 and " + MAX_BLOCK_SIZE + "!");
+        }
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Create a patch turning the source file into the target file.
+     * Both files are streamed, the memory needed grows with the number of source blocks
+     * (about 16 bytes each), the target file is read through a window of fixed size.
+     *
+     * @param source The old file
+     * @param target The new file
+     * @param patch The patch file to write
+     * @throws IOException in case of an error or if the source file has more than
+     * {@value #MAX_BLOCKS} blocks
+     */
+    public void generate(Path source, Path target, Path patch) throws IOException {
+        try (FileChannel src = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel dst = FileChannel.open(target, StandardOpenOption.READ);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(patch), DigestingChannel.BUFFER_SIZE))) {
+            long srcLength = src.size();
+            long dstLength = dst.size();
+            BlockTable blocks = index(src, srcLength);
+
+            out.writeInt(DeltaPatch.MAGIC);
+            out.writeInt(blockSize);
+            out.writeLong(srcLength);
+            out.writeLong(dstLength);
+
+            Window window = new Window(dst, Math.max(WINDOW_SIZE, 4 * blockSize));
+            // Literal data is written in chunks, so it always fits into the window
+            int maxLiteral = window.capacity() - blockSize - 1;
+            byte[] block = new byte[blockSize];
+            byte[] chunk = new byte[DigestingChannel.BUFFER_SIZE];
+            RollingChecksum checksum = new RollingChecksum();
+            long literal = 0;
+            long i = 0;
+            boolean rolling = false;
+            while (i + blockSize <= dstLength) {
+                if (i - literal >= maxLiteral) {
+                    writeData(out, window, literal, i);
+                    literal = i;
+                }
+                window.load(rolling ? Math.min(literal, i - 1) : literal, i + blockSize);
+                if (rolling) {
+                    checksum.roll(window.get(i - 1), window.get(i + blockSize - 1));
+                } else {
+                    checksum.reset(window.array(), window.offset(i), blockSize);
+                    rolling = true;
+                }
+                long match = -1;
+                for (int e = blocks.first(checksum.getValue()); e >= 0 && match < 0; e = blocks.next(e)) {
+                    long offset = (long) blocks.getBlock(e) * blockSize;
+                    readFully(src, block, offset, blockSize);
+                    if (equals(block, 0, window.array(), window.offset(i), blockSize)) {
+                        match = offset;
+                    }
+                }
+                if (match < 0) {
+                    i++;
+                    continue;
+                }
+                writeData(out, window, literal, i);
+                // Extend the match as far as possible
+                long length = blockSize + extend(src, window, match + blockSize, i + blockSize,
+                        Math.min(srcLength - match, dstLength - i) - blockSize, chunk);
+                out.writeByte(DeltaPatch.COPY);
+                out.writeLong(match);
+                out.writeInt((int) length);
+                i += length;
+                literal = i;
+                rolling = false;
+            }
+            writeData(out, window, literal, dstLength);
+            out.writeByte(DeltaPatch.END);
+        }
+    }
+
+    /**
+     * Index all full source blocks by weak checksum
+     */
+    private BlockTable index(FileChannel src, long length) throws IOException {
+        long count = length / blockSize;
+        if (count > MAX_BLOCKS) {
+            throw new IOException("Source file too large for block size " + blockSize + ": " + length + " bytes");
+        }
+        BlockTable blocks = new BlockTable((int) count);
+        byte[] block = new byte[blockSize];
+        for (int b = 0; b < count; b++) {
+            readFully(src, block, (long) b * blockSize, blockSize);
+            blocks.add(RollingChecksum.of(block, 0, blockSize), b);
+        }
+        return blocks;
+    }
+
+    /**
+     * @return Number of equal bytes at the given positions, at most max
+     */
+    private static long extend(FileChannel src, Window window, long srcPosition, long dstPosition, long max, byte[] chunk) throws IOException {
+        long limit = Math.min(max, Integer.MAX_VALUE - MAX_BLOCK_SIZE);
+        long length = 0;
+        while (length < limit) {
+            int n = (int) Math.min(chunk.length, limit - length);
+            readFully(src, chunk, srcPosition + length, n);
+            window.load(dstPosition + length, dstPosition + length + n);
+            byte[] data = window.array();
+            int offset = window.offset(dstPosition + length);
+            for (int k = 0; k < n; k++) {
+                if (chunk[k] != data[offset + k]) {
+                    return length + k;
+                }
+            }
+            length += n;
+        }
+        return length;
+    }
+
+    private static void writeData(DataOutputStream out, Window window, long from, long to) throws IOException {
+        if (to > from) {
+            window.load(from, to);
+            out.writeByte(DeltaPatch.DATA);
+            out.writeInt((int) (to - from));
+            out.write(window.array(), window.offset(from), (int) (to - from));
+        }
+    }
+
+    private static void readFully(FileChannel fc, byte[] data, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+        while (buffer.hasRemaining()) {
+            if (fc.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of file at " + (position + buffer.position()));
+            }
+        }
+    }
+
+    private static boolean equals(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sliding window over a file, only moving forward
+     */
+    private static final class Window {
+        private final FileChannel channel;
+        private final byte[] buffer;
+        private final ByteBuffer wrapped;
+        // File position of the first byte in the buffer
+        private long start;
+        private int length;
+
+        Window(FileChannel channel, int capacity) {
+            this.channel = channel;
+            this.buffer = new byte[capacity];
+            this.wrapped = ByteBuffer.wrap(buffer);
+        }
+
+        int capacity() {
+            return buffer.length;
+        }
+
+        byte[] array() {
+            return buffer;
+        }
+
+        int offset(long position) {
+            return (int) (position - start);
+        }
+
+        byte get(long position) {
+            return buffer[(int) (position - start)];
+        }
+
+        /**
+         * Make the range [from, to) of the file available, dropping everything before from
+         */
+        void load(long from, long to) throws IOException {
+            if (from >= start && to <= start + length) {
+                return;
+            }
+            if (from < start || to - from > buffer.length) {
+                throw new IllegalStateException("Range " + from + "-" + to + " does not fit into the window at " + start);
+            }
+            int keep = (int) Math.max(0, start + length - from);
+            if (keep > 0) {
+                System.arraycopy(buffer, (int) (from - start), buffer, 0, keep);
+            }
+            start = from;
+            length = keep;
+            while (length < buffer.length) {
+                wrapped.clear();
+                wrapped.position(length);
+                int read = channel.read(wrapped, start + length);
+                if (read < 0) {
+                    break;
+                }
+                length += read;
+            }
+            if (to > start + length) {
+                throw new EOFException("Unexpected end of file at " + (start + length));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, NoSuchAlgorithmException {
+        if (args.length < 3) {
+            System.err.println("Usage: DeltaGenerator <old file> <new file> <patch file> [block size]");
+            System.exit(1);
+        }
+        int blockSize = (args.length > 3) ? Integer.parseInt(args[3]) : DEFAULT_BLOCK_SIZE;
+        Path patch = Paths.get(args[2]);
+        new DeltaGenerator(blockSize).generate(Paths.get(args[0]), Paths.get(args[1]), patch);
+
+        // Attributes for the delta enclosure
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        DigestingChannel.update(patch, Collections.singletonList(md));
+        StringBuilder hash = new StringBuilder();
+        for (byte b : md.digest()) {
+            hash.append(String.format("%02x", b));
+        }
+        System.out.println("length=\"" + Files.size(patch) + "\" sparkle:sha256=\"" + hash + "\"");
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Collection;
+
+/**
+ * Block based binary patch, turning a source file into a target file.
+ * <p>
+ * Format (big endian): magic, block size, source length, target length,
+ * followed by commands copying a range of the source file ({@link #COPY}, offset, length)
+ * or inserting new data ({@link #DATA}, length, bytes), terminated by {@link #END}.
+ * Patches are created with the {@link DeltaGenerator}.
+ *
+ * @author Dino Tsoumakis
+ */
+public class DeltaPatch {
+
+    public static final int MAGIC = 0x52464431; // "RFD1"
+    public static final int END = 0;
+    public static final int COPY = 1;
+    public static final int DATA = 2;
+
+    /**
+     * Hide constructor
+     */
+    private DeltaPatch() {
+        super();
+    }
+
+    /**
+     * Apply the patch to the source file
+     *
+     * @param source The source file (installed version)
+     * @param patch The patch file
+     * @param target The target file to write
+     * @param digests Digests to update with the target content
+     * @throws IOException in case of an error or if the patch does not fit the source file
+     */
+    public static void apply(Path source, Path patch, Path target, Collection<MessageDigest> digests) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(patch), DigestingChannel.BUFFER_SIZE));
+                FileChannel src = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel fc = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Invalid delta patch: " + patch);
+            }
+            in.readInt(); // Block size
+            long sourceLength = in.readLong();
+            long targetLength = in.readLong();
+            if (src.size() != sourceLength) {
+                throw new IOException("Delta patch does not match source file, expected " + sourceLength + " bytes, found " + src.size());
+            }
+            WritableByteChannel out = new DigestingChannel(fc, digests);
+            ByteBuffer buffer = ByteBuffer.allocate(DigestingChannel.BUFFER_SIZE);
+            long written = 0;
+            int command;
+            while ((command = in.readByte()) != END) {
+                if (command == COPY) {
+                    long offset = in.readLong();
+                    int length = in.readInt();
+                    if (offset < 0 || length < 0 || offset + length > sourceLength) {
+                        throw new IOException("Invalid delta patch range " + offset + "+" + length);
+                    }
+                    long position = offset;
+                    while (position < offset + length) {
+                        buffer.clear();
+                        buffer.limit((int) Math.min(buffer.capacity(), offset + length - position));
+                        int read = src.read(buffer, position);
+                        if (read < 0) {
+                            throw new EOFException("Unexpected end of source file at " + position);
+                        }
+                        position += read;
+                        buffer.flip();
+                        while (buffer.hasRemaining()) {
+                            written += out.write(buffer);
+                        }
+                    }
+                } else if (command == DATA) {
+                    int length = in.readInt();
+                    int remaining = length;
+                    while (remaining > 0) {
+                        int n = Math.min(buffer.capacity(), remaining);
+                        in.readFully(buffer.array(), 0, n);
+                        buffer.position(0).limit(n);
+                        while (buffer.hasRemaining()) {
+                            written += out.write(buffer);
+                        }
+                        remaining -= n;
+                    }
+                } else {
+                    throw new IOException("Invalid delta patch command " + command);
+                }
+            }
+            if (written != targetLength) {
+                throw new IOException("Delta patch produced " + written + " of " + targetLength + " bytes");
+            }
+        }
+    }
+}
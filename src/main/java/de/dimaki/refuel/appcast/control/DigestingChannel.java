@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Collection;
+
+/**
+ * Channel wrapper updating message digests with all bytes written to the target,
+ * so a downloaded file does not have to be read again for verification.
+ *
+ * @author Dino Tsoumakis
+ */
+public class DigestingChannel implements WritableByteChannel {
+    public static final int BUFFER_SIZE = 256 * 1024;
+
+    private final WritableByteChannel target;
+    private final Collection<MessageDigest> digests;
+
+    /**
+     * @param target The channel to write to
+     * @param digests The digests to update
+     */
+    public DigestingChannel(WritableByteChannel target, Collection<MessageDigest> digests) {
+        this.target = target;
+        this.digests = digests;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int start = src.position();
+        int written = target.write(src);
+        if (written > 0 && !digests.isEmpty()) {
+            // Digest only what actually went to the target
+            ByteBuffer done = src.duplicate();
+            for (MessageDigest md : digests) {
+                done.limit(start + written).position(start);
+                md.update(done);
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return target.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        target.close();
+    }
+
+    /**
+     * Update the digests with the first bytes of the given channel
+     * @param fc The channel to read from, its position is not changed
+     * @param length Number of bytes to digest
+     * @param digests The digests to update
+     * @throws IOException in case of an error
+     */
+    public static void update(FileChannel fc, long length, Collection<MessageDigest> digests) throws IOException {
+        if (digests.isEmpty()) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long position = 0;
+        while (position < length) {
+            buffer.clear();
+            if (length - position < buffer.capacity()) {
+                buffer.limit((int) (length - position));
+            }
+            int read = fc.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at " + position + " of " + length + " bytes");
+            }
+            position += read;
+            buffer.flip();
+            for (MessageDigest md : digests) {
+                buffer.rewind();
+                md.update(buffer);
+            }
+        }
+    }
+
+    /**
+     * Update the digests with the content of the given file
+     * @param file The file
+     * @param digests The digests to update
+     * @throws IOException in case of an error
+     */
+    public static void update(Path file, Collection<MessageDigest> digests) throws IOException {
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            update(fc, fc.size(), digests);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Thrown if the same file is already being downloaded by another thread or process.
+ * It is not retried by the {@link RetryPolicy}.
+ *
+ * @author Dino Tsoumakis
+ */
+public class DownloadInProgressException extends IOException {
+
+    private final Path partFile;
+
+    public DownloadInProgressException(String message, Path partFile) {
+        super(message);
+        this.partFile = partFile;
+    }
+
+    /**
+     * @return The partial file locked by the other download
+     */
+    public Path getPartFile() {
+        return partFile;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Thrown if a server answers with an unexpected HTTP status.
+ *
+ * @author Dino Tsoumakis
+ */
+public class HttpStatusException extends IOException {
+
+    private final int status;
+    private final long retryAfter;
+
+    public HttpStatusException(String message, int status) {
+        this(message, status, -1);
+    }
+
+    /**
+     * @param message The message
+     * @param status The HTTP status
+     * @param retryAfter Time in milliseconds the server asked to wait, -1 if unknown
+     */
+    public HttpStatusException(String message, int status, long retryAfter) {
+        super(message);
+        this.status = status;
+        this.retryAfter = retryAfter;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return Time in milliseconds the server asked to wait before the next request, -1 if unknown
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Get the Retry-After header of the response
+     * @param http The connection
+     * @return Time to wait in milliseconds, -1 if there is none
+     */
+    public static long getRetryAfter(HttpURLConnection http) {
+        return parseRetryAfter(http.getHeaderField("Retry-After"), System.currentTimeMillis());
+    }
+
+    /**
+     * Parse a Retry-After value: delay seconds or an HTTP date
+     * @param value The header value, may be null
+     * @param now The current time in milliseconds
+     * @return Time to wait in milliseconds, -1 if the value is missing or invalid
+     */
+    public static long parseRetryAfter(String value, long now) {
+        if (value == null || value.trim().isEmpty()) {
+            return -1;
+        }
+        String v = value.trim();
+        try {
+            long seconds = Long.parseLong(v);
+            return (seconds >= 0) ? seconds * 1000 : -1;
+        } catch (NumberFormatException ex) {
+            // Not a number, try a date
+        }
+        try {
+            long date = ZonedDateTime.parse(v, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return Math.max(0, date - now);
+        } catch (DateTimeParseException ex) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import de.dimaki.refuel.appcast.entity.Appcast;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.xml.bind.JAXBException;
+
+/**
+ * Appcast parser reading the whole document with JAXB.
+ *
+ * @author Dino Tsoumakis
+ */
+public class JaxbAppcastParser implements AppcastParser {
+
+    private final UnmarshallerPool pool;
+
+    /**
+     * Create a parser using the shared unmarshaller pool
+     * @throws JAXBException if the JAXB context could not be created
+     */
+    public JaxbAppcastParser() throws JAXBException {
+        this(UnmarshallerPool.getShared());
+    }
+
+    public JaxbAppcastParser(UnmarshallerPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public Appcast parse(InputStream input) throws IOException, AppcastParseException {
+        try {
+            return pool.unmarshal(input);
+        } catch (JAXBException | RuntimeException ex) {
+            // JAXB reports invalid numbers as NumberFormatException
+            throw new AppcastParseException(ex.getMessage() != null ? ex.getMessage() : ex.toString(), ex);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * Default transport based on the persistent connections of HttpURLConnection.
+ * The JDK keeps a connection alive after its response has been read completely
+ * and reuses it for the next request to the same host, up to "http.maxConnections"
+ * (5 by default) idle connections per host. HTTPS connections are only reused with
+ * the same socket factory, so the factory is shared instead of created per request,
+ * which also lets TLS sessions be resumed.
+ *
+ * @author Dino Tsoumakis
+ */
+public class KeepAliveTransport implements Transport {
+
+    /**
+     * Transport with the default SSL settings of the JVM
+     */
+    public static final KeepAliveTransport DEFAULT = new KeepAliveTransport(null, null);
+
+    // Error bodies up to this size are read to keep the connection alive
+    private static final int MAX_DRAIN_SIZE = 64 * 1024;
+
+    private static final Object LOCK = new Object();
+    private static volatile SSLSocketFactory trustAllSocketFactory;
+
+    private final SSLSocketFactory sslSocketFactory;
+    private final HostnameVerifier hostnameVerifier;
+
+    /**
+     * @param sslSocketFactory The socket factory for HTTPS connections, null for the default
+     * @param hostnameVerifier The hostname verifier for HTTPS connections, null for the default
+     */
+    public KeepAliveTransport(SSLSocketFactory sslSocketFactory, HostnameVerifier hostnameVerifier) {
+        this.sslSocketFactory = sslSocketFactory;
+        this.hostnameVerifier = hostnameVerifier;
+    }
+
+    public SSLSocketFactory getSslSocketFactory() {
+        return sslSocketFactory;
+    }
+
+    public HostnameVerifier getHostnameVerifier() {
+        return hostnameVerifier;
+    }
+
+    @Override
+    public URLConnection open(URL url, Proxy proxy, int connectTimeout, int readTimeout) throws IOException {
+        URLConnection conn = (proxy == null) ? url.openConnection() : url.openConnection(proxy);
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+        if (conn instanceof HttpsURLConnection) {
+            HttpsURLConnection https = (HttpsURLConnection) conn;
+            if (sslSocketFactory != null) {
+                https.setSSLSocketFactory(sslSocketFactory);
+            }
+            if (hostnameVerifier != null) {
+                https.setHostnameVerifier(hostnameVerifier);
+            }
+        }
+        return conn;
+    }
+
+    /**
+     * Release a connection after an unexpected response.
+     * Small error bodies are read, so the connection can be reused,
+     * otherwise the connection is closed.
+     *
+     * @param connection The connection
+     */
+    public static void release(HttpURLConnection connection) {
+        long length = "HEAD".equals(connection.getRequestMethod()) ? 0 : connection.getContentLengthLong();
+        if (length >= 0 && length <= MAX_DRAIN_SIZE) {
+            try (InputStream is = (connection.getResponseCode() >= 400) ? connection.getErrorStream() : connection.getInputStream()) {
+                if (is != null) {
+                    byte[] buffer = new byte[4096];
+                    while (is.read(buffer) >= 0) {
+                        // Discard
+                    }
+                }
+                return;
+            } catch (IOException ex) {
+                // Closed below
+            }
+        }
+        connection.disconnect();
+    }
+
+    /**
+     * Get the process-wide socket factory trusting all certificates.
+     * It is created on first use.
+     *
+     * @return The socket factory
+     * @throws GeneralSecurityException if the SSL context could not be initialized
+     */
+    public static SSLSocketFactory getTrustAllSocketFactory() throws GeneralSecurityException {
+        SSLSocketFactory factory = trustAllSocketFactory;
+        if (factory == null) {
+            synchronized (LOCK) {
+                factory = trustAllSocketFactory;
+                if (factory == null) {
+                    factory = createTrustAllContext().getSocketFactory();
+                    trustAllSocketFactory = factory;
+                }
+            }
+        }
+        return factory;
+    }
+
+    private static SSLContext createTrustAllContext() throws GeneralSecurityException {
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+
+        TrustManager[] trustAll = new TrustManager[] {new X509TrustManager() {
+                @Override
+                public X509Certificate[] getAcceptedIssuers() {
+                    return null;
+                }
+                @Override
+                public void checkClientTrusted(X509Certificate[] certs, String authType) {
+                }
+                @Override
+                public void checkServerTrusted(X509Certificate[] certs, String authType) {
+                }
+            }
+        };
+        sslContext.init(null, trustAll, new SecureRandom());
+        return sslContext;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Exclusive lock of a partial file, held for a whole download by all threads
+ * and processes sharing the file. The lock is taken on a sibling ".lock" file,
+ * so the partial file itself can be deleted and recreated while the lock is held.
+ * The lock file is deleted by the holder when the lock is released.
+ *
+ * @author Dino Tsoumakis
+ */
+final class PartFileLock implements AutoCloseable {
+
+    private static final int MAX_ATTEMPTS = 3;
+    // Beyond the token, which must stay readable where locks are mandatory
+    private static final long LOCK_POSITION = Long.MAX_VALUE - 1;
+
+    private final Path lockFile;
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private PartFileLock(Path lockFile, FileChannel channel, FileLock lock) {
+        this.lockFile = lockFile;
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /**
+     * Lock the given partial file
+     * @param partFile The partial file
+     * @param url The URL downloaded into the file, for the error message
+     * @return The lock
+     * @throws DownloadInProgressException if another download holds the lock
+     * @throws IOException if the lock file could not be created
+     */
+    static PartFileLock acquire(Path partFile, URL url) throws IOException {
+        Files.createDirectories(partFile.getParent());
+        Path lockFile = partFile.resolveSibling(partFile.getFileName() + ".lock");
+        for (int i = 0; i < MAX_ATTEMPTS; i++) {
+            FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                FileLock lock;
+                try {
+                    lock = channel.tryLock(LOCK_POSITION, 1, false);
+                } catch (OverlappingFileLockException ex) {
+                    // Held by another thread of this process
+                    lock = null;
+                }
+                if (lock == null) {
+                    throw new DownloadInProgressException("Download of '" + url + "' is already in progress", partFile);
+                }
+                if (isLinked(lockFile, channel)) {
+                    return new PartFileLock(lockFile, channel, lock);
+                }
+                // Deleted by the previous holder after it was opened, try again with a new file
+                lock.release();
+            } catch (IOException | RuntimeException ex) {
+                channel.close();
+                throw ex;
+            }
+            channel.close();
+        }
+        throw new DownloadInProgressException("Download of '" + url + "' is already in progress", partFile);
+    }
+
+    /**
+     * Check if the locked file is still the one at the path by writing a random token
+     */
+    private static boolean isLinked(Path lockFile, FileChannel channel) throws IOException {
+        byte[] token = UUID.randomUUID().toString().getBytes(StandardCharsets.US_ASCII);
+        channel.truncate(0);
+        channel.write(ByteBuffer.wrap(token), 0);
+        try {
+            return Arrays.equals(token, Files.readAllBytes(lockFile));
+        } catch (NoSuchFileException ex) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            // Only deleted while locked, see isLinked()
+            Files.deleteIfExists(lockFile);
+        } catch (IOException ex) {
+            // Open files cannot be deleted on some platforms, the file is reused then
+        } finally {
+            try {
+                lock.release();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
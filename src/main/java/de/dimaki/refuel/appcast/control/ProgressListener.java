@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import de.dimaki.refuel.appcast.entity.TransferProgress;
+
+/**
+ * Receives the progress of downloads and extractions.
+ * Called on the transferring thread, so implementations should return quickly.
+ *
+ * @author Dino Tsoumakis
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+    /**
+     * @param progress The current progress
+     */
+    void progress(TransferProgress progress);
+}
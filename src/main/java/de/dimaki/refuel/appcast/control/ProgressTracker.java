@@ -0,0 +1,233 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import de.dimaki.refuel.appcast.entity.TransferProgress;
+import de.dimaki.refuel.appcast.entity.TransferProgress.Phase;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counts the bytes of a transfer and reports its progress.
+ * <p>
+ * Counting is a single atomic add; the clock is only compared with the time
+ * of the next event, so the copy loops are not slowed down. Events are emitted
+ * at most once per interval by the thread reaching it first. Optionally the
+ * transfer is aborted with a {@link StalledTransferException} if its rate stays
+ * below the minimum rate for the stall timeout. Safe to be used from parallel threads.
+ *
+ * @author Dino Tsoumakis
+ */
+public class ProgressTracker {
+    private static final Logger LOG = LoggerFactory.getLogger(ProgressTracker.class);
+    public static final long DEFAULT_INTERVAL = 250;
+
+    private final String name;
+    private final long total;
+    private final ProgressListener listener;
+    private final long interval;
+    private final long start = System.nanoTime();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong nextEvent = new AtomicLong();
+    private volatile Phase phase = Phase.CONNECT;
+    // Bytes present before the transfer (resumed downloads), not part of the average rate
+    private volatile long initialBytes;
+    // Start of the first transfer, 0 before
+    private volatile long transferStart;
+    // Rate since the previous event
+    private long lastTime = start;
+    private long lastBytes;
+    // Stall detection
+    private long minRate;
+    private long stallTimeout;
+    private long windowTime = start;
+    private long windowBytes;
+
+    /**
+     * Create a tracker emitting at most 4 events per second
+     * @param name The URL or file transferred
+     * @param total Total number of bytes, -1 if unknown
+     * @param listener The listener, may be null for stall detection only
+     */
+    public ProgressTracker(String name, long total, ProgressListener listener) {
+        this(name, total, listener, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * @param name The URL or file transferred
+     * @param total Total number of bytes, -1 if unknown
+     * @param listener The listener, may be null for stall detection only
+     * @param interval Min. time between two transfer events in milliseconds
+     */
+    public ProgressTracker(String name, long total, ProgressListener listener, long interval) {
+        this.name = name;
+        this.total = total;
+        this.listener = listener;
+        this.interval = TimeUnit.MILLISECONDS.toNanos(Math.max(0, interval));
+        this.nextEvent.set(start + this.interval);
+    }
+
+    /**
+     * Abort transfers falling below the given rate
+     * @param minRate The min. rate in bytes per second, 0 to disable stall detection
+     * @param stallTimeout Time in milliseconds the rate may stay below the minimum
+     */
+    public synchronized void setStallDetection(long minRate, long stallTimeout) {
+        this.minRate = Math.max(0, minRate);
+        this.stallTimeout = TimeUnit.MILLISECONDS.toNanos(Math.max(0, stallTimeout));
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return Number of bytes transferred, without those present before
+     */
+    public long getTransferredBytes() {
+        return bytes.get() - initialBytes;
+    }
+
+    /**
+     * @return Time in nanoseconds since the start of the first transfer, 0 if not started
+     */
+    public long getTransferTime() {
+        long t = transferStart;
+        return (t != 0) ? System.nanoTime() - t : 0;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * Enter the given phase and emit an event for it
+     * @param phase The phase
+     */
+    public void phase(Phase phase) {
+        this.phase = phase;
+        emit(System.nanoTime(), true);
+    }
+
+    /**
+     * Start or restart the transfer at the given position, e.g. when a download is resumed
+     * @param position Number of bytes already present
+     */
+    public void transfer(long position) {
+        synchronized (this) {
+            bytes.set(position);
+            if (transferStart == 0) {
+                initialBytes = position;
+                transferStart = System.nanoTime();
+            }
+            // Connecting does not count as stalled
+            windowTime = System.nanoTime();
+            windowBytes = position;
+        }
+        phase(Phase.TRANSFER);
+    }
+
+    /**
+     * Count transferred bytes
+     * @param count The number of bytes
+     * @throws StalledTransferException if the transfer is too slow
+     */
+    public void add(long count) throws StalledTransferException {
+        bytes.addAndGet(count);
+        long now = System.nanoTime();
+        long next = nextEvent.get();
+        if (now - next >= 0 && nextEvent.compareAndSet(next, now + interval)) {
+            checkStalled(now);
+            emit(now, false);
+        }
+    }
+
+    /**
+     * Wrap the channel to count the bytes read
+     * @param channel The channel
+     * @return The counting channel
+     */
+    public ReadableByteChannel wrap(final ReadableByteChannel channel) {
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                int n = channel.read(dst);
+                if (n > 0) {
+                    add(n);
+                }
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    private synchronized void checkStalled(long now) throws StalledTransferException {
+        if (minRate <= 0 || phase != Phase.TRANSFER || now - windowTime < stallTimeout) {
+            return;
+        }
+        long current = bytes.get();
+        long rate = rate(current - windowBytes, now - windowTime);
+        if (rate < minRate) {
+            throw new StalledTransferException("Transfer of '" + name + "' stalled at " + rate + " bytes/s", rate);
+        }
+        windowTime = now;
+        windowBytes = current;
+    }
+
+    private void emit(long now, boolean force) {
+        if (listener == null) {
+            return;
+        }
+        TransferProgress progress;
+        synchronized (this) {
+            long current = bytes.get();
+            long rate = (now > lastTime) ? rate(current - lastBytes, now - lastTime) : 0;
+            if (!force || now - lastTime >= interval) {
+                lastTime = now;
+                lastBytes = current;
+            }
+            progress = new TransferProgress(name, phase, current, total, rate,
+                    rate(current - initialBytes, now - start), TimeUnit.NANOSECONDS.toMillis(now - start));
+        }
+        try {
+            listener.progress(progress);
+        } catch (RuntimeException ex) {
+            LOG.warn("Progress listener failed: {}", ex.toString());
+        }
+    }
+
+    private static long rate(long bytes, long nanos) {
+        return (nanos > 0) ? (long) (bytes * 1e9 / nanos) : 0;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Token bucket limiting the bandwidth of downloads.
+ * <p>
+ * The bucket holds up to the burst size of bytes and is refilled with the
+ * configured rate. Reading more than available puts the bucket into debt and
+ * the reader waits until it is paid off, so concurrent readers sharing one
+ * limiter split the bandwidth between them. Safe to be used from parallel threads.
+ *
+ * @author Dino Tsoumakis
+ */
+public class RateLimiter {
+
+    private long bytesPerSecond;
+    private long burst;
+    // Available bytes, negative while in debt
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * Create a limiter allowing bursts of one second
+     * @param bytesPerSecond The max. rate in bytes per second
+     */
+    public RateLimiter(long bytesPerSecond) {
+        this(bytesPerSecond, bytesPerSecond);
+    }
+
+    /**
+     * @param bytesPerSecond The max. rate in bytes per second
+     * @param burst The max. number of bytes read without waiting
+     */
+    public RateLimiter(long bytesPerSecond, long burst) {
+        setRate(bytesPerSecond, burst);
+        this.tokens = this.burst;
+    }
+
+    public synchronized long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public synchronized long getBurst() {
+        return burst;
+    }
+
+    /**
+     * Change the rate, e.g. to trickle updates while the network is busy.
+     * Downloads in progress continue with the new rate.
+     * @param bytesPerSecond The max. rate in bytes per second
+     * @param burst The max. number of bytes read without waiting
+     */
+    public synchronized void setRate(long bytesPerSecond, long burst) {
+        if (bytesPerSecond < 1) {
+            throw new IllegalArgumentException("Rate must be at least 1 byte per second!");
+        }
+        refill();
+        this.bytesPerSecond = bytesPerSecond;
+        this.burst = Math.max(1, burst);
+        this.tokens = Math.min(tokens, this.burst);
+    }
+
+    /**
+     * Take the given number of bytes from the bucket and wait until the rate allows them
+     * @param bytes The number of bytes
+     * @throws InterruptedIOException if the thread was interrupted while waiting
+     */
+    public void acquire(long bytes) throws InterruptedIOException {
+        long wait = reserve(bytes);
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling download");
+            }
+        }
+    }
+
+    /**
+     * @return Time to wait in nanoseconds
+     */
+    synchronized long reserve(long bytes) {
+        refill();
+        tokens -= bytes;
+        return (tokens < 0) ? (long) (-tokens * 1e9 / bytesPerSecond) : 0;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (bytesPerSecond > 0) {
+            tokens = Math.min(burst, tokens + (now - lastRefill) * bytesPerSecond / 1e9);
+        }
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import de.dimaki.refuel.appcast.entity.TransferProgress;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Download into a persistent partial file.
+ * An interrupted download is resumed with a HTTP range request on the next attempt,
+ * validated with If-Range against the ETag (or Last-Modified date) of the first response.
+ * Failed attempts are retried according to the retry policy.
+ *
+ * @author Dino Tsoumakis
+ */
+public class ResumableDownload {
+    private static final Logger LOG = LoggerFactory.getLogger(ResumableDownload.class);
+    private static final String KEY_URL = "url";
+    private static final String KEY_VALIDATOR = "validator";
+
+    private final URL url;
+    private final Path partFile;
+    private final Path metaFile;
+    private final RetryPolicy retryPolicy;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private List<MessageDigest> digests = Collections.emptyList();
+    // Number of bytes of the partial file covered by the digests
+    private long digested;
+    private List<RateLimiter> rateLimiters = Collections.emptyList();
+    private ProgressTracker progressTracker;
+    private Transport transport = KeepAliveTransport.DEFAULT;
+
+    /**
+     * @param url The file URL
+     * @param partFile The partial file, kept until the download is complete
+     * @param retryPolicy The retry policy
+     * @param connectTimeout The connect timeout in milliseconds
+     * @param readTimeout The read timeout in milliseconds
+     */
+    public ResumableDownload(URL url, Path partFile, RetryPolicy retryPolicy, int connectTimeout, int readTimeout) {
+        this.url = url;
+        this.partFile = partFile;
+        this.metaFile = partFile.resolveSibling(partFile.getFileName() + ".properties");
+        this.retryPolicy = retryPolicy;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    public Path getPartFile() {
+        return partFile;
+    }
+
+    /**
+     * Set the digests to compute while downloading. When the download is
+     * resumed, the existing part of the file is digested first.
+     * @param digests The digests
+     */
+    public void setDigests(List<MessageDigest> digests) {
+        for (MessageDigest md : digests) {
+            md.reset();
+        }
+        this.digests = digests;
+        this.digested = 0;
+    }
+
+    /**
+     * Set the rate limiters for the download, e.g. the limit of the
+     * appcast manager and the one of a process-wide budget
+     * @param rateLimiters The rate limiters
+     */
+    public void setRateLimiters(List<RateLimiter> rateLimiters) {
+        this.rateLimiters = rateLimiters;
+    }
+
+    /**
+     * Set the tracker for the progress of the download
+     * @param progressTracker The tracker, null for none
+     */
+    public void setProgressTracker(ProgressTracker progressTracker) {
+        this.progressTracker = progressTracker;
+    }
+
+    /**
+     * Set the transport opening the connections
+     * @param transport The transport
+     */
+    public void setTransport(Transport transport) {
+        if (transport == null) {
+            throw new IllegalArgumentException("Transport cannot be null!");
+        }
+        this.transport = transport;
+    }
+
+    /**
+     * Download the remaining part of the file.
+     * The partial file is locked for the whole download, including all retries.
+     * @return The complete partial file
+     * @throws DownloadInProgressException if the file is already being downloaded by another thread or process
+     * @throws IOException if the download failed, the partial file is kept for the next attempt
+     */
+    public Path run() throws IOException {
+        PartFileLock lock = PartFileLock.acquire(partFile, url);
+        try {
+            int failed = 0;
+            while (true) {
+                try {
+                    retryPolicy.check(url);
+                    transfer();
+                    retryPolicy.onSuccess(url);
+                    return partFile;
+                } catch (IOException ex) {
+                    failed++;
+                    retryPolicy.onFailure(url, ex);
+                    if (!retryPolicy.shouldRetry(ex, failed)) {
+                        throw ex;
+                    }
+                    LOG.info("Download of ''{}'' failed ({}), retrying in {} ms...", url, ex.toString(), retryPolicy.getBackoff(ex, failed));
+                    retryPolicy.await(ex, failed);
+                }
+            }
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Delete the partial file, unless it is locked by a running download
+     * @return true if deleted, false if another download holds the lock
+     * @throws IOException in case of an error
+     */
+    public boolean discard() throws IOException {
+        PartFileLock lock;
+        try {
+            lock = PartFileLock.acquire(partFile, url);
+        } catch (DownloadInProgressException ex) {
+            LOG.debug("Not discarding ''{}'', it is locked by another download", partFile);
+            return false;
+        }
+        try {
+            delete();
+            return true;
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Delete the partial file, the caller holds the lock
+     */
+    private void delete() throws IOException {
+        Files.deleteIfExists(metaFile);
+        Files.deleteIfExists(partFile);
+    }
+
+    private void transfer() throws IOException {
+        if (progressTracker != null) {
+            progressTracker.phase(TransferProgress.Phase.CONNECT);
+        }
+        URLConnection conn = transport.open(url, null, connectTimeout, readTimeout);
+
+        long offset = 0;
+        long total = -1;
+        if (conn instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection) conn;
+            long existing = Files.exists(partFile) ? Files.size(partFile) : 0;
+            String validator = readValidator();
+            if (existing > 0 && validator != null) {
+                LOG.debug("Resuming download of ''{}'' at {} bytes", url, existing);
+                http.setRequestProperty("Range", "bytes=" + existing + "-");
+                http.setRequestProperty("If-Range", validator);
+            }
+            int status = http.getResponseCode();
+            if (status == HttpURLConnection.HTTP_PARTIAL) {
+                long[] range = parseContentRange(http.getHeaderField("Content-Range"));
+                if (range[0] != existing) {
+                    http.disconnect();
+                    delete();
+                    throw new IOException("Unexpected content range: " + http.getHeaderField("Content-Range"));
+                }
+                offset = existing;
+                total = (range[1] >= 0) ? range[1] : (offset + http.getContentLengthLong());
+            } else if (status == HttpURLConnection.HTTP_OK) {
+                total = http.getContentLengthLong();
+                String etag = http.getHeaderField("ETag");
+                // Weak validators cannot be used for range requests
+                storeValidator((etag != null && !etag.startsWith("W/")) ? etag : http.getHeaderField("Last-Modified"));
+            } else if (status == 416) {
+                long[] range = parseContentRange(http.getHeaderField("Content-Range"));
+                KeepAliveTransport.release(http);
+                if (range[1] >= 0 && range[1] == existing) {
+                    // Already complete
+                    try (FileChannel fc = FileChannel.open(partFile, StandardOpenOption.READ)) {
+                        digestExisting(fc, existing);
+                    }
+                    return;
+                }
+                delete();
+                throw new HttpStatusException("Requested range not satisfiable", status);
+            } else if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+                KeepAliveTransport.release(http);
+                throw new FileNotFoundException(url.toString());
+            } else {
+                long retryAfter = HttpStatusException.getRetryAfter(http);
+                KeepAliveTransport.release(http);
+                throw new HttpStatusException("Server returned HTTP " + status + " for URL: " + url, status, retryAfter);
+            }
+        } else {
+            total = conn.getContentLengthLong();
+        }
+
+        try (InputStream is = conn.getInputStream();
+                FileChannel fc = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)) {
+            fc.truncate(offset);
+            digestExisting(fc, offset);
+            fc.position(offset);
+            long size = offset;
+            ReadableByteChannel in = ThrottledChannel.wrap(Channels.newChannel(is), rateLimiters);
+            if (progressTracker != null) {
+                progressTracker.transfer(offset);
+                in = progressTracker.wrap(in);
+            }
+            WritableByteChannel out = new DigestingChannel(fc, digests);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(DigestingChannel.BUFFER_SIZE);
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    size += out.write(buffer);
+                    digested = size;
+                }
+                buffer.clear();
+            }
+            if (total >= 0 && size != total) {
+                throw new IOException("Incomplete download: " + size + " of " + total + " bytes");
+            }
+        }
+    }
+
+    /**
+     * Make the digests cover the first bytes of the partial file
+     */
+    private void digestExisting(FileChannel fc, long length) throws IOException {
+        if (digested != length) {
+            for (MessageDigest md : digests) {
+                md.reset();
+            }
+            DigestingChannel.update(fc, length, digests);
+            digested = length;
+        }
+    }
+
+    /**
+     * Parse a Content-Range header value
+     * @return start and total length, -1 if unknown
+     */
+    static long[] parseContentRange(String contentRange) {
+        long[] range = {-1, -1};
+        if (contentRange == null) {
+            return range;
+        }
+        String value = contentRange.trim();
+        if (value.startsWith("bytes")) {
+            value = value.substring(5).trim();
+        }
+        int slash = value.indexOf('/');
+        int dash = value.indexOf('-');
+        try {
+            if (dash > 0 && (slash < 0 || dash < slash)) {
+                range[0] = Long.parseLong(value.substring(0, dash).trim());
+            }
+            if (slash >= 0 && !"*".equals(value.substring(slash + 1).trim())) {
+                range[1] = Long.parseLong(value.substring(slash + 1).trim());
+            }
+        } catch (NumberFormatException ex) {
+            // Unknown
+        }
+        return range;
+    }
+
+    private String readValidator() throws IOException {
+        if (!Files.exists(metaFile)) {
+            return null;
+        }
+        Properties p = new Properties();
+        try (Reader r = Files.newBufferedReader(metaFile, StandardCharsets.UTF_8)) {
+            p.load(r);
+        }
+        return url.toExternalForm().equals(p.getProperty(KEY_URL)) ? p.getProperty(KEY_VALIDATOR) : null;
+    }
+
+    private void storeValidator(String validator) throws IOException {
+        if (validator == null) {
+            Files.deleteIfExists(metaFile);
+            return;
+        }
+        Properties p = new Properties();
+        p.setProperty(KEY_URL, url.toExternalForm());
+        p.setProperty(KEY_VALIDATOR, validator);
+        try (Writer w = Files.newBufferedWriter(metaFile, StandardCharsets.UTF_8)) {
+            p.store(w, null);
+        }
+    }
+}
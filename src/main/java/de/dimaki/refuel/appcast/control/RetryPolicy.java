@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+
+/**
+ * Decides if and when a failed transfer is retried.
+ * The delay grows exponentially with every failed attempt. A Retry-After
+ * of the server is respected; if it is longer than the max. backoff, the
+ * transfer is not retried. An optional circuit breaker stops requests to
+ * hosts which keep failing.
+ *
+ * @author Dino Tsoumakis
+ */
+public class RetryPolicy {
+
+    /** Do not retry at all */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+    private final int maxAttempts;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final CircuitBreaker circuitBreaker;
+
+    /**
+     * Create a default policy: 3 attempts, 1s initial backoff, 30s max. backoff
+     * and a circuit breaker of its own
+     */
+    public RetryPolicy() {
+        this(3, 1000, 30000, new CircuitBreaker());
+    }
+
+    /**
+     * @param maxAttempts Max. number of attempts including the first one
+     * @param initialBackoff Delay before the first retry in milliseconds
+     * @param maxBackoff Max. delay between two attempts in milliseconds
+     */
+    public RetryPolicy(int maxAttempts, long initialBackoff, long maxBackoff) {
+        this(maxAttempts, initialBackoff, maxBackoff, null);
+    }
+
+    /**
+     * @param maxAttempts Max. number of attempts including the first one
+     * @param initialBackoff Delay before the first retry in milliseconds
+     * @param maxBackoff Max. delay between two attempts in milliseconds
+     * @param circuitBreaker The circuit breaker, may be shared by many policies, null for none
+     */
+    public RetryPolicy(int maxAttempts, long initialBackoff, long maxBackoff, CircuitBreaker circuitBreaker) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1!");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = Math.max(0, initialBackoff);
+        this.maxBackoff = Math.max(this.initialBackoff, maxBackoff);
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    /**
+     * @return The circuit breaker, null if there is none
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Get the delay before the next attempt
+     * @param failedAttempts Number of failed attempts so far, starting with 1
+     * @return The delay in milliseconds
+     */
+    public long getBackoff(int failedAttempts) {
+        long backoff = initialBackoff;
+        for (int i = 1; i < failedAttempts && backoff < maxBackoff; i++) {
+            backoff *= 2;
+        }
+        return Math.min(backoff, maxBackoff);
+    }
+
+    /**
+     * Get the delay before the next attempt after the given error,
+     * at least the time the server asked to wait
+     * @param ex The error
+     * @param failedAttempts Number of failed attempts so far, starting with 1
+     * @return The delay in milliseconds
+     */
+    public long getBackoff(IOException ex, int failedAttempts) {
+        return Math.max(getBackoff(failedAttempts), getRetryAfter(ex));
+    }
+
+    /**
+     * Check if another attempt should be made after the given error
+     * @param ex The error
+     * @param failedAttempts Number of failed attempts so far, starting with 1
+     * @return true to retry
+     */
+    public boolean shouldRetry(IOException ex, int failedAttempts) {
+        return failedAttempts < maxAttempts && isRetryable(ex) && getRetryAfter(ex) <= maxBackoff;
+    }
+
+    /**
+     * Check if a request to the URL is allowed by the circuit breaker
+     * @param url The URL
+     * @throws CircuitBreaker.OpenException if the circuit of the host is open
+     */
+    public void check(URL url) throws CircuitBreaker.OpenException {
+        if (circuitBreaker != null) {
+            circuitBreaker.check(url);
+        }
+    }
+
+    /**
+     * Record a successful request
+     * @param url The URL
+     */
+    public void onSuccess(URL url) {
+        if (circuitBreaker != null) {
+            circuitBreaker.onSuccess(url);
+        }
+    }
+
+    /**
+     * Record a failed request
+     * @param url The URL
+     * @param ex The error
+     */
+    public void onFailure(URL url, IOException ex) {
+        if (circuitBreaker != null) {
+            circuitBreaker.onFailure(url, ex);
+        }
+    }
+
+    /**
+     * Transient errors are retryable: timeouts, broken connections, 5xx, 408 and 429.
+     * Unknown hosts, missing files, other client errors, open circuits and downloads already in progress are not.
+     * @param ex The error
+     * @return true if the error is transient
+     */
+    protected boolean isRetryable(IOException ex) {
+        if (ex instanceof SocketTimeoutException) {
+            return true;
+        }
+        if (ex instanceof UnknownHostException || ex instanceof FileNotFoundException || ex instanceof InterruptedIOException
+                || ex instanceof DownloadInProgressException || ex instanceof CircuitBreaker.OpenException) {
+            return false;
+        }
+        if (ex instanceof HttpStatusException) {
+            int status = ((HttpStatusException) ex).getStatus();
+            return status >= 500 || status == 408 || status == 416 || status == 429;
+        }
+        return true;
+    }
+
+    /**
+     * Wait before the next attempt
+     * @param failedAttempts Number of failed attempts so far, starting with 1
+     * @throws InterruptedIOException if the thread was interrupted while waiting
+     */
+    public void await(int failedAttempts) throws InterruptedIOException {
+        sleep(getBackoff(failedAttempts));
+    }
+
+    /**
+     * Wait before the next attempt after the given error
+     * @param ex The error
+     * @param failedAttempts Number of failed attempts so far, starting with 1
+     * @throws InterruptedIOException if the thread was interrupted while waiting
+     */
+    public void await(IOException ex, int failedAttempts) throws InterruptedIOException {
+        sleep(getBackoff(ex, failedAttempts));
+    }
+
+    private static long getRetryAfter(IOException ex) {
+        return (ex instanceof HttpStatusException) ? ((HttpStatusException) ex).getRetryAfter() : -1;
+    }
+
+    private static void sleep(long backoff) throws InterruptedIOException {
+        if (backoff > 0) {
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for retry");
+            }
+        }
+    }
+}
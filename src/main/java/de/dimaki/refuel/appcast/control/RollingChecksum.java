@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+/**
+ * Weak rolling checksum over a window of bytes, as used by rsync.
+ * The window can be moved by one byte in constant time.
+ * Matches must be confirmed by comparing the data or a strong hash.
+ *
+ * @author Dino Tsoumakis
+ */
+public class RollingChecksum {
+
+    private int a;
+    private int b;
+    private int length;
+
+    /**
+     * Start a new window with the given bytes
+     * @param data The data
+     * @param offset Start of the window
+     * @param length Length of the window
+     */
+    public void reset(byte[] data, int offset, int length) {
+        a = 0;
+        b = 0;
+        for (int i = 0; i < length; i++) {
+            int value = data[offset + i] & 0xff;
+            a += value;
+            b += (length - i) * value;
+        }
+        a &= 0xffff;
+        b &= 0xffff;
+        this.length = length;
+    }
+
+    /**
+     * Move the window by one byte
+     * @param out The first byte of the current window
+     * @param in The byte following the current window
+     */
+    public void roll(byte out, byte in) {
+        int o = out & 0xff;
+        a = (a - o + (in & 0xff)) & 0xffff;
+        b = (b - length * o + a) & 0xffff;
+    }
+
+    /**
+     * @return The checksum of the current window
+     */
+    public int getValue() {
+        return (b << 16) | a;
+    }
+
+    /**
+     * Calculate the checksum of the given bytes
+     * @param data The data
+     * @param offset Start of the window
+     * @param length Length of the window
+     * @return The checksum
+     */
+    public static int of(byte[] data, int offset, int length) {
+        RollingChecksum checksum = new RollingChecksum();
+        checksum.reset(data, offset, length);
+        return checksum.getValue();
+    }
+}
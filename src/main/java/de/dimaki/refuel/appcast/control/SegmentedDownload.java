@@ -0,0 +1,312 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Download of a file in byte ranges over parallel connections.
+ * The ranges are written into a preallocated file with positional writes.
+ * Only used if the server advertises byte range support and the length is known,
+ * see {@link #isSupported()}.
+ *
+ * @author Dino Tsoumakis
+ */
+public class SegmentedDownload {
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentedDownload.class);
+
+    private final URL url;
+    private final Path partFile;
+    private final long length;
+    private final int segmentCount;
+    private final long minSegmentSize;
+    private final RetryPolicy retryPolicy;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private String validator;
+    private List<RateLimiter> rateLimiters = Collections.emptyList();
+    private ProgressTracker progressTracker;
+    private Transport transport = KeepAliveTransport.DEFAULT;
+
+    /**
+     * @param url The file URL
+     * @param partFile The file to download into
+     * @param length The expected file length
+     * @param segmentCount Max. number of segments (parallel connections)
+     * @param minSegmentSize Min. size of a segment in bytes
+     * @param retryPolicy The retry policy for each segment
+     * @param connectTimeout The connect timeout in milliseconds
+     * @param readTimeout The read timeout in milliseconds
+     */
+    public SegmentedDownload(URL url, Path partFile, long length, int segmentCount, long minSegmentSize,
+            RetryPolicy retryPolicy, int connectTimeout, int readTimeout) {
+        this.url = url;
+        this.partFile = partFile;
+        this.length = length;
+        this.segmentCount = segmentCount;
+        this.minSegmentSize = Math.max(1, minSegmentSize);
+        this.retryPolicy = retryPolicy;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Set the rate limiters for the download, e.g. the limit of the
+     * appcast manager and the one of a process-wide budget
+     * @param rateLimiters The rate limiters
+     */
+    public void setRateLimiters(List<RateLimiter> rateLimiters) {
+        this.rateLimiters = rateLimiters;
+    }
+
+    /**
+     * Set the tracker for the progress of the download
+     * @param progressTracker The tracker, null for none
+     */
+    public void setProgressTracker(ProgressTracker progressTracker) {
+        this.progressTracker = progressTracker;
+    }
+
+    /**
+     * Set the transport opening the connections
+     * @param transport The transport
+     */
+    public void setTransport(Transport transport) {
+        if (transport == null) {
+            throw new IllegalArgumentException("Transport cannot be null!");
+        }
+        this.transport = transport;
+    }
+
+    /**
+     * Ask the server (HEAD request) if the file can be downloaded in segments
+     * @return true if byte ranges are supported and the length matches
+     * @throws IOException in case of an error
+     */
+    public boolean isSupported() throws IOException {
+        if (getSegments().size() < 2) {
+            return false;
+        }
+        URLConnection conn = open();
+        if (!(conn instanceof HttpURLConnection)) {
+            return false;
+        }
+        HttpURLConnection http = (HttpURLConnection) conn;
+        try {
+            http.setRequestMethod("HEAD");
+            // Some servers omit the length on HEAD, the segments check it anyway
+            long contentLength = http.getContentLengthLong();
+            if (http.getResponseCode() != HttpURLConnection.HTTP_OK
+                    || !"bytes".equalsIgnoreCase(http.getHeaderField("Accept-Ranges"))
+                    || (contentLength >= 0 && contentLength != length)) {
+                return false;
+            }
+            String etag = http.getHeaderField("ETag");
+            validator = (etag != null && !etag.startsWith("W/")) ? etag : http.getHeaderField("Last-Modified");
+            return true;
+        } finally {
+            KeepAliveTransport.release(http);
+        }
+    }
+
+    /**
+     * Download all segments. The calling thread takes part in the download,
+     * the other segments are downloaded on the given executor.
+     *
+     * @param executor Executor for the parallel connections
+     * @return The downloaded file
+     * @throws DownloadInProgressException if the file is already being downloaded by another thread or process
+     * @throws IOException if a segment could not be downloaded
+     */
+    public Path run(Executor executor) throws IOException {
+        final Queue<long[]> pending = new ConcurrentLinkedQueue<>(getSegments());
+        final AtomicReference<IOException> failure = new AtomicReference<>();
+        PartFileLock lock = PartFileLock.acquire(partFile, url);
+        try (FileChannel fc = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // Preallocate
+            fc.write(ByteBuffer.wrap(new byte[1]), length - 1);
+            if (progressTracker != null) {
+                progressTracker.transfer(0);
+            }
+
+            Runnable worker = () -> {
+                long[] segment;
+                while (failure.get() == null && (segment = pending.poll()) != null) {
+                    try {
+                        download(fc, segment[0], segment[1]);
+                    } catch (IOException ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                }
+            };
+            List<CompletableFuture<Void>> workers = new ArrayList<>();
+            int parallel = pending.size();
+            for (int i = 1; i < parallel; i++) {
+                try {
+                    workers.add(CompletableFuture.runAsync(worker, executor));
+                } catch (RejectedExecutionException ex) {
+                    break;
+                }
+            }
+            worker.run();
+            for (CompletableFuture<Void> w : workers) {
+                w.join();
+            }
+        } finally {
+            lock.close();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return partFile;
+    }
+
+    /**
+     * @return The segments as {start, end} (inclusive)
+     */
+    List<long[]> getSegments() {
+        List<long[]> segments = new ArrayList<>();
+        if (length <= 0) {
+            return segments;
+        }
+        long count = Math.max(1, Math.min(segmentCount, length / minSegmentSize));
+        long size = (length + count - 1) / count;
+        for (long start = 0; start < length; start += size) {
+            segments.add(new long[]{start, Math.min(start + size, length) - 1});
+        }
+        return segments;
+    }
+
+    private void download(FileChannel fc, long start, long end) throws IOException {
+        long position = start;
+        int failed = 0;
+        while (position <= end) {
+            try {
+                retryPolicy.check(url);
+                position = transfer(fc, position, end);
+                retryPolicy.onSuccess(url);
+            } catch (IOException ex) {
+                IOException error = ex;
+                if (ex instanceof SegmentException) {
+                    SegmentException se = (SegmentException) ex;
+                    if (se.position > position) {
+                        // Made some progress
+                        position = se.position;
+                        failed = 0;
+                    }
+                    error = (IOException) se.getCause();
+                }
+                failed++;
+                retryPolicy.onFailure(url, error);
+                if (!retryPolicy.shouldRetry(error, failed)) {
+                    throw error;
+                }
+                LOG.info("Download of ''{}'' at {} failed ({}), retrying in {} ms...", url, position, ex.toString(), retryPolicy.getBackoff(error, failed));
+                retryPolicy.await(error, failed);
+            }
+        }
+    }
+
+    /**
+     * @return The position after the last written byte
+     */
+    private long transfer(FileChannel fc, long start, long end) throws IOException {
+        HttpURLConnection http = (HttpURLConnection) open();
+        http.setRequestProperty("Range", "bytes=" + start + "-" + end);
+        if (validator != null) {
+            http.setRequestProperty("If-Range", validator);
+        }
+        int status = http.getResponseCode();
+        if (status != HttpURLConnection.HTTP_PARTIAL) {
+            long retryAfter = HttpStatusException.getRetryAfter(http);
+            KeepAliveTransport.release(http);
+            // 200 means the file has changed
+            throw new HttpStatusException("Range request for '" + url + "' failed with HTTP " + status,
+                    (status == HttpURLConnection.HTTP_OK) ? 409 : status, retryAfter);
+        }
+        long[] range = ResumableDownload.parseContentRange(http.getHeaderField("Content-Range"));
+        if (range[0] != start || (range[1] >= 0 && range[1] != length)) {
+            http.disconnect();
+            throw new HttpStatusException("Unexpected content range: " + http.getHeaderField("Content-Range"), 409);
+        }
+        long position = start;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(DigestingChannel.BUFFER_SIZE);
+        try (InputStream is = http.getInputStream(); ReadableByteChannel rbc = ThrottledChannel.wrap(track(Channels.newChannel(is)), rateLimiters)) {
+            while (position <= end) {
+                buffer.clear();
+                if (end - position + 1 < buffer.capacity()) {
+                    buffer.limit((int) (end - position + 1));
+                }
+                if (rbc.read(buffer) < 0) {
+                    break;
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    position += fc.write(buffer, position);
+                }
+            }
+        } catch (IOException ex) {
+            // Keep what has been written so far
+            throw new SegmentException(ex, position);
+        }
+        if (position <= end) {
+            throw new SegmentException(new IOException("Incomplete segment: " + (position - start) + " of " + (end - start + 1) + " bytes"), position);
+        }
+        return position;
+    }
+
+    private ReadableByteChannel track(ReadableByteChannel channel) {
+        return (progressTracker != null) ? progressTracker.wrap(channel) : channel;
+    }
+
+    private URLConnection open() throws IOException {
+        return transport.open(url, null, connectTimeout, readTimeout);
+    }
+
+    /**
+     * Failed transfer within a segment, remembers the position reached
+     */
+    private static class SegmentException extends IOException {
+        final long position;
+
+        SegmentException(IOException cause, long position) {
+            super(cause.getMessage(), cause);
+            this.position = position;
+        }
+    }
+}
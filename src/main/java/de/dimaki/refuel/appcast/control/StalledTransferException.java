@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import java.io.IOException;
+
+/**
+ * Thrown if a transfer falls below the minimum rate.
+ * Like a broken connection it is retried by the {@link RetryPolicy}.
+ *
+ * @author Dino Tsoumakis
+ */
+public class StalledTransferException extends IOException {
+
+    private final long rate;
+
+    public StalledTransferException(String message, long rate) {
+        super(message);
+        this.rate = rate;
+    }
+
+    /**
+     * @return The rate in bytes per second which was too low
+     */
+    public long getRate() {
+        return rate;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import de.dimaki.refuel.appcast.entity.Appcast;
+import de.dimaki.refuel.appcast.entity.Channel;
+import de.dimaki.refuel.appcast.entity.Enclosure;
+import de.dimaki.refuel.appcast.entity.Item;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import javax.xml.bind.DatatypeConverter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming appcast parser.
+ * Produces the same entities as the {@link JaxbAppcastParser}, but can stop
+ * reading after the first <code>maxItems</code> items of the channel.
+ * Channel elements following the last read item are not available in that case.
+ *
+ * @author Dino Tsoumakis
+ */
+public class StaxAppcastParser implements AppcastParser {
+
+    public static final String SPARKLE_NS = "http://www.andymatuschak.org/xml-namespaces/sparkle";
+    public static final int ALL_ITEMS = Integer.MAX_VALUE;
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private final int maxItems;
+
+    /**
+     * Create a parser reading all items
+     */
+    public StaxAppcastParser() {
+        this(ALL_ITEMS);
+    }
+
+    /**
+     * Create a parser reading only the first items
+     * @param maxItems max. number of items to read, at least 1
+     */
+    public StaxAppcastParser(int maxItems) {
+        if (maxItems < 1) {
+            throw new IllegalArgumentException("maxItems must be at least 1!");
+        }
+        this.maxItems = maxItems;
+    }
+
+    public int getMaxItems() {
+        return maxItems;
+    }
+
+    @Override
+    public Appcast parse(InputStream input) throws IOException, AppcastParseException {
+        XMLStreamReader reader = null;
+        try {
+            reader = FACTORY.createXMLStreamReader(input);
+            reader.nextTag();
+            if (!isElement(reader, null, "rss")) {
+                throw new AppcastParseException("Unexpected root element '" + reader.getLocalName() + "'");
+            }
+            Appcast appcast = new Appcast();
+            appcast.setVersion(attribute(reader, null, "version"));
+            while (nextChild(reader)) {
+                if (isElement(reader, null, "channel")) {
+                    appcast.setChannel(readChannel(reader));
+                    // Nothing of interest after the channel
+                    break;
+                }
+                skipElement(reader);
+            }
+            return appcast;
+        } catch (XMLStreamException ex) {
+            if (ex.getNestedException() instanceof IOException) {
+                throw (IOException) ex.getNestedException();
+            }
+            throw new AppcastParseException(ex.getMessage(), ex);
+        } catch (NumberFormatException ex) {
+            throw new AppcastParseException(ex.getMessage(), ex);
+        } finally {
+            if (reader != null) {
+                try { reader.close(); } catch (XMLStreamException ex) { /* ignore */ }
+            }
+        }
+    }
+
+    private Channel readChannel(XMLStreamReader reader) throws XMLStreamException {
+        Channel channel = new Channel();
+        int items = 0;
+        while (nextChild(reader)) {
+            if (isElement(reader, null, "item")) {
+                if (channel.getItems() == null) {
+                    channel.setItems(new ArrayList<>());
+                }
+                channel.getItems().add(readItem(reader));
+                if (++items >= maxItems) {
+                    break;
+                }
+            } else if (isElement(reader, null, "title")) {
+                channel.setTitle(readText(reader));
+            } else if (isElement(reader, null, "link")) {
+                channel.setLink(readText(reader));
+            } else if (isElement(reader, null, "description")) {
+                channel.setDescription(readText(reader));
+            } else if (isElement(reader, null, "language")) {
+                channel.setLanguage(readText(reader));
+            } else {
+                skipElement(reader);
+            }
+        }
+        return channel;
+    }
+
+    private Item readItem(XMLStreamReader reader) throws XMLStreamException {
+        Item item = new Item();
+        while (nextChild(reader)) {
+            if (isElement(reader, null, "title")) {
+                item.setTitle(readText(reader));
+            } else if (isElement(reader, null, "description")) {
+                item.setDescription(readText(reader));
+            } else if (isElement(reader, null, "pubDate")) {
+                item.setPubDate(parseDate(readText(reader)));
+            } else if (isElement(reader, SPARKLE_NS, "releaseNotesLink")) {
+                item.setReleaseNotesLink(readText(reader));
+            } else if (isElement(reader, SPARKLE_NS, "channel")) {
+                item.setChannel(readText(reader));
+            } else if (isElement(reader, SPARKLE_NS, "minimumSystemVersion")) {
+                item.setMinimumSystemVersion(readText(reader));
+            } else if (isElement(reader, null, "enclosure")) {
+                item.setEnclosure(readEnclosure(reader));
+            } else if (isElement(reader, SPARKLE_NS, "deltas")) {
+                while (nextChild(reader)) {
+                    if (isElement(reader, null, "enclosure")) {
+                        item.getDeltas().add(readEnclosure(reader));
+                    } else {
+                        skipElement(reader);
+                    }
+                }
+            } else {
+                skipElement(reader);
+            }
+        }
+        return item;
+    }
+
+    private Enclosure readEnclosure(XMLStreamReader reader) throws XMLStreamException {
+        Enclosure enclosure = new Enclosure();
+        enclosure.setUrl(attribute(reader, null, "url"));
+        String length = attribute(reader, null, "length");
+        if (length != null) {
+            enclosure.setLength(Long.parseLong(length.trim()));
+        }
+        enclosure.setType(attribute(reader, null, "type"));
+        enclosure.setVersion(attribute(reader, SPARKLE_NS, "version"));
+        enclosure.setShortVersionString(attribute(reader, SPARKLE_NS, "shortVersionString"));
+        enclosure.setDsaSignature(attribute(reader, SPARKLE_NS, "dsaSignature"));
+        enclosure.setMd5(attribute(reader, SPARKLE_NS, "md5"));
+        enclosure.setSha1(attribute(reader, SPARKLE_NS, "sha1"));
+        enclosure.setSha256(attribute(reader, SPARKLE_NS, "sha256"));
+        enclosure.setSha512(attribute(reader, SPARKLE_NS, "sha512"));
+        enclosure.setDeltaFrom(attribute(reader, SPARKLE_NS, "deltaFrom"));
+        enclosure.setBlockIndex(attribute(reader, SPARKLE_NS, "blockIndex"));
+        enclosure.setOs(attribute(reader, SPARKLE_NS, "os"));
+        skipElement(reader);
+        return enclosure;
+    }
+
+    /**
+     * Same as JAXB: pubDate is mapped as xs:dateTime, anything else is ignored
+     */
+    private static Date parseDate(String text) {
+        if (text == null) {
+            return null;
+        }
+        try {
+            return DatatypeConverter.parseDateTime(text.trim()).getTime();
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Move to the next child element of the current element
+     * @return false if the end of the current element was reached
+     */
+    private static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read the text content of the current element, ignoring nested elements
+     */
+    private static String readText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder sb = new StringBuilder();
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    if (depth == 1) {
+                        sb.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static String attribute(XMLStreamReader reader, String namespace, String localName) {
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            if (localName.equals(reader.getAttributeLocalName(i)) && isNamespace(reader.getAttributeNamespace(i), namespace)) {
+                return reader.getAttributeValue(i);
+            }
+        }
+        return null;
+    }
+
+    private static boolean isElement(XMLStreamReader reader, String namespace, String localName) {
+        if (!localName.equals(reader.getLocalName())) {
+            return false;
+        }
+        return isNamespace(reader.getNamespaceURI(), namespace);
+    }
+
+    private static boolean isNamespace(String actual, String expected) {
+        if (expected == null) {
+            return actual == null || actual.isEmpty();
+        }
+        return expected.equals(actual);
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+}
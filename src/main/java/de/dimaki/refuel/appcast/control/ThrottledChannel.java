@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+
+/**
+ * Readable channel limited by one or more rate limiters,
+ * e.g. the limit of the download and a process-wide budget.
+ *
+ * @author Dino Tsoumakis
+ */
+public class ThrottledChannel implements ReadableByteChannel {
+
+    // Max. bytes read at once, keeps the waits short
+    static final int CHUNK_SIZE = 16 * 1024;
+
+    private final ReadableByteChannel channel;
+    private final List<RateLimiter> limiters;
+
+    /**
+     * @param channel The channel to read from
+     * @param limiters The rate limiters
+     */
+    public ThrottledChannel(ReadableByteChannel channel, List<RateLimiter> limiters) {
+        this.channel = channel;
+        this.limiters = limiters;
+    }
+
+    /**
+     * Wrap the channel if there are limiters
+     * @param channel The channel
+     * @param limiters The rate limiters, may be empty
+     * @return The throttled or the given channel
+     */
+    public static ReadableByteChannel wrap(ReadableByteChannel channel, List<RateLimiter> limiters) {
+        return (limiters == null || limiters.isEmpty()) ? channel : new ThrottledChannel(channel, limiters);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int limit = dst.limit();
+        if (dst.remaining() > CHUNK_SIZE) {
+            dst.limit(dst.position() + CHUNK_SIZE);
+        }
+        int n;
+        try {
+            n = channel.read(dst);
+        } finally {
+            dst.limit(limit);
+        }
+        if (n > 0) {
+            for (RateLimiter limiter : limiters) {
+                limiter.acquire(n);
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
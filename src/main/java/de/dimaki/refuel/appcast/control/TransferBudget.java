@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits the number of parallel downloads and their total bandwidth.
+ * Share one instance between all appcast managers of the process.
+ *
+ * @author Dino Tsoumakis
+ */
+public class TransferBudget {
+
+    /**
+     * A granted download slot, released on close
+     */
+    public interface Permit extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private final int maxConcurrentDownloads;
+    private final Semaphore slots;
+    private final RateLimiter rateLimiter;
+
+    /**
+     * @param maxConcurrentDownloads Max. number of parallel downloads
+     * @param bytesPerSecond Max. total rate in bytes per second, 0 for unlimited
+     */
+    public TransferBudget(int maxConcurrentDownloads, long bytesPerSecond) {
+        if (maxConcurrentDownloads < 1) {
+            throw new IllegalArgumentException("maxConcurrentDownloads must be at least 1!");
+        }
+        this.maxConcurrentDownloads = maxConcurrentDownloads;
+        this.slots = new Semaphore(maxConcurrentDownloads, true);
+        this.rateLimiter = (bytesPerSecond > 0) ? new RateLimiter(bytesPerSecond) : null;
+    }
+
+    public int getMaxConcurrentDownloads() {
+        return maxConcurrentDownloads;
+    }
+
+    /**
+     * @return The limiter for the total rate, null if unlimited
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @return Number of downloads which could start now
+     */
+    public int getAvailableSlots() {
+        return slots.availablePermits();
+    }
+
+    /**
+     * Wait for a free download slot
+     * @return The permit, to be closed when the download is finished
+     * @throws InterruptedIOException if the thread was interrupted while waiting
+     */
+    public Permit acquire() throws InterruptedIOException {
+        try {
+            slots.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a download slot");
+        }
+        final AtomicBoolean released = new AtomicBoolean();
+        return () -> {
+            if (released.compareAndSet(false, true)) {
+                slots.release();
+            }
+        };
+    }
+}
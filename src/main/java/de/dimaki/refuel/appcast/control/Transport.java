@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import java.io.IOException;
+import java.net.Proxy;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * Opens the connections for fetching appcasts and downloading enclosures.
+ * Implementations must be safe to be shared between threads.
+ *
+ * @author Dino Tsoumakis
+ */
+@FunctionalInterface
+public interface Transport {
+
+    /**
+     * Open a connection to the given URL, without connecting it yet
+     * @param url The URL
+     * @param proxy The proxy, null for the default proxy selection
+     * @param connectTimeout The connect timeout in ms
+     * @param readTimeout The read timeout in ms
+     * @return The connection
+     * @throws IOException in case of an error
+     */
+    URLConnection open(URL url, Proxy proxy, int connectTimeout, int readTimeout) throws IOException;
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.control;
+
+import de.dimaki.refuel.appcast.entity.Appcast;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+
+/**
+ * Bounded pool of appcast unmarshallers sharing one process-wide JAXB context.
+ * The context is thread-safe and expensive to create, unmarshallers are cheap
+ * but not thread-safe, so each call borrows its own one.
+ *
+ * @author Dino Tsoumakis
+ */
+public class UnmarshallerPool {
+
+    public static final int DEFAULT_CAPACITY = Runtime.getRuntime().availableProcessors() * 2;
+
+    private static final Object LOCK = new Object();
+    private static volatile JAXBContext context;
+    private static volatile UnmarshallerPool shared;
+
+    private final BlockingQueue<Unmarshaller> idle;
+
+    /**
+     * Create a pool keeping at most the given number of idle unmarshallers
+     * @param capacity max. number of pooled unmarshallers
+     */
+    public UnmarshallerPool(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1!");
+        }
+        this.idle = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Get the process-wide JAXB context for the appcast entities.
+     * It is created on first use.
+     *
+     * @return The JAXB context
+     * @throws JAXBException if the context could not be created
+     */
+    public static JAXBContext getContext() throws JAXBException {
+        JAXBContext ctx = context;
+        if (ctx == null) {
+            synchronized (LOCK) {
+                ctx = context;
+                if (ctx == null) {
+                    ctx = JAXBContext.newInstance(Appcast.class);
+                    context = ctx;
+                }
+            }
+        }
+        return ctx;
+    }
+
+    /**
+     * Get the process-wide pool
+     * @return The shared pool
+     * @throws JAXBException if the JAXB context could not be created
+     */
+    public static UnmarshallerPool getShared() throws JAXBException {
+        UnmarshallerPool pool = shared;
+        if (pool == null) {
+            getContext();
+            synchronized (LOCK) {
+                pool = shared;
+                if (pool == null) {
+                    pool = new UnmarshallerPool(DEFAULT_CAPACITY);
+                    shared = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Unmarshal an appcast from the given stream.
+     * Safe to be called concurrently.
+     *
+     * @param input The input stream
+     * @return The unmarshalled appcast
+     * @throws JAXBException in case of an error
+     */
+    public Appcast unmarshal(InputStream input) throws JAXBException {
+        Unmarshaller unmarshaller = idle.poll();
+        if (unmarshaller == null) {
+            unmarshaller = getContext().createUnmarshaller();
+        }
+        try {
+            return (Appcast) unmarshaller.unmarshal(input);
+        } finally {
+            // Pool is full: just drop it
+            idle.offer(unmarshaller);
+        }
+    }
+
+    /**
+     * @return Number of currently idle unmarshallers
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+}
@@ -15,6 +15,8 @@
  */
 package de.dimaki.refuel.appcast.entity;
 
+import de.dimaki.refuel.updater.control.VersionComparator;
+import java.util.Comparator;
 import java.util.List;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
@@ -32,6 +34,11 @@ public class Appcast {
     @XmlAttribute
     String version;
     Channel channel;
+    // Used by the methods without comparator
+    private static final Comparator<String> DEFAULT_COMPARATOR = new VersionComparator();
+
+    // Lazily built, see getIndex()
+    transient volatile IndexedItems indexed;
 
     public Channel getChannel() {
         return channel;
@@ -68,18 +75,93 @@ public class Appcast {
 
     public Enclosure getLatestEnclosure() {
         Enclosure enclosure = null;
-        Channel c = getChannel();
-        if (c != null) {
-            List<Item> items = c.getItems();
-            if (items != null && !items.isEmpty()) {
-                // Assume the latest version on top
-                // Normally appcast should only contain one item
-                Item item = items.get(0);
-                if (item != null) {
-                    enclosure = item.getEnclosure();
+        Item item = getLatestItem();
+        if (item != null) {
+            enclosure = item.getEnclosure();
+        }
+        return enclosure;
+    }
+
+    /**
+     * Get the delta update of the latest version for the given installed version
+     * @param fromVersion The installed version
+     * @return The delta enclosure, or null if there is none
+     */
+    public Enclosure getLatestDelta(String fromVersion) {
+        Enclosure delta = null;
+        Item item = getLatestItem();
+        if (item != null) {
+            delta = item.getDelta(fromVersion);
+        }
+        return delta;
+    }
+
+    /**
+     * Get the item with the newest version, compared with a default {@link VersionComparator}
+     * @return The newest item, the first item if no item has a version. Null if there is none
+     * @see #getLatestItem(Comparator)
+     */
+    public Item getLatestItem() {
+        return getLatestItem(DEFAULT_COMPARATOR);
+    }
+
+    /**
+     * Get the item with the newest version. Appcasts need not be sorted, the
+     * items are looked up in the {@link #getIndex(Comparator) index}.
+     *
+     * @param versionComparator The comparator for the enclosure versions
+     * @return The newest item, the first item if no item has a version. Null if there is none
+     */
+    public Item getLatestItem(Comparator<String> versionComparator) {
+        Item item = getIndex(versionComparator).getLatest();
+        if (item == null) {
+            Channel c = getChannel();
+            if (c != null) {
+                List<Item> items = c.getItems();
+                if (items != null && !items.isEmpty()) {
+                    item = items.get(0);
                 }
             }
         }
-        return enclosure;
+        return item;
+    }
+
+    /**
+     * Get the version-sorted index of the items. It is built on first use
+     * and rebuilt only if the comparator or the items have been replaced.
+     *
+     * @param versionComparator The comparator for the enclosure versions
+     * @return The index, empty if there are no items
+     */
+    public AppcastIndex getIndex(Comparator<String> versionComparator) {
+        List<Item> items = (channel != null) ? channel.getItems() : null;
+        IndexedItems i = indexed;
+        if (i == null || !i.isFor(versionComparator, items)) {
+            i = new IndexedItems(versionComparator, items);
+            indexed = i;
+        }
+        return i.index;
+    }
+
+    /**
+     * An index together with the state it was built from
+     */
+    private static final class IndexedItems {
+        final Comparator<String> comparator;
+        final List<Item> items;
+        final int size;
+        final AppcastIndex index;
+
+        IndexedItems(Comparator<String> comparator, List<Item> items) {
+            this.comparator = comparator;
+            this.items = items;
+            this.size = (items != null) ? items.size() : 0;
+            this.index = new AppcastIndex(items, comparator);
+        }
+
+        boolean isFor(Comparator<String> comparator, List<Item> items) {
+            return this.comparator == comparator && this.items == items
+                    && this.size == ((items != null) ? items.size() : 0);
+        }
     }
 }
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.entity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Items of an appcast sorted by version, grouped by channel and operating system.
+ * Items without enclosure version are not indexed.
+ * <p>
+ * Items without channel are in the default channel, which is included in all
+ * channels. Items without operating system are available on all systems.
+ * Instances are immutable and thread-safe, see {@link Appcast#getIndex(Comparator)}.
+ *
+ * @author Dino Tsoumakis
+ */
+public final class AppcastIndex {
+
+    private final Comparator<String> versionComparator;
+    private final Comparator<Item> itemComparator;
+    // All items, sorted by version
+    private final Item[] items;
+    // Items by channel and os (null for none), sorted by version
+    private final Map<Group, Item[]> groups = new HashMap<>();
+
+    /**
+     * @param items The items to index
+     * @param versionComparator The comparator for the enclosure versions
+     */
+    public AppcastIndex(List<Item> items, Comparator<String> versionComparator) {
+        this.versionComparator = versionComparator;
+        this.itemComparator = (i1, i2) -> versionComparator.compare(versionOf(i1), versionOf(i2));
+        List<Item> indexed = new ArrayList<>();
+        if (items != null) {
+            for (Item item : items) {
+                if (versionOf(item) != null) {
+                    indexed.add(item);
+                }
+            }
+        }
+        this.items = indexed.toArray(new Item[indexed.size()]);
+        // Stable, so equal versions keep the appcast order
+        Arrays.sort(this.items, itemComparator);
+
+        Map<Group, List<Item>> grouped = new HashMap<>();
+        for (Item item : this.items) {
+            grouped.computeIfAbsent(new Group(item.getChannel(), item.getEnclosure().getOs()), g -> new ArrayList<>()).add(item);
+        }
+        for (Map.Entry<Group, List<Item>> entry : grouped.entrySet()) {
+            groups.put(entry.getKey(), entry.getValue().toArray(new Item[entry.getValue().size()]));
+        }
+    }
+
+    /**
+     * @return Number of indexed items
+     */
+    public int size() {
+        return items.length;
+    }
+
+    /**
+     * @return All indexed items, oldest first
+     */
+    public List<Item> getItems() {
+        return Collections.unmodifiableList(Arrays.asList(items));
+    }
+
+    /**
+     * @return The item with the newest version, null if there is none
+     */
+    public Item getLatest() {
+        return (items.length > 0) ? items[items.length - 1] : null;
+    }
+
+    /**
+     * Get the newest item compatible with the given system
+     *
+     * @param channel The channel, null for the default channel only
+     * @param os The operating system, null for items available on all systems only
+     * @param systemVersion The system version to check the minimum system version against, null to ignore it
+     * @return The newest compatible item, null if there is none
+     */
+    public Item getLatest(String channel, String os, String systemVersion) {
+        Item latest = null;
+        latest = newer(latest, getLatest(groups.get(new Group(null, null)), systemVersion));
+        if (os != null) {
+            latest = newer(latest, getLatest(groups.get(new Group(null, os)), systemVersion));
+        }
+        if (channel != null) {
+            latest = newer(latest, getLatest(groups.get(new Group(channel, null)), systemVersion));
+            if (os != null) {
+                latest = newer(latest, getLatest(groups.get(new Group(channel, os)), systemVersion));
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Get the item with the given version
+     * @param version The version
+     * @return The item, null if there is none
+     */
+    public Item getItem(String version) {
+        int index = lowerBound(version);
+        if (index < items.length && versionComparator.compare(versionOf(items[index]), version) == 0) {
+            return items[index];
+        }
+        return null;
+    }
+
+    /**
+     * Get the items newer than the installed version, up to the given version
+     *
+     * @param installedVersion The installed version, null for all items up to the latest version
+     * @param latestVersion The latest version (inclusive), null for all newer items
+     * @return The items, oldest first
+     */
+    public List<Item> getItemsBetween(String installedVersion, String latestVersion) {
+        int from = (installedVersion != null) ? upperBound(installedVersion) : 0;
+        int to = (latestVersion != null) ? upperBound(latestVersion) : items.length;
+        if (from >= to) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(Arrays.asList(items).subList(from, to));
+    }
+
+    /**
+     * The newest item in the sorted group meeting the minimum system version.
+     * Usually the newest item itself, older items are only checked if it requires a newer system.
+     */
+    private Item getLatest(Item[] group, String systemVersion) {
+        if (group != null) {
+            for (int i = group.length - 1; i >= 0; i--) {
+                String minimum = group[i].getMinimumSystemVersion();
+                if (systemVersion == null || minimum == null || versionComparator.compare(minimum, systemVersion) <= 0) {
+                    return group[i];
+                }
+            }
+        }
+        return null;
+    }
+
+    private Item newer(Item i1, Item i2) {
+        if (i1 == null) {
+            return i2;
+        } else if (i2 == null) {
+            return i1;
+        }
+        return (itemComparator.compare(i1, i2) >= 0) ? i1 : i2;
+    }
+
+    /**
+     * @return Index of the first item not older than the version
+     */
+    private int lowerBound(String version) {
+        int low = 0;
+        int high = items.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (versionComparator.compare(versionOf(items[mid]), version) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return Index of the first item newer than the version
+     */
+    private int upperBound(String version) {
+        int low = 0;
+        int high = items.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (versionComparator.compare(versionOf(items[mid]), version) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static String versionOf(Item item) {
+        if (item == null || item.getEnclosure() == null) {
+            return null;
+        }
+        return item.getEnclosure().getVersion();
+    }
+
+    /**
+     * Channel and operating system of an item
+     */
+    private static final class Group {
+        final String channel;
+        final String os;
+
+        Group(String channel, String os) {
+            this.channel = channel;
+            this.os = os;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(channel, os);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Group)) {
+                return false;
+            }
+            Group other = (Group) obj;
+            return Objects.equals(channel, other.channel) && Objects.equals(os, other.os);
+        }
+    }
+}
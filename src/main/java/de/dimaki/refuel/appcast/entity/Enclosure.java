@@ -41,7 +41,16 @@ public class Enclosure {
     String md5;
     @XmlAttribute(namespace="http://www.andymatuschak.org/xml-namespaces/sparkle")
     String sha1;
-
+    @XmlAttribute(namespace="http://www.andymatuschak.org/xml-namespaces/sparkle")
+    String sha256;
+    @XmlAttribute(namespace="http://www.andymatuschak.org/xml-namespaces/sparkle")
+    String sha512;
+    @XmlAttribute(namespace="http://www.andymatuschak.org/xml-namespaces/sparkle")
+    String deltaFrom;
+    @XmlAttribute(namespace="http://www.andymatuschak.org/xml-namespaces/sparkle")
+    String blockIndex;
+    @XmlAttribute(namespace="http://www.andymatuschak.org/xml-namespaces/sparkle")
+    String os;
 
     public String getUrl() {
         return url;
@@ -106,4 +115,47 @@ public class Enclosure {
     public void setSha1(String sha1) {
         this.sha1 = sha1;
     }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+
+    public String getSha512() {
+        return sha512;
+    }
+
+    public void setSha512(String sha512) {
+        this.sha512 = sha512;
+    }
+
+    public String getDeltaFrom() {
+        return deltaFrom;
+    }
+
+    public void setDeltaFrom(String deltaFrom) {
+        this.deltaFrom = deltaFrom;
+    }
+
+    public String getBlockIndex() {
+        return blockIndex;
+    }
+
+    public void setBlockIndex(String blockIndex) {
+        this.blockIndex = blockIndex;
+    }
+
+    /**
+     * @return The operating system, e.g. "windows", null for all
+     */
+    public String getOs() {
+        return os;
+    }
+
+    public void setOs(String os) {
+        this.os = os;
+    }
 }
@@ -15,10 +15,13 @@
  */
 package de.dimaki.refuel.appcast.entity;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementWrapper;
 
 /**
  *
@@ -31,7 +34,14 @@ public class Item {
     Date pubDate;
     @XmlElement(namespace="http://www.andymatuschak.org/xml-namespaces/sparkle")
     String releaseNotesLink;
+    @XmlElement(namespace="http://www.andymatuschak.org/xml-namespaces/sparkle")
+    String channel;
+    @XmlElement(namespace="http://www.andymatuschak.org/xml-namespaces/sparkle")
+    String minimumSystemVersion;
     Enclosure enclosure;
+    @XmlElementWrapper(name="deltas", namespace="http://www.andymatuschak.org/xml-namespaces/sparkle")
+    @XmlElement(name="enclosure")
+    List<Enclosure> deltas;
 
     public String getTitle() {
         return title;
@@ -65,6 +75,25 @@ public class Item {
         this.releaseNotesLink = releaseNotesLink;
     }
 
+    /**
+     * @return The release channel, e.g. "beta", null for the default channel
+     */
+    public String getChannel() {
+        return channel;
+    }
+
+    public void setChannel(String channel) {
+        this.channel = channel;
+    }
+
+    public String getMinimumSystemVersion() {
+        return minimumSystemVersion;
+    }
+
+    public void setMinimumSystemVersion(String minimumSystemVersion) {
+        this.minimumSystemVersion = minimumSystemVersion;
+    }
+
     public Enclosure getEnclosure() {
         return enclosure;
     }
@@ -73,5 +102,31 @@ public class Item {
         this.enclosure = enclosure;
     }
 
+    public List<Enclosure> getDeltas() {
+        if (deltas == null) {
+            deltas = new ArrayList<>();
+        }
+        return deltas;
+    }
+
+    public void setDeltas(List<Enclosure> deltas) {
+        this.deltas = deltas;
+    }
+
+    /**
+     * Get the delta update from the given version
+     * @param fromVersion The installed version
+     * @return The delta enclosure, or null if there is none
+     */
+    public Enclosure getDelta(String fromVersion) {
+        if (deltas != null && fromVersion != null) {
+            for (Enclosure delta : deltas) {
+                if (delta != null && fromVersion.equals(delta.getDeltaFrom())) {
+                    return delta;
+                }
+            }
+        }
+        return null;
+    }
 
 }
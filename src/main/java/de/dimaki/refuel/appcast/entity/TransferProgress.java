@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.appcast.entity;
+
+/**
+ * Immutable progress of a download or an extraction.
+ *
+ * @author Dino Tsoumakis
+ */
+public final class TransferProgress {
+
+    /**
+     * The phases of an update
+     */
+    public enum Phase {
+        CONNECT, TRANSFER, VERIFY, MOVE, EXTRACT, DONE
+    }
+
+    private final String name;
+    private final Phase phase;
+    private final long bytes;
+    private final long total;
+    private final long rate;
+    private final long averageRate;
+    private final long elapsed;
+
+    /**
+     * @param name The URL or file transferred
+     * @param phase The phase
+     * @param bytes Number of bytes transferred so far
+     * @param total Total number of bytes, -1 if unknown
+     * @param rate Current rate in bytes per second
+     * @param averageRate Average rate in bytes per second
+     * @param elapsed Time since the start in milliseconds
+     */
+    public TransferProgress(String name, Phase phase, long bytes, long total, long rate, long averageRate, long elapsed) {
+        this.name = name;
+        this.phase = phase;
+        this.bytes = bytes;
+        this.total = total;
+        this.rate = rate;
+        this.averageRate = averageRate;
+        this.elapsed = elapsed;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return Total number of bytes, -1 if unknown
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return Rate since the previous event in bytes per second
+     */
+    public long getRate() {
+        return rate;
+    }
+
+    /**
+     * @return Average rate since the start in bytes per second
+     */
+    public long getAverageRate() {
+        return averageRate;
+    }
+
+    /**
+     * @return Time since the start in milliseconds
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * @return Fraction done between 0 and 1, -1 if the total is unknown
+     */
+    public double getFraction() {
+        return (total > 0) ? Math.min(1.0, (double) bytes / total) : -1;
+    }
+
+    /**
+     * @return Estimated remaining time in milliseconds at the average rate, -1 if unknown
+     */
+    public long getEta() {
+        if (total < 0 || averageRate <= 0) {
+            return -1;
+        }
+        return Math.max(0, (total - bytes) * 1000 / averageRate);
+    }
+
+    @Override
+    public String toString() {
+        return phase.name() + " {name=" + name + ", bytes=" + bytes + ", total=" + total + ", rate=" + rate
+                + ", averageRate=" + averageRate + ", eta=" + getEta() + '}';
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.metrics.boundary;
+
+import de.dimaki.refuel.metrics.control.Histogram;
+import de.dimaki.refuel.metrics.control.HistogramInstrumentation;
+import de.dimaki.refuel.metrics.control.Instrumentation;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide instrumentation of the update pipeline.
+ * <p>
+ * By default the first {@link Instrumentation} found by the {@link ServiceLoader} is used,
+ * otherwise nothing is recorded. {@link #enableHistograms()} switches to in-memory
+ * histograms and {@link #registerMBeans(HistogramInstrumentation)} exposes them via JMX.
+ *
+ * @author Dino Tsoumakis
+ */
+public final class Metrics {
+    private static final Logger LOG = LoggerFactory.getLogger(Metrics.class);
+    public static final String JMX_DOMAIN = "de.dimaki.refuel";
+
+    private static volatile Instrumentation instrumentation = load();
+
+    /**
+     * Hide constructor
+     */
+    private Metrics() {
+        super();
+    }
+
+    /**
+     * @return The current instrumentation, never null
+     */
+    public static Instrumentation get() {
+        return instrumentation;
+    }
+
+    /**
+     * Set the instrumentation
+     * @param instrumentation The instrumentation, {@link Instrumentation#NOOP} to disable it
+     */
+    public static void setInstrumentation(Instrumentation instrumentation) {
+        if (instrumentation == null) {
+            throw new IllegalArgumentException("Instrumentation cannot be null!");
+        }
+        Metrics.instrumentation = instrumentation;
+    }
+
+    /**
+     * Record in-memory histograms from now on
+     * @return The histogram instrumentation
+     */
+    public static HistogramInstrumentation enableHistograms() {
+        HistogramInstrumentation histograms = new HistogramInstrumentation();
+        setInstrumentation(histograms);
+        return histograms;
+    }
+
+    /**
+     * Register the histograms as MBeans of the platform MBean server,
+     * e.g. <code>de.dimaki.refuel:type=Histogram,name=fetch.connect</code>.
+     * Histograms created later are registered as well.
+     *
+     * @param histograms The histogram instrumentation
+     */
+    public static void registerMBeans(HistogramInstrumentation histograms) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        histograms.setOnCreate(histogram -> register(server, histogram));
+    }
+
+    private static void register(MBeanServer server, Histogram histogram) {
+        try {
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":type=Histogram,name=" + ObjectName.quote(histogram.getName()));
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(histogram, name);
+        } catch (JMException ex) {
+            LOG.warn("Could not register MBean for metric ''{}'': {}", histogram.getName(), ex.toString());
+        }
+    }
+
+    private static Instrumentation load() {
+        try {
+            Iterator<Instrumentation> providers = ServiceLoader.load(Instrumentation.class).iterator();
+            if (providers.hasNext()) {
+                return providers.next();
+            }
+        } catch (ServiceConfigurationError ex) {
+            LOG.warn("Could not load instrumentation: {}", ex.toString());
+        }
+        return Instrumentation.NOOP;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.metrics.control;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values.
+ * <p>
+ * Values are counted in buckets growing exponentially with 8 linear sub-buckets
+ * each, so percentiles have a relative error of at most 12.5% at a fixed size of 4 KB.
+ *
+ * @author Dino Tsoumakis
+ */
+public class Histogram implements HistogramMXBean {
+
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BITS = 3;
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param name The metric name
+     */
+    public Histogram(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Record a value, negative values are counted as 0
+     * @param value The value
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        buckets.incrementAndGet(index(v));
+        count.increment();
+        sum.add(v);
+        min.accumulateAndGet(v, Math::min);
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public long getMin() {
+        long m = min.get();
+        return (m == Long.MAX_VALUE) ? 0 : m;
+    }
+
+    @Override
+    public long getMax() {
+        long m = max.get();
+        return (m == Long.MIN_VALUE) ? 0 : m;
+    }
+
+    @Override
+    public double getMean() {
+        long c = count.sum();
+        return (c > 0) ? (double) sum.sum() / c : 0;
+    }
+
+    @Override
+    public long getMedian() {
+        return getPercentile(50);
+    }
+
+    @Override
+    public long get90thPercentile() {
+        return getPercentile(90);
+    }
+
+    @Override
+    public long get99thPercentile() {
+        return getPercentile(99);
+    }
+
+    /**
+     * Get the value below which the given percentage of the values fall
+     * @param percentile The percentile, 0 to 100
+     * @return The upper bound of the bucket of the percentile, 0 if empty
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        long[] counts = new long[buckets.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.max(getMin(), Math.min(upperBound(i), getMax()));
+            }
+        }
+        return getMax();
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exp = index / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        long lower = (long) (SUB_BUCKETS + sub) << (exp - SUB_BITS);
+        return lower + (1L << (exp - SUB_BITS)) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return name + " {count=" + getCount() + ", min=" + getMin() + ", mean=" + (long) getMean()
+                + ", p50=" + getMedian() + ", p99=" + get99thPercentile() + ", max=" + getMax() + '}';
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.metrics.control;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Instrumentation keeping an in-memory histogram per metric.
+ * Times are kept in nanoseconds.
+ *
+ * @author Dino Tsoumakis
+ */
+public class HistogramInstrumentation implements Instrumentation {
+
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    // Called for every new histogram, e.g. to register it as MBean
+    private volatile Consumer<Histogram> onCreate;
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void recordTime(String metric, long nanos) {
+        getHistogram(metric).record(nanos);
+    }
+
+    @Override
+    public void recordValue(String metric, long value) {
+        getHistogram(metric).record(value);
+    }
+
+    /**
+     * Get the histogram of the metric, created on first use
+     * @param metric The metric name
+     * @return The histogram
+     */
+    public Histogram getHistogram(String metric) {
+        Histogram histogram = histograms.get(metric);
+        if (histogram == null) {
+            Histogram created = new Histogram(metric);
+            histogram = histograms.putIfAbsent(metric, created);
+            if (histogram == null) {
+                histogram = created;
+                Consumer<Histogram> callback = onCreate;
+                if (callback != null) {
+                    callback.accept(created);
+                }
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * @return All histograms by metric name, sorted
+     */
+    public Map<String, Histogram> getHistograms() {
+        return Collections.unmodifiableMap(new TreeMap<>(histograms));
+    }
+
+    /**
+     * Set the callback for new histograms and call it for the existing ones
+     * @param onCreate The callback, null for none
+     */
+    public synchronized void setOnCreate(Consumer<Histogram> onCreate) {
+        this.onCreate = onCreate;
+        if (onCreate != null) {
+            histograms.values().forEach(onCreate);
+        }
+    }
+
+    /**
+     * Reset all histograms
+     */
+    public void reset() {
+        histograms.values().forEach(Histogram::reset);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.metrics.control;
+
+/**
+ * Service provider interface for timings and values of the update pipeline.
+ * <p>
+ * Implementations are called on the hot paths from parallel threads and must
+ * be thread-safe and fast. Times are recorded in nanoseconds. An implementation
+ * can be set with {@link de.dimaki.refuel.metrics.boundary.Metrics#setInstrumentation(Instrumentation)}
+ * or registered in <code>META-INF/services/de.dimaki.refuel.metrics.control.Instrumentation</code>.
+ *
+ * @author Dino Tsoumakis
+ */
+public interface Instrumentation {
+
+    /** Records nothing */
+    Instrumentation NOOP = new Instrumentation() { };
+
+    // Appcast fetch
+    String FETCH_DNS = "fetch.dns";
+    String FETCH_CONNECT = "fetch.connect";
+    String FETCH_TTFB = "fetch.ttfb";
+    String FETCH_PARSE = "fetch.parse";
+    String FETCH_TOTAL = "fetch.total";
+    // Download
+    String DOWNLOAD_BYTES = "download.bytes";
+    String DOWNLOAD_RATE = "download.rate";
+    String DOWNLOAD_TRANSFER = "download.transfer";
+    String DOWNLOAD_VERIFY = "download.verify";
+    // Extraction
+    String UNZIP_ENTRY = "unzip.entry";
+    String UNZIP_TOTAL = "unzip.total";
+    // Update script
+    String UPDATE_SCRIPT = "update.script";
+    // Bootstrap
+    String BOOTSTRAP_CLASS_LOAD = "bootstrap.classLoad";
+    String BOOTSTRAP_START = "bootstrap.start";
+
+    /**
+     * @return false if nothing is recorded, so expensive measurements can be skipped
+     */
+    default boolean isEnabled() {
+        return false;
+    }
+
+    /**
+     * Record a duration
+     * @param metric The metric name
+     * @param nanos The duration in nanoseconds
+     */
+    default void recordTime(String metric, long nanos) {
+    }
+
+    /**
+     * Record a value, e.g. a number of bytes
+     * @param metric The metric name
+     * @param value The value
+     */
+    default void recordValue(String metric, long value) {
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.updater.boundary;
+
+import de.dimaki.refuel.appcast.entity.Item;
+import de.dimaki.refuel.updater.entity.ApplicationStatus;
+import de.dimaki.refuel.updater.entity.UpdateCheck;
+import de.dimaki.refuel.updater.entity.UpdateStatus;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically checks applications for updates in the background.
+ * <p>
+ * All checks share one scheduled executor, which only triggers them; the appcasts
+ * are fetched asynchronously by the updater. Every delay is randomized by the
+ * configured jitter, so many clients started at the same time spread their requests.
+ * After failed checks the interval grows exponentially up to the max. interval.
+ * Listeners are notified whenever the status of a check or the offered version changes.
+ *
+ * @author Dino Tsoumakis
+ */
+public class UpdateScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(UpdateScheduler.class);
+    public static final long DEFAULT_INITIAL_DELAY = 60000;
+    public static final long DEFAULT_MAX_INTERVAL = 24 * 60 * 60 * 1000L;
+    public static final double DEFAULT_JITTER = 0.2;
+
+    private static final ScheduledExecutorService DEFAULT_SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "refuel-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Receives status changes of scheduled checks
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Called on the thread which completed the check
+         * @param check The check
+         * @param previous The previous status, null for the first one
+         * @param status The new status
+         */
+        void statusChanged(UpdateCheck check, UpdateStatus previous, UpdateStatus status);
+    }
+
+    private final Updater updater;
+    private final ScheduledExecutorService scheduler;
+    private final Map<UpdateCheck, Task> tasks = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    // Max. delay of the first check
+    volatile long initialDelay = DEFAULT_INITIAL_DELAY;
+    // Upper bound for the backoff after failed checks
+    volatile long maxInterval = DEFAULT_MAX_INTERVAL;
+    // Randomization of the delays, 0..1
+    volatile double jitter = DEFAULT_JITTER;
+
+    /**
+     * Create a scheduler using a shared daemon thread
+     * @param updater The updater checking the applications
+     */
+    public UpdateScheduler(Updater updater) {
+        this(updater, DEFAULT_SCHEDULER);
+    }
+
+    /**
+     * @param updater The updater checking the applications
+     * @param scheduler The executor triggering the checks, it is not shut down by this scheduler
+     */
+    public UpdateScheduler(Updater updater, ScheduledExecutorService scheduler) {
+        if (updater == null) {
+            throw new IllegalArgumentException("Updater cannot be null!");
+        }
+        if (scheduler == null) {
+            throw new IllegalArgumentException("Scheduler cannot be null!");
+        }
+        this.updater = updater;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Check the application periodically. Replaces an existing schedule of the same check.
+     *
+     * @param check The application to check
+     * @param interval The interval between two checks
+     * @param unit The unit of the interval
+     */
+    public void schedule(UpdateCheck check, long interval, TimeUnit unit) {
+        if (check == null) {
+            throw new IllegalArgumentException("Check cannot be null!");
+        }
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive!");
+        }
+        Task task = new Task(check, unit.toMillis(interval));
+        Task previous = tasks.put(check, task);
+        if (previous != null) {
+            previous.cancel();
+            task.status = previous.status;
+        }
+        long delay = (initialDelay > 0) ? ThreadLocalRandom.current().nextLong(initialDelay + 1) : 0;
+        LOG.debug("Scheduling update check of ''{}'' every {} ms, first in {} ms", check.getUpdateUrl(), task.interval, delay);
+        task.schedule(delay);
+    }
+
+    /**
+     * Stop checking the application
+     * @param check The application
+     * @return true if it was scheduled
+     */
+    public boolean cancel(UpdateCheck check) {
+        Task task = tasks.remove(check);
+        if (task != null) {
+            task.cancel();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stop all checks. The executor is not shut down.
+     */
+    public void cancelAll() {
+        tasks.keySet().forEach(this::cancel);
+    }
+
+    /**
+     * @param check The application
+     * @return The status of the last completed check, null if there is none
+     */
+    public UpdateStatus getStatus(UpdateCheck check) {
+        Task task = tasks.get(check);
+        return (task != null) ? task.status : null;
+    }
+
+    public void addListener(Listener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null!");
+        }
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    /**
+     * Set the max. delay of the first check in milliseconds.
+     * The actual delay is random between 0 and this value.
+     * @param initialDelay The delay, 0 to check immediately
+     */
+    public void setInitialDelay(long initialDelay) {
+        if (initialDelay < 0) {
+            throw new IllegalArgumentException("Initial delay cannot be negative!");
+        }
+        this.initialDelay = initialDelay;
+    }
+
+    public long getMaxInterval() {
+        return maxInterval;
+    }
+
+    /**
+     * Set the max. interval in milliseconds the backoff after failed checks grows to
+     * @param maxInterval The max. interval
+     */
+    public void setMaxInterval(long maxInterval) {
+        if (maxInterval <= 0) {
+            throw new IllegalArgumentException("Max. interval must be positive!");
+        }
+        this.maxInterval = maxInterval;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Set the randomization of the delays, e.g. 0.2 for +-20% of the interval
+     * @param jitter The jitter between 0 and 1
+     */
+    public void setJitter(double jitter) {
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Jitter must be between 0 and 1!");
+        }
+        this.jitter = jitter;
+    }
+
+    /**
+     * Get the delay before the next check
+     * @param interval The regular interval
+     * @param failures Number of consecutive failed checks
+     * @return The delay in milliseconds, without jitter
+     */
+    long getDelay(long interval, int failures) {
+        long delay = interval;
+        for (int i = 0; i < failures && delay < maxInterval; i++) {
+            delay *= 2;
+        }
+        return Math.max(interval, Math.min(delay, maxInterval));
+    }
+
+    private long randomize(long delay) {
+        double j = jitter;
+        if (j <= 0) {
+            return delay;
+        }
+        double factor = 1 - j + 2 * j * ThreadLocalRandom.current().nextDouble();
+        return Math.max(0, (long) (delay * factor));
+    }
+
+    /**
+     * Failed checks are backed off: appcast errors and unreachable servers
+     */
+    private static boolean isFailure(UpdateStatus status) {
+        return status.getStatus() == ApplicationStatus.FAILURE
+                || (status.getStatus() == ApplicationStatus.UNKNOWN && status.getUpdateTime() != null);
+    }
+
+    /**
+     * A new status, another offered version or other info is a change,
+     * e.g. a newer release while an update is already available
+     */
+    private static boolean isChanged(UpdateStatus previous, UpdateStatus status) {
+        return previous == null
+                || previous.getStatus() != status.getStatus()
+                || !Objects.equals(getVersion(previous), getVersion(status))
+                || !Objects.equals(previous.getInfo(), status.getInfo());
+    }
+
+    private static String getVersion(UpdateStatus status) {
+        Item item = status.getItem();
+        return (item != null && item.getEnclosure() != null) ? item.getEnclosure().getVersion() : null;
+    }
+
+    private void fireStatusChanged(UpdateCheck check, UpdateStatus previous, UpdateStatus status) {
+        for (Listener listener : listeners) {
+            try {
+                listener.statusChanged(check, previous, status);
+            } catch (RuntimeException ex) {
+                LOG.warn("Update listener failed: {}", ex.toString());
+            }
+        }
+    }
+
+    /**
+     * A scheduled check
+     */
+    private class Task implements Runnable {
+        final UpdateCheck check;
+        final long interval;
+        final AtomicInteger failures = new AtomicInteger();
+        volatile UpdateStatus status;
+        volatile boolean cancelled;
+        volatile ScheduledFuture<?> next;
+        volatile CompletableFuture<UpdateStatus> running;
+
+        Task(UpdateCheck check, long interval) {
+            this.check = check;
+            this.interval = interval;
+        }
+
+        void schedule(long delay) {
+            if (cancelled) {
+                return;
+            }
+            try {
+                next = scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                LOG.warn("Could not schedule update check of ''{}'': {}", check.getUpdateUrl(), ex.toString());
+            }
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            CompletableFuture<UpdateStatus> future = updater.checkApplicationStatusAsync(check.getLocalVersion(), check.getUpdateUrl());
+            running = future;
+            future.whenComplete((s, ex) -> completed(s));
+        }
+
+        void completed(UpdateStatus result) {
+            if (cancelled) {
+                return;
+            }
+            int failed;
+            if (result == null || isFailure(result)) {
+                failed = failures.incrementAndGet();
+            } else {
+                failures.set(0);
+                failed = 0;
+            }
+            if (result != null) {
+                UpdateStatus previous = status;
+                status = result;
+                if (isChanged(previous, result)) {
+                    fireStatusChanged(check, previous, result);
+                }
+            }
+            long delay = randomize(getDelay(interval, failed));
+            if (failed > 0) {
+                LOG.debug("Update check of ''{}'' failed {} times, next in {} ms", check.getUpdateUrl(), failed, delay);
+            }
+            schedule(delay);
+        }
+
+        void cancel() {
+            cancelled = true;
+            ScheduledFuture<?> n = next;
+            if (n != null) {
+                n.cancel(false);
+            }
+            CompletableFuture<UpdateStatus> r = running;
+            if (r != null) {
+                r.cancel(true);
+            }
+        }
+    }
+}
@@ -18,19 +18,32 @@ package de.dimaki.refuel.updater.boundary;
 import de.dimaki.refuel.appcast.boundary.AppcastManager;
 import de.dimaki.refuel.appcast.control.AppcastException;
 import de.dimaki.refuel.appcast.entity.Appcast;
+import de.dimaki.refuel.appcast.entity.Item;
+import de.dimaki.refuel.metrics.boundary.Metrics;
+import de.dimaki.refuel.metrics.control.Instrumentation;
 import de.dimaki.refuel.updater.control.VersionComparator;
+import de.dimaki.refuel.updater.control.ZipExtractor;
 import de.dimaki.refuel.updater.control.ZipHandler;
 import de.dimaki.refuel.updater.entity.ApplicationStatus;
+import de.dimaki.refuel.updater.entity.UpdateCheck;
+import de.dimaki.refuel.updater.entity.UpdateStatus;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.Proxy;
 import java.net.URL;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 import javax.script.Bindings;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
@@ -49,6 +62,10 @@ public class Updater {
     private static final String UPDATE_SCRIPT_SUFFIX = "-update.js";
 
     AppcastManager appcastManager;
+    ZipExtractor zipExtractor = new ZipExtractor();
+    VersionComparator versionComparator = new VersionComparator();
+    // The newest item of the appcast
+    private final Function<Appcast, Item> latest = (appcast) -> appcast.getLatestItem(versionComparator);
 
     public Updater() {
         try {
@@ -58,8 +75,50 @@ public class Updater {
         }
     }
 
+    /**
+     * Get the appcast manager used to fetch appcasts and download updates,
+     * e.g. to configure another appcast parser.
+     * @return The appcast manager
+     */
+    public AppcastManager getAppcastManager() {
+        return appcastManager;
+    }
+
+    public VersionComparator getVersionComparator() {
+        return versionComparator;
+    }
+
+    /**
+     * Set the comparator for local and remote versions,
+     * e.g. <code>new VersionComparator(VersionComparator.Mode.SEMANTIC)</code>
+     * @param versionComparator The comparator
+     */
+    public void setVersionComparator(VersionComparator versionComparator) {
+        if (versionComparator == null) {
+            throw new IllegalArgumentException("Version comparator cannot be null!");
+        }
+        this.versionComparator = versionComparator;
+    }
+
+    public ZipExtractor getZipExtractor() {
+        return zipExtractor;
+    }
+
+    /**
+     * Set the extractor for downloaded update packages
+     * @param zipExtractor The extractor
+     */
+    public void setZipExtractor(ZipExtractor zipExtractor) {
+        if (zipExtractor == null) {
+            throw new IllegalArgumentException("Zip extractor cannot be null!");
+        }
+        this.zipExtractor = zipExtractor;
+    }
+
     /**
      * Get the update status of the application specified.
+     * Note that the returned status constant is shared. Use
+     * {@link #checkApplicationStatus(String, URL)} for concurrent checks.
      *
      * @param localVersion The local version string, e.g. "2.0.1344"
      * @param updateUrl The update URL (Appcast URL)
@@ -71,6 +130,8 @@ public class Updater {
 
     /**
      * Get the update status of the application specified.
+     * Note that the returned status constant is shared. Use
+     * {@link #checkApplicationStatus(String, URL, Proxy, int, int)} for concurrent checks.
      *
      * @param localVersion The local version string, e.g. "2.0.1344"
      * @param updateUrl The update URL (Appcast URL)
@@ -85,6 +146,8 @@ public class Updater {
 
     /**
      * Get the update status of the application specified.
+     * Note that the returned status constant is shared. Use
+     * {@link #checkApplicationStatus(String, URL, Proxy, int, int, Map)} for concurrent checks.
      *
      * @param localVersion The local version string, e.g. "2.0.1344"
      * @param updateUrl The update URL (Appcast URL)
@@ -96,59 +159,287 @@ public class Updater {
      */
     public ApplicationStatus getApplicationStatus(String localVersion, final URL updateUrl, Proxy proxy, int connectTimeout, int readTimeout,
             Map<String, String> requestProperties) {
+        UpdateStatus result = checkApplicationStatus(localVersion, updateUrl, proxy, connectTimeout, readTimeout, requestProperties);
+        ApplicationStatus status = result.getStatus();
+        if (result.getUpdateTime() != null) {
+            status.setInfo(result.getInfo());
+            status.setUpdateTime(result.getUpdateTime());
+        }
+        if (result.getAppcast() != null) {
+            status.setAppcast(result.getAppcast());
+        }
+        return status;
+    }
+
+    /**
+     * Check the update status of the application specified.
+     * With the default timeouts and retry policy an unreachable host blocks for about 27s,
+     * see {@link AppcastManager#setRetryPolicy(de.dimaki.refuel.appcast.control.RetryPolicy)}.
+     *
+     * @param localVersion The local version string, e.g. "2.0.1344"
+     * @param updateUrl The update URL (Appcast URL)
+     * @return The result of this check
+     */
+    public UpdateStatus checkApplicationStatus(String localVersion, final URL updateUrl) {
+        return checkApplicationStatus(localVersion, updateUrl, null, AppcastManager.DEFAULT_CONNECT_TIMEOUT, AppcastManager.DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Check the update status of the application specified.
+     *
+     * @param localVersion The local version string, e.g. "2.0.1344"
+     * @param updateUrl The update URL (Appcast URL)
+     * @param proxy Proxy data
+     * @param connectTimeout The connect timeout in milliseconds
+     * @param readTimeout The read timeout in milliseconds
+     * @return The result of this check
+     */
+    public UpdateStatus checkApplicationStatus(String localVersion, final URL updateUrl, Proxy proxy, int connectTimeout, int readTimeout) {
+        return checkApplicationStatus(localVersion, updateUrl, proxy, connectTimeout, readTimeout, null);
+    }
+
+    /**
+     * Check the update status of the application specified.
+     * Safe to be called from parallel threads.
+     *
+     * @param localVersion The local version string, e.g. "2.0.1344"
+     * @param updateUrl The update URL (Appcast URL)
+     * @param proxy Proxy data
+     * @param connectTimeout The connect timeout in milliseconds
+     * @param readTimeout The read timeout in milliseconds
+     * @param requestProperties Optional request properties
+     * @return The result of this check
+     */
+    public UpdateStatus checkApplicationStatus(String localVersion, final URL updateUrl, Proxy proxy, int connectTimeout, int readTimeout,
+            Map<String, String> requestProperties) {
+        return checkApplicationStatus(localVersion, updateUrl, proxy, connectTimeout, readTimeout, requestProperties, latest);
+    }
+
+    /**
+     * Check the update status of the application specified for the given channel and system.
+     * The newest item compatible with the system is selected with the {@link Appcast#getIndex(java.util.Comparator) index}
+     * of the appcast, other checks use the newest item of any system. It is returned by {@link UpdateStatus#getItem()} and
+     * can be installed with {@link #update(Appcast, Item, Path, String, Path)}.
+     * Safe to be called from parallel threads.
+     *
+     * @param localVersion The local version string, e.g. "2.0.1344"
+     * @param updateUrl The update URL (Appcast URL)
+     * @param channel The channel, null for the default channel only
+     * @param os The operating system, null for items available on all systems only
+     * @param systemVersion The system version to check the minimum system version against, null to ignore it
+     * @return The result of this check
+     */
+    public UpdateStatus checkApplicationStatus(String localVersion, final URL updateUrl, String channel, String os, String systemVersion) {
+        return checkApplicationStatus(localVersion, updateUrl, null, AppcastManager.DEFAULT_CONNECT_TIMEOUT, AppcastManager.DEFAULT_READ_TIMEOUT,
+                null, (appcast) -> appcast.getIndex(versionComparator).getLatest(channel, os, systemVersion));
+    }
+
+    private UpdateStatus checkApplicationStatus(String localVersion, final URL updateUrl, Proxy proxy, int connectTimeout, int readTimeout,
+            Map<String, String> requestProperties, Function<Appcast, Item> selector) {
+        UpdateStatus status = precheck(localVersion, updateUrl);
+        if (status == null) {
+            // Fetch remote version
+            Appcast appcast = null;
+            Exception error = null;
+            try {
+                LOG.debug("Fetching appcast from update URL ''{}''...", updateUrl);
+                appcast = appcastManager.fetch(updateUrl, proxy, connectTimeout, readTimeout, requestProperties);
+            } catch (Exception ex) {
+                error = ex;
+            }
+            status = evaluateStatus(localVersion, appcast, error, selector);
+        }
+        return status;
+    }
+
+    /**
+     * Check the update status of the application specified asynchronously.
+     * The appcast is fetched on the executor of the appcast manager.
+     *
+     * @param localVersion The local version string, e.g. "2.0.1344"
+     * @param updateUrl The update URL (Appcast URL)
+     * @return The future result of this check
+     * @see AppcastManager#setExecutor(java.util.concurrent.Executor)
+     */
+    public CompletableFuture<UpdateStatus> checkApplicationStatusAsync(String localVersion, final URL updateUrl) {
+        return checkApplicationStatusAsync(localVersion, updateUrl, null, AppcastManager.DEFAULT_CONNECT_TIMEOUT, AppcastManager.DEFAULT_READ_TIMEOUT, null);
+    }
+
+    /**
+     * Check the update status of the application specified asynchronously.
+     * The appcast is fetched on the executor of the appcast manager.
+     * Cancelling the returned future aborts the appcast connection.
+     *
+     * @param localVersion The local version string, e.g. "2.0.1344"
+     * @param updateUrl The update URL (Appcast URL)
+     * @param proxy Proxy data
+     * @param connectTimeout The connect timeout in milliseconds
+     * @param readTimeout The read timeout in milliseconds
+     * @param requestProperties Optional request properties
+     * @return The future result of this check
+     * @see AppcastManager#setExecutor(java.util.concurrent.Executor)
+     */
+    public CompletableFuture<UpdateStatus> checkApplicationStatusAsync(String localVersion, final URL updateUrl, Proxy proxy,
+            int connectTimeout, int readTimeout, Map<String, String> requestProperties) {
+        UpdateStatus precheck = precheck(localVersion, updateUrl);
+        if (precheck != null) {
+            return CompletableFuture.completedFuture(precheck);
+        }
+        LOG.debug("Fetching appcast from update URL ''{}''...", updateUrl);
+        final CompletableFuture<Appcast> fetch = appcastManager.fetchAsync(updateUrl, proxy, connectTimeout, readTimeout, requestProperties);
+        final CompletableFuture<UpdateStatus> status = fetch.handle((appcast, ex) -> {
+            Throwable error = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+            return evaluateStatus(localVersion, appcast,
+                    (error == null || error instanceof Exception) ? (Exception) error : new Exception(error), latest);
+        });
+        status.whenComplete((s, ex) -> {
+            if (status.isCancelled()) {
+                fetch.cancel(true);
+            }
+        });
+        return status;
+    }
+
+    /**
+     * Check the update status of the application specified asynchronously.
+     *
+     * @param localVersion The local version string, e.g. "2.0.1344"
+     * @param updateUrl The update URL (Appcast URL)
+     * @return The future result of this check
+     * @deprecated Use {@link #checkApplicationStatusAsync(String, URL)}, the check* methods return an {@link UpdateStatus}
+     */
+    @Deprecated
+    public CompletableFuture<UpdateStatus> getApplicationStatusAsync(String localVersion, final URL updateUrl) {
+        return checkApplicationStatusAsync(localVersion, updateUrl);
+    }
+
+    /**
+     * Check the update status of the application specified asynchronously.
+     *
+     * @param localVersion The local version string, e.g. "2.0.1344"
+     * @param updateUrl The update URL (Appcast URL)
+     * @param proxy Proxy data
+     * @param connectTimeout The connect timeout in milliseconds
+     * @param readTimeout The read timeout in milliseconds
+     * @param requestProperties Optional request properties
+     * @return The future result of this check
+     * @deprecated Use {@link #checkApplicationStatusAsync(String, URL, Proxy, int, int, Map)}
+     */
+    @Deprecated
+    public CompletableFuture<UpdateStatus> getApplicationStatusAsync(String localVersion, final URL updateUrl, Proxy proxy,
+            int connectTimeout, int readTimeout, Map<String, String> requestProperties) {
+        return checkApplicationStatusAsync(localVersion, updateUrl, proxy, connectTimeout, readTimeout, requestProperties);
+    }
+
+    /**
+     * Check the update status of many applications.
+     * The appcasts are fetched in parallel, identical update URLs only once.
+     *
+     * @param checks The applications to check
+     * @param maxConcurrency Max. number of concurrent appcast fetches
+     * @param maxConnectionsPerHost Max. number of concurrent appcast fetches from the same host
+     * @return The result by application, in the order of the given checks
+     */
+    public Map<UpdateCheck, UpdateStatus> getApplicationStatuses(Collection<UpdateCheck> checks, int maxConcurrency, int maxConnectionsPerHost) {
+        List<URL> urls = new ArrayList<>();
+        checks.stream()
+                .filter((check) -> (precheck(check.getLocalVersion(), check.getUpdateUrl()) == null))
+                .forEach((check) -> urls.add(check.getUpdateUrl()));
+        LOG.debug("Fetching appcasts from {} update URLs...", urls.size());
+        Map<String, CompletableFuture<Appcast>> appcasts = appcastManager.fetchAll(urls, maxConcurrency, maxConnectionsPerHost);
+
+        Map<UpdateCheck, UpdateStatus> statuses = new LinkedHashMap<>();
+        for (UpdateCheck check : checks) {
+            UpdateStatus status = precheck(check.getLocalVersion(), check.getUpdateUrl());
+            if (status == null) {
+                Appcast appcast = null;
+                Exception error = null;
+                try {
+                    appcast = appcasts.get(check.getUpdateUrl().toExternalForm()).join();
+                } catch (CompletionException ex) {
+                    error = (ex.getCause() instanceof Exception) ? (Exception) ex.getCause() : ex;
+                }
+                status = evaluateStatus(check.getLocalVersion(), appcast, error, latest);
+            }
+            statuses.put(check, status);
+        }
+        return statuses;
+    }
+
+    /**
+     * Status for checks without a fetch
+     * @return The status or null if the appcast has to be fetched
+     */
+    private static UpdateStatus precheck(String localVersion, URL updateUrl) {
+        if (localVersion == null) {
+            // No version information about installed application!?
+            // Seems to be not installed at all
+            return new UpdateStatus(ApplicationStatus.NOT_INSTALLED, null, null, null);
+        }
+        if (localVersion.isEmpty() || updateUrl == null) {
+            return new UpdateStatus(ApplicationStatus.UNKNOWN, null, null, null);
+        }
+        return null;
+    }
+
+    /**
+     * @param selector Selects the item to compare the local version with
+     */
+    private UpdateStatus evaluateStatus(String localVersion, Appcast appcast, Exception error, Function<Appcast, Item> selector) {
         ApplicationStatus status = ApplicationStatus.UNKNOWN;
-        if (localVersion != null) {
-            if (!localVersion.isEmpty()) {
-                if (updateUrl != null) {
-                    // Fetch remote version
-                    String remoteVersion = null;
-                    try {
-                        LOG.debug("Fetching appcast from update URL ''{}''...", updateUrl);
-                        Appcast appcast = appcastManager.fetch(updateUrl, proxy, connectTimeout, readTimeout, requestProperties);
-                        if (appcast != null) {
-                            remoteVersion = appcast.getLatestVersion();
-                        }
-                        if (appcast == null || remoteVersion == null) {
-                            status = ApplicationStatus.FAILURE;
-                            status.setInfo("No version information found");
+        String info = null;
+        Appcast update = null;
+        Item item = null;
+        if (error instanceof AppcastException) {
+            AppcastException aex = (AppcastException) error;
+            LOG.warn("{} ''{}'': {} {}", aex.getMessage(), aex.getUrl(), aex.getStatus(), aex.getStatusInfo());
+            status = ApplicationStatus.FAILURE;
+            info = aex.getMessage() + " '" + aex.getUrl() + "': " + aex.getStatus() + " " + aex.getStatusInfo();
+        } else if (error != null) {
+            // Seems the be a network problem (e.g. no internet connection)
+            // Just log it, status should be unknown
+            info = error.getMessage();
+            LOG.warn("Could not connect to update server: {}", error.getMessage());
+        } else {
+            try {
+                String remoteVersion = null;
+                if (appcast != null) {
+                    item = selector.apply(appcast);
+                    if (item != null && item.getEnclosure() != null) {
+                        remoteVersion = item.getEnclosure().getVersion();
+                    }
+                }
+                if (item == null && appcast != null && appcast.getIndex(versionComparator).size() > 0) {
+                    // Versions are available, but not for this system
+                    status = ApplicationStatus.OK;
+                    info = "No compatible update available";
+                } else if (appcast == null || remoteVersion == null) {
+                    status = ApplicationStatus.FAILURE;
+                    info = "No version information found";
+                } else {
+                    int compare = versionComparator.compare(localVersion, remoteVersion);
+                    if (compare == 0) {
+                        status = ApplicationStatus.OK;
+                        info = "No update available";
+                    } else if (compare < 0) {
+                        status = ApplicationStatus.UPDATE_AVAILABLE;
+                        String shortVersionString = item.getEnclosure().getShortVersionString();
+                        if (shortVersionString != null && !shortVersionString.isEmpty()) {
+                            info = shortVersionString;
                         } else {
-                            VersionComparator vc = new VersionComparator();
-                            int compare = vc.compare(localVersion, remoteVersion);
-                            if (compare == 0) {
-                                status = ApplicationStatus.OK;
-                                status.setInfo("No update available");
-                            } else if (compare < 0) {
-                                status = ApplicationStatus.UPDATE_AVAILABLE;
-                            String shortVersionString = appcast.getLatestEnclosure().getShortVersionString();
-                                if (shortVersionString != null && !shortVersionString.isEmpty()) {
-                                    status.setInfo(shortVersionString);
-                                } else {
-                                    status.setInfo(remoteVersion);
-                                }
-                                status.setAppcast(appcast);
-                            } else if (compare > 0) {
-                                status = ApplicationStatus.OK;
-                            }
+                            info = remoteVersion;
                         }
-                    } catch (AppcastException aex) {
-                        LOG.warn("{} ''{}'': {} {}", aex.getMessage(), aex.getUrl(), aex.getStatus(), aex.getStatusInfo());
-                        status = ApplicationStatus.FAILURE;
-                        status.setInfo(aex.getMessage() + " '" + aex.getUrl() + "': " + aex.getStatus() + " " + aex.getStatusInfo());
-                    } catch (Exception ex) {
-                        // Seems the be a network problem (e.g. no internet connection)
-                        // Just log it, status should be unknown
-                        status.setInfo(ex.getMessage());
-                        LOG.warn("Could not connect to update server: {}", ex.getMessage());
+                        update = appcast;
+                    } else if (compare > 0) {
+                        status = ApplicationStatus.OK;
                     }
-                    status.setUpdateTime(new Date());
                 }
+            } catch (Exception ex) {
+                info = ex.getMessage();
+                LOG.warn("Could not connect to update server: {}", ex.getMessage());
             }
-        } else {
-            // No version information about installed application!?
-            // Seems to be not installed at all
-            status = ApplicationStatus.NOT_INSTALLED;
         }
-        return status;
+        return new UpdateStatus(status, info, new Date(), update, (update != null) ? item : null);
     }
 
     /**
@@ -160,21 +451,69 @@ public class Updater {
      * @throws Exception in case of an error
      */
     public Set<Path> update(Appcast appcast, Path targetDir) throws Exception {
-        Set<Path> files;
+        return update(appcast, targetDir, null, null);
+    }
+
+    /**
+     * Update with the given appcast information in the specified targetDir.
+     * Uses a delta update for the installed version if the appcast offers one.
+     *
+     * @param appcast The appcast content (containing the file to download)
+     * @param targetDir The target directory for downloaded update files
+     * @param localVersion The installed version, may be null
+     * @param localFile The installed file the delta updates are created for, may be null
+     * @return Updated files
+     * @throws Exception in case of an error
+     */
+    public Set<Path> update(Appcast appcast, Path targetDir, String localVersion, Path localFile) throws Exception {
         if (appcast == null) {
             throw new IllegalArgumentException("Appcast cannot be null!");
         }
         LOG.debug("Updating application ''{}''...", appcast.getTitle());
 
         // Download the update and verfiy it
-        Path downloaded = appcastManager.download(appcast, targetDir);
+        Item item = appcast.getLatestItem(versionComparator);
+        return install(appcast, (item != null) ? appcastManager.download(item, targetDir, localVersion, localFile) : null, targetDir);
+    }
+
+    /**
+     * Update to the given item of the appcast in the specified targetDir,
+     * e.g. the item selected by {@link #checkApplicationStatus(String, URL, String, String, String)}.
+     * Uses a delta update for the installed version if the item offers one.
+     *
+     * @param appcast The appcast content
+     * @param item The item to install
+     * @param targetDir The target directory for downloaded update files
+     * @param localVersion The installed version, may be null
+     * @param localFile The installed file the delta updates are created for, may be null
+     * @return Updated files
+     * @throws Exception in case of an error
+     */
+    public Set<Path> update(Appcast appcast, Item item, Path targetDir, String localVersion, Path localFile) throws Exception {
+        if (appcast == null) {
+            throw new IllegalArgumentException("Appcast cannot be null!");
+        }
+        if (item == null) {
+            throw new IllegalArgumentException("Item cannot be null!");
+        }
+        LOG.debug("Updating application ''{}'' with item ''{}''...", appcast.getTitle(), item.getTitle());
+
+        // Download the update and verfiy it
+        return install(appcast, appcastManager.download(item, targetDir, localVersion, localFile), targetDir);
+    }
+
+    /**
+     * Extract the downloaded update and run its update scripts
+     */
+    private Set<Path> install(Appcast appcast, Path downloaded, Path targetDir) throws Exception {
+        Set<Path> files;
         if (downloaded == null) {
             throw new Exception("Could not download update package for application '" + appcast.getTitle() + "'!");
         }
         LOG.debug("Downloaded update package ''{}''", downloaded);
 
-        // Unzip the update if required
-        files = ZipHandler.unzip(downloaded, targetDir, true);
+        // Unzip the update if required, reporting to the listener of the downloads
+        files = ZipHandler.unzip(downloaded, targetDir, true, zipExtractor, appcastManager.getProgressListener());
         LOG.debug("Extracted files: {}", files);
 
         // Check if there is an update script available and execute it if so
@@ -200,9 +539,11 @@ public class Updater {
             engine.setBindings(b, ScriptContext.ENGINE_SCOPE);
 
             FileReader fr = null;
+            long start = System.nanoTime();
             try {
                 fr = new FileReader(filePath.toFile());
                 engine.eval(fr);
+                Metrics.get().recordTime(Instrumentation.UPDATE_SCRIPT, System.nanoTime() - start);
             } catch (FileNotFoundException | ScriptException ex) {
                 LOG.error("Could not evaluate update script file ''{}''!", filePath, ex);
             } finally {
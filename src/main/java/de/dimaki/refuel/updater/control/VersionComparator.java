@@ -15,70 +15,112 @@
  */
 package de.dimaki.refuel.updater.control;
 
+import de.dimaki.refuel.updater.entity.Version;
 import java.util.Comparator;
 
 /**
+ * Compares version strings.
+ * <p>
+ * In {@link Mode#LEGACY} mode (default) the versions are compared component by
+ * component. Non-numeric components are ignored, versions without qualifier are
+ * newer than versions with qualifier, any two qualifiers are equal.
+ * The versions are parsed once and cached, see {@link Version#parse(String)}.
+ * <p>
+ * In {@link Mode#SEMANTIC} mode the versions are compared like SemVer:
+ * <ul>
+ * <li>Numeric components of any length, missing components are 0 ("1.0" == "1.0.0")</li>
+ * <li>A pre-release (after '-' or a letter, e.g. "1.0-beta.2", "1.0rc1") is older than the release</li>
+ * <li>Pre-release identifiers are separated by '.', '-' and changes between digits and letters,
+ * numeric identifiers are compared numerically and are older than words</li>
+ * <li>Known qualifiers are ordered dev &lt; alpha &lt; beta &lt; milestone &lt; rc &lt; snapshot &lt; other words &lt; release,
+ * "ga", "final" and "release" are the same as no qualifier</li>
+ * <li>Build metadata after '+' and a leading 'v' are ignored</li>
+ * </ul>
+ * The strings are compared in a single pass without allocating.
  *
  * @author Dino Tsoumakis
  */
 public class VersionComparator implements Comparator<String> {
 
-    private static final String VERSION_SEPARATOR = "\\.";
-    private static final String QUALIFIER_SEPARATOR = "-";
-
-    @Override
-    public int compare(String localVersion, String remoteVersion) {
+    public enum Mode {
+        LEGACY,
+        SEMANTIC
+    }
 
-        String local = null;
-        String qualifierLocal = null;
-        String remote = null;
-        String qualifierRemote = null;
+    // Ranks of pre-release identifiers
+    private static final int NUMERIC = -1;
+    private static final int DEV = 0;
+    private static final int ALPHA = 1;
+    private static final int BETA = 2;
+    private static final int MILESTONE = 3;
+    private static final int RC = 4;
+    private static final int SNAPSHOT = 5;
+    private static final int OTHER = 6;
+    private static final int RELEASE = 7;
 
+    private final Mode mode;
 
-        int qualifierIndexLocal = localVersion.indexOf(QUALIFIER_SEPARATOR);
-        int qualifierIndexRemote = remoteVersion.indexOf(QUALIFIER_SEPARATOR);
+    public VersionComparator() {
+        this(Mode.LEGACY);
+    }
 
-        if (qualifierIndexLocal > 0) {
-            qualifierLocal = localVersion.substring( qualifierIndexLocal + 1 );
-            local = localVersion.substring(0, qualifierIndexLocal);
-        } else {
-            local = localVersion;
+    /**
+     * @param mode The comparison mode
+     */
+    public VersionComparator(Mode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("Mode cannot be null!");
         }
+        this.mode = mode;
+    }
 
-        if (qualifierIndexRemote > 0) {
-            qualifierRemote = remoteVersion.substring(qualifierIndexRemote + 1);
-            remote = remoteVersion.substring(0, qualifierIndexRemote);
-        } else {
-            remote = remoteVersion;
-        }
+    public Mode getMode() {
+        return mode;
+    }
 
-        String[] p1 = local.split(VERSION_SEPARATOR);
-        String[] p2 = remote.split(VERSION_SEPARATOR);
+    @Override
+    public int compare(String localVersion, String remoteVersion) {
+        if (mode == Mode.SEMANTIC) {
+            return compareSemantic(localVersion, remoteVersion);
+        }
+        return compare(Version.parse(localVersion), Version.parse(remoteVersion));
+    }
 
-        int n = Math.min(p1.length, p2.length);
+    /**
+     * Compare parsed versions, without allocating
+     * @param local The local version
+     * @param remote The remote version
+     * @return A negative number if the local version is older, 0 if equal, a positive number if newer
+     */
+    public int compare(Version local, Version remote) {
+        if (mode == Mode.SEMANTIC) {
+            return compareSemantic(local.getText(), remote.getText());
+        }
+        int n1 = local.getComponentCount();
+        int n2 = remote.getComponentCount();
+        int n = Math.min(n1, n2);
         for (int i = 0; i < n; i++) {
-            try {
-                int a1 = Integer.parseInt(p1[i]);
-                int a2 = Integer.parseInt(p2[i]);
+            long a1 = local.getComponent(i);
+            long a2 = remote.getComponent(i);
+            // Handle NaN errors
+            if (a1 != Version.INVALID && a2 != Version.INVALID) {
                 if (a1 < a2) {
                     return -1;
                 } else if (a1 > a2) {
                     return 1;
                 }
-            } catch (NumberFormatException nfe) {
-                // Handle NaN errors
             }
         }
 
         // different length
-        if (Math.max(p1.length, p2.length) > n) {
-            if (p1.length > p2.length) {
-                return 1;
-            } else if (p1.length < p2.length) {
-                return -1;
-            }
+        if (n1 > n2) {
+            return 1;
+        } else if (n1 < n2) {
+            return -1;
         }
 
+        String qualifierLocal = local.getQualifier();
+        String qualifierRemote = remote.getQualifier();
         if (qualifierLocal != null) {
             if (qualifierRemote == null || qualifierRemote.isEmpty()) {
                 // Version without qualifiers always win
@@ -93,4 +135,210 @@ public class VersionComparator implements Comparator<String> {
 
         return 0;
     }
+
+    private static int compareSemantic(String localVersion, String remoteVersion) {
+        Scanner local = new Scanner(localVersion);
+        Scanner remote = new Scanner(remoteVersion);
+
+        // Main components, missing ones are 0
+        while (true) {
+            boolean l = local.nextComponent();
+            boolean r = remote.nextComponent();
+            if (!l && !r) {
+                break;
+            }
+            int c = compareNumbers(local, l, remote, r);
+            if (c != 0) {
+                return c;
+            }
+        }
+
+        // Pre-release identifiers, no pre-release is the release
+        boolean l = local.nextIdentifier();
+        boolean r = remote.nextIdentifier();
+        if (!l && !r) {
+            return 0;
+        }
+        int c = compareIdentifiers(local, l ? local.rank() : RELEASE, remote, r ? remote.rank() : RELEASE);
+        while (c == 0) {
+            l = local.nextIdentifier();
+            r = remote.nextIdentifier();
+            if (!l && !r) {
+                return 0;
+            } else if (!l) {
+                // Fewer identifiers are older
+                return -1;
+            } else if (!r) {
+                return 1;
+            }
+            c = compareIdentifiers(local, local.rank(), remote, remote.rank());
+        }
+        return c;
+    }
+
+    private static int compareIdentifiers(Scanner local, int localRank, Scanner remote, int remoteRank) {
+        if (localRank != remoteRank) {
+            return (localRank < remoteRank) ? -1 : 1;
+        }
+        if (localRank == NUMERIC) {
+            return compareNumbers(local, true, remote, true);
+        } else if (localRank == OTHER) {
+            return compareIgnoreCase(local, remote);
+        }
+        return 0;
+    }
+
+    /**
+     * Compare the current numeric tokens, a missing token is 0
+     */
+    private static int compareNumbers(Scanner local, boolean hasLocal, Scanner remote, boolean hasRemote) {
+        int ls = hasLocal ? local.skipZeros() : 0;
+        int rs = hasRemote ? remote.skipZeros() : 0;
+        int ll = hasLocal ? local.end - ls : 0;
+        int rl = hasRemote ? remote.end - rs : 0;
+        if (ll != rl) {
+            return (ll < rl) ? -1 : 1;
+        }
+        for (int i = 0; i < ll; i++) {
+            char lc = local.text.charAt(ls + i);
+            char rc = remote.text.charAt(rs + i);
+            if (lc != rc) {
+                return (lc < rc) ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    private static int compareIgnoreCase(Scanner local, Scanner remote) {
+        int ll = local.end - local.start;
+        int rl = remote.end - remote.start;
+        int n = Math.min(ll, rl);
+        for (int i = 0; i < n; i++) {
+            char lc = Character.toLowerCase(local.text.charAt(local.start + i));
+            char rc = Character.toLowerCase(remote.text.charAt(remote.start + i));
+            if (lc != rc) {
+                return (lc < rc) ? -1 : 1;
+            }
+        }
+        return Integer.compare(ll, rl);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '.' || c == '-' || c == '_';
+    }
+
+    /**
+     * Reads the tokens of a version string: first the numeric main components,
+     * then the pre-release identifiers
+     */
+    private static final class Scanner {
+        final String text;
+        final int length;
+        int pos;
+        boolean preRelease;
+        // Current token
+        int start;
+        int end;
+        boolean numeric;
+
+        Scanner(String text) {
+            this.text = text;
+            int plus = text.indexOf('+');
+            this.length = (plus >= 0) ? plus : text.length();
+            if (length > 1 && (text.charAt(0) == 'v' || text.charAt(0) == 'V') && isDigit(text.charAt(1))) {
+                pos = 1;
+            }
+        }
+
+        /**
+         * Read the next main component
+         * @return false if there are no more main components
+         */
+        boolean nextComponent() {
+            if (preRelease || pos >= length) {
+                return false;
+            }
+            if (!isDigit(text.charAt(pos))) {
+                preRelease = true;
+                return false;
+            }
+            start = pos;
+            while (pos < length && isDigit(text.charAt(pos))) {
+                pos++;
+            }
+            end = pos;
+            numeric = true;
+            if (pos < length) {
+                if (text.charAt(pos) == '.' && pos + 1 < length && isDigit(text.charAt(pos + 1))) {
+                    pos++;
+                } else {
+                    preRelease = true;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Read the next pre-release identifier
+         * @return false if there are no more identifiers
+         */
+        boolean nextIdentifier() {
+            while (pos < length && isSeparator(text.charAt(pos))) {
+                pos++;
+            }
+            if (pos >= length) {
+                return false;
+            }
+            start = pos;
+            numeric = isDigit(text.charAt(pos));
+            while (pos < length && !isSeparator(text.charAt(pos)) && isDigit(text.charAt(pos)) == numeric) {
+                pos++;
+            }
+            end = pos;
+            return true;
+        }
+
+        /**
+         * @return Start of the current numeric token without leading zeros, end if it is 0
+         */
+        int skipZeros() {
+            int i = start;
+            while (i < end && text.charAt(i) == '0') {
+                i++;
+            }
+            return i;
+        }
+
+        /**
+         * @return The rank of the current identifier
+         */
+        int rank() {
+            if (numeric) {
+                return NUMERIC;
+            } else if (is("alpha")) {
+                return ALPHA;
+            } else if (is("beta")) {
+                return BETA;
+            } else if (is("milestone")) {
+                return MILESTONE;
+            } else if (is("rc") || is("cr")) {
+                return RC;
+            } else if (is("snapshot")) {
+                return SNAPSHOT;
+            } else if (is("dev")) {
+                return DEV;
+            } else if (is("ga") || is("final") || is("release")) {
+                return RELEASE;
+            }
+            return OTHER;
+        }
+
+        private boolean is(String word) {
+            return end - start == word.length() && text.regionMatches(true, start, word, 0, word.length());
+        }
+    }
 }
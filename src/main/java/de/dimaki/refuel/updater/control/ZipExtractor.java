@@ -0,0 +1,345 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.updater.control;
+
+import de.dimaki.refuel.appcast.control.ProgressListener;
+import de.dimaki.refuel.appcast.control.ProgressTracker;
+import de.dimaki.refuel.appcast.entity.TransferProgress;
+import de.dimaki.refuel.metrics.boundary.Metrics;
+import de.dimaki.refuel.metrics.control.Instrumentation;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Extracts zip files in parallel.
+ * The entries are read from the central directory of the zip file and
+ * extracted on a fork-join pool, each thread using its own buffer.
+ * <p>
+ * In incremental mode, files in the target directory having the same size
+ * and CRC32 as the zip entry are not written again. With the manifest enabled,
+ * the CRCs of the extracted files are stored in the target directory, so
+ * files not modified since do not have to be read again.
+ *
+ * @author Dino Tsoumakis
+ */
+public class ZipExtractor {
+    private static final Logger LOG = LoggerFactory.getLogger(ZipExtractor.class);
+
+    public static final int BUFFER_SIZE = 64 * 1024;
+    public static final String MANIFEST_FILE = ".refuel-manifest";
+    // Min. number of entries to split the work
+    private static final int THRESHOLD = 8;
+
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private final ForkJoinPool pool;
+    // Skip unchanged files
+    private volatile boolean incremental = false;
+    // Persist the CRCs of the extracted files
+    private volatile boolean manifestEnabled = false;
+
+    /**
+     * Create an extractor using the common fork-join pool
+     */
+    public ZipExtractor() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool The pool to extract the entries on
+     */
+    public ZipExtractor(ForkJoinPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool cannot be null!");
+        }
+        this.pool = pool;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Skip files that are already present with the same content
+     * @param incremental true to compare size and CRC32 of existing files, default is false
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public boolean isManifestEnabled() {
+        return manifestEnabled;
+    }
+
+    /**
+     * Keep a manifest of the extracted files in the target directory.
+     * In incremental mode, existing files with the recorded size and modification
+     * time are compared with the recorded CRC instead of being read again.
+     * @param manifestEnabled true to use the manifest file, default is false
+     */
+    public void setManifestEnabled(boolean manifestEnabled) {
+        this.manifestEnabled = manifestEnabled;
+    }
+
+    /**
+     * Extract all entries of the zip file into the target directory.
+     * Existing files are replaced, unless unchanged in incremental mode.
+     *
+     * @param zipFile The zip file
+     * @param targetDir The target directory
+     * @return The files of the zip file, including unchanged files skipped in incremental mode
+     * @throws IOException in case of an error or if an entry would be extracted outside the target directory
+     */
+    public Set<Path> extract(Path zipFile, Path targetDir) throws IOException {
+        return extract(zipFile, targetDir, null);
+    }
+
+    /**
+     * Extract all entries of the zip file into the target directory and report the progress.
+     * Existing files are replaced, unless unchanged in incremental mode.
+     *
+     * @param zipFile The zip file
+     * @param targetDir The target directory
+     * @param listener Listener for the progress by uncompressed bytes, may be null
+     * @return The files of the zip file, including unchanged files skipped in incremental mode
+     * @throws IOException in case of an error or if an entry would be extracted outside the target directory
+     */
+    public Set<Path> extract(Path zipFile, Path targetDir, ProgressListener listener) throws IOException {
+        final Instrumentation metrics = Metrics.get();
+        final long start = System.nanoTime();
+        final Set<Path> extractedFiles = ConcurrentHashMap.newKeySet();
+        final Path root = targetDir.normalize();
+        final Path manifestFile = root.resolve(MANIFEST_FILE);
+        final Map<String, String> manifest = new ConcurrentHashMap<>();
+        if (manifestEnabled) {
+            manifest.putAll(readManifest(manifestFile));
+        }
+        final AtomicInteger skipped = new AtomicInteger();
+        try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+            // Create all directories first, the files can then be written independently
+            final List<ZipEntry> files = new ArrayList<>();
+            final List<Path> targets = new ArrayList<>();
+            long total = 0;
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                Path target = resolve(root, entry.getName());
+                if (entry.isDirectory()) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.createDirectories(target.getParent());
+                    files.add(entry);
+                    targets.add(target);
+                    total += Math.max(0, entry.getSize());
+                }
+            }
+            final ProgressTracker tracker = (listener != null) ? new ProgressTracker(zipFile.toString(), total, listener) : null;
+            if (tracker != null) {
+                tracker.phase(TransferProgress.Phase.EXTRACT);
+            }
+
+            try {
+                pool.invoke(new ExtractTask(files, targets, 0, files.size(), (entry, target) -> {
+                    String key = root.relativize(target).toString().replace('\\', '/');
+                    if (incremental && isUnchanged(entry, target, manifest.get(key))) {
+                        skipped.incrementAndGet();
+                        if (tracker != null) {
+                            tracker.add(entry.getSize());
+                        }
+                    } else {
+                        long time = System.nanoTime();
+                        extract(zip, entry, target, tracker);
+                        metrics.recordTime(Instrumentation.UNZIP_ENTRY, System.nanoTime() - time);
+                    }
+                    extractedFiles.add(target);
+                    if (manifestEnabled && entry.getCrc() != -1) {
+                        manifest.put(key, entry.getSize() + "," + entry.getCrc() + "," + Files.getLastModifiedTime(target).toMillis());
+                    }
+                }));
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+            if (tracker != null) {
+                tracker.phase(TransferProgress.Phase.DONE);
+            }
+        }
+        if (manifestEnabled) {
+            writeManifest(manifestFile, manifest);
+        }
+        metrics.recordTime(Instrumentation.UNZIP_TOTAL, System.nanoTime() - start);
+        if (incremental) {
+            LOG.debug("Extracted {} of {} files, {} unchanged", extractedFiles.size() - skipped.get(), extractedFiles.size(), skipped.get());
+        }
+        return new HashSet<>(extractedFiles);
+    }
+
+    /**
+     * Resolve the entry name against the target directory, rejecting names leaving it ("zip slip")
+     */
+    static Path resolve(Path root, String entryName) throws IOException {
+        String name = entryName.replace('\\', '/');
+        while (name.startsWith("/")) {
+            name = name.substring(1);
+        }
+        Path target = root.resolve(name).normalize();
+        if (!target.startsWith(root) || target.equals(root)) {
+            throw new IOException("Invalid zip entry '" + entryName + "' outside of target directory");
+        }
+        return target;
+    }
+
+    /**
+     * Check if the existing file has the same size and CRC32 as the entry
+     * @param record The manifest record of the file, may be null
+     */
+    static boolean isUnchanged(ZipEntry entry, Path target, String record) throws IOException {
+        if (entry.getSize() < 0 || entry.getCrc() == -1 || !Files.isRegularFile(target)
+                || Files.size(target) != entry.getSize()) {
+            return false;
+        }
+        if (record != null) {
+            String[] values = record.split(",");
+            try {
+                if (values.length == 3 && Long.parseLong(values[0]) == entry.getSize()
+                        && Long.parseLong(values[2]) == Files.getLastModifiedTime(target).toMillis()) {
+                    // Not modified since it was recorded
+                    return Long.parseLong(values[1]) == entry.getCrc();
+                }
+            } catch (NumberFormatException ex) {
+                // Invalid record, compute the CRC
+            }
+        }
+        CRC32 crc = new CRC32();
+        byte[] buffer = BUFFER.get();
+        try (InputStream is = Files.newInputStream(target)) {
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue() == entry.getCrc();
+    }
+
+    private static void extract(ZipFile zip, ZipEntry entry, Path target, ProgressTracker tracker) throws IOException {
+        byte[] buffer = BUFFER.get();
+        try (InputStream is = zip.getInputStream(entry); OutputStream os = Files.newOutputStream(target)) {
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                os.write(buffer, 0, read);
+                if (tracker != null) {
+                    tracker.add(read);
+                }
+            }
+        }
+    }
+
+    private static Map<String, String> readManifest(Path manifestFile) {
+        Properties p = new Properties();
+        if (Files.isRegularFile(manifestFile)) {
+            try (Reader r = Files.newBufferedReader(manifestFile, StandardCharsets.UTF_8)) {
+                p.load(r);
+            } catch (IOException | IllegalArgumentException ex) {
+                LOG.warn("Ignoring invalid manifest ''{}'': {}", manifestFile, ex.getMessage());
+                p.clear();
+            }
+        }
+        Map<String, String> manifest = new ConcurrentHashMap<>();
+        for (String key : p.stringPropertyNames()) {
+            manifest.put(key, p.getProperty(key));
+        }
+        return manifest;
+    }
+
+    private static void writeManifest(Path manifestFile, Map<String, String> manifest) throws IOException {
+        Properties p = new Properties();
+        p.putAll(manifest);
+        Path tmpFile = manifestFile.resolveSibling(MANIFEST_FILE + ".part");
+        try (Writer w = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+            p.store(w, null);
+        }
+        Files.move(tmpFile, manifestFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Action on a single zip entry
+     */
+    private interface EntryAction {
+        void apply(ZipEntry entry, Path target) throws IOException;
+    }
+
+    private static class ExtractTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient List<ZipEntry> files;
+        private final transient List<Path> targets;
+        private final transient EntryAction action;
+        private final int from;
+        private final int to;
+
+        ExtractTask(List<ZipEntry> files, List<Path> targets, int from, int to, EntryAction action) {
+            this.files = files;
+            this.targets = targets;
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ExtractTask(files, targets, from, mid, action),
+                        new ExtractTask(files, targets, mid, to, action));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                try {
+                    action.apply(files.get(i), targets.get(i));
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        }
+    }
+}
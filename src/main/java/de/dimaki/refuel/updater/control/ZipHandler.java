@@ -15,16 +15,9 @@
  */
 package de.dimaki.refuel.updater.control;
 
-import java.io.IOException;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
-import java.nio.file.FileVisitResult;
+import de.dimaki.refuel.appcast.control.ProgressListener;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.StandardCopyOption;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashSet;
 import java.util.Set;
 import org.slf4j.Logger;
@@ -37,8 +30,8 @@ import org.slf4j.LoggerFactory;
 public class ZipHandler {
 
     private static final Logger LOG = LoggerFactory.getLogger(ZipHandler.class);
-    private static final String ROOT_PATH = "/";
     private static final String ZIP_EXTENSION = ".zip";
+    private static final ZipExtractor DEFAULT_EXTRACTOR = new ZipExtractor();
 
     /**
      * Hide constructor
@@ -48,36 +41,46 @@ public class ZipHandler {
     }
 
     public static Set<Path> unzip(final Path zipFile, final Path targetDir, final boolean deleteAfterUnzip) throws Exception {
-        final HashSet<Path> extractedFiles = new HashSet<>();
-        if (zipFile != null && zipFile.toString().endsWith(ZIP_EXTENSION)) {
-            try (FileSystem zipFileSystem = FileSystems.newFileSystem(zipFile, null)) {
-                Path root = zipFileSystem.getPath(ROOT_PATH);
+        return unzip(zipFile, targetDir, deleteAfterUnzip, DEFAULT_EXTRACTOR);
+    }
 
-                // Process each file within the zip file
-                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
-                    @Override
-                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                        Path destFile = Paths.get(targetDir.toString(), file.toString());
-                        extractedFiles.add(Files.copy(file, destFile, StandardCopyOption.REPLACE_EXISTING));
-                        return FileVisitResult.CONTINUE;
-                    }
+    /**
+     * Unzip the given file into the target directory, if it is a zip file
+     *
+     * @param zipFile The file to unzip
+     * @param targetDir The target directory
+     * @param deleteAfterUnzip If true, the zip file is deleted after extraction
+     * @param extractor The extractor to use
+     * @return The extracted files, or the given file itself if it is no zip file
+     * @throws Exception in case of an error
+     */
+    public static Set<Path> unzip(final Path zipFile, final Path targetDir, final boolean deleteAfterUnzip, ZipExtractor extractor) throws Exception {
+        return unzip(zipFile, targetDir, deleteAfterUnzip, extractor, null);
+    }
 
-                    @Override
-                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                        final Path dirToCreate = Paths.get(targetDir.toString(), dir.toString());
-                        if (Files.notExists(dirToCreate)) {
-                            Files.createDirectory(dirToCreate);
-                        }
-                        return FileVisitResult.CONTINUE;
-                    }
-                });
-            }
+    /**
+     * Unzip the given file into the target directory, if it is a zip file
+     *
+     * @param zipFile The file to unzip
+     * @param targetDir The target directory
+     * @param deleteAfterUnzip If true, the zip file is deleted after extraction
+     * @param extractor The extractor to use
+     * @param listener Listener for the extraction progress, may be null
+     * @return The extracted files, or the given file itself if it is no zip file
+     * @throws Exception in case of an error
+     */
+    public static Set<Path> unzip(final Path zipFile, final Path targetDir, final boolean deleteAfterUnzip, ZipExtractor extractor,
+            ProgressListener listener) throws Exception {
+        final Set<Path> extractedFiles;
+        if (zipFile != null && zipFile.toString().endsWith(ZIP_EXTENSION)) {
+            extractedFiles = extractor.extract(zipFile, targetDir, listener);
             if (deleteAfterUnzip) {
                 LOG.debug("Deleting zip file ''{}''", zipFile);
                 Files.deleteIfExists(zipFile);
             }
         } else {
             LOG.debug("No zip file ''{}''!", zipFile);
+            extractedFiles = new HashSet<>();
             extractedFiles.add(zipFile);
         }
         return extractedFiles;
@@ -19,6 +19,9 @@ import de.dimaki.refuel.appcast.entity.Appcast;
 import java.util.Date;
 
 /**
+ * Update status of an application.
+ * The info, update time and appcast of a constant are shared between all checks
+ * and are only kept for compatibility, see {@link UpdateStatus} for the result of a single check.
  *
  * @author Dino Tsoumakis
  */
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.updater.entity;
+
+import java.net.URL;
+import java.util.Objects;
+
+/**
+ * An application to be checked for updates: local version and update URL.
+ *
+ * @author Dino Tsoumakis
+ */
+public final class UpdateCheck {
+
+    private final String localVersion;
+    private final URL updateUrl;
+
+    /**
+     * @param localVersion The local version string, e.g. "2.0.1344", null if not installed
+     * @param updateUrl The update URL (Appcast URL)
+     */
+    public UpdateCheck(String localVersion, URL updateUrl) {
+        this.localVersion = localVersion;
+        this.updateUrl = updateUrl;
+    }
+
+    public String getLocalVersion() {
+        return localVersion;
+    }
+
+    public URL getUpdateUrl() {
+        return updateUrl;
+    }
+
+    @Override
+    public int hashCode() {
+        // Do not use URL.hashCode(), it resolves the host
+        return Objects.hash(localVersion, updateUrl == null ? null : updateUrl.toExternalForm());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof UpdateCheck)) {
+            return false;
+        }
+        UpdateCheck other = (UpdateCheck) obj;
+        return Objects.equals(localVersion, other.localVersion)
+                && Objects.equals(updateUrl == null ? null : updateUrl.toExternalForm(),
+                        other.updateUrl == null ? null : other.updateUrl.toExternalForm());
+    }
+
+    @Override
+    public String toString() {
+        return "UpdateCheck {localVersion=" + localVersion + ", updateUrl=" + updateUrl + '}';
+    }
+}
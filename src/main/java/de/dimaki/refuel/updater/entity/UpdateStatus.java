@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.updater.entity;
+
+import de.dimaki.refuel.appcast.entity.Appcast;
+import de.dimaki.refuel.appcast.entity.Item;
+import java.util.Date;
+
+/**
+ * Immutable result of a single update check.
+ * Unlike the {@link ApplicationStatus} constants it is not shared between checks,
+ * so it is safe to be used from parallel threads. The appcast and the item of the
+ * update are only referenced if an update is available.
+ *
+ * @author Dino Tsoumakis
+ */
+public final class UpdateStatus {
+
+    private final ApplicationStatus status;
+    private final String info;
+    private final long updateTime;
+    private final Appcast appcast;
+    private final Item item;
+
+    /**
+     * @param status The status code
+     * @param info Additional information, may be null
+     * @param updateTime Time of the check, null if no check was performed
+     * @param appcast The appcast for an available update, may be null
+     */
+    public UpdateStatus(ApplicationStatus status, String info, Date updateTime, Appcast appcast) {
+        this(status, info, updateTime, appcast, null);
+    }
+
+    /**
+     * @param status The status code
+     * @param info Additional information, may be null
+     * @param updateTime Time of the check, null if no check was performed
+     * @param appcast The appcast for an available update, may be null
+     * @param item The item of the available update, may be null
+     */
+    public UpdateStatus(ApplicationStatus status, String info, Date updateTime, Appcast appcast, Item item) {
+        if (status == null) {
+            throw new IllegalArgumentException("Status cannot be null!");
+        }
+        this.status = status;
+        this.info = info;
+        this.updateTime = (updateTime != null) ? updateTime.getTime() : -1;
+        this.appcast = appcast;
+        this.item = item;
+    }
+
+    public ApplicationStatus getStatus() {
+        return status;
+    }
+
+    public String getInfo() {
+        return info;
+    }
+
+    /**
+     * @return Time of the check, null if no check was performed
+     */
+    public Date getUpdateTime() {
+        return (updateTime >= 0) ? new Date(updateTime) : null;
+    }
+
+    /**
+     * @return The appcast of the available update, null otherwise
+     */
+    public Appcast getAppcast() {
+        return appcast;
+    }
+
+    /**
+     * @return The item of the available update, null otherwise
+     */
+    public Item getItem() {
+        return item;
+    }
+
+    @Override
+    public String toString() {
+        return status.name() + " {info=" + info + ", updateTime=" + getUpdateTime() + '}';
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2014 Dino Tsoumakis.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.dimaki.refuel.updater.entity;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A parsed version string, e.g. "2.0.4711-SNAPSHOT": the numeric components
+ * separated by '.' and an optional qualifier after the first '-'.
+ * <p>
+ * Components that are no valid int are kept as {@link #INVALID} and ignored
+ * by the {@link de.dimaki.refuel.updater.control.VersionComparator}.
+ * Instances are immutable, parsed versions are cached.
+ *
+ * @author Dino Tsoumakis
+ */
+public final class Version {
+
+    /** Marker of a non-numeric component */
+    public static final long INVALID = Long.MIN_VALUE;
+
+    private static final int CACHE_SIZE = 4096;
+    private static final ConcurrentMap<String, Version> CACHE = new ConcurrentHashMap<>();
+
+    private final String text;
+    private final long[] components;
+    private final String qualifier;
+
+    private Version(String text, long[] components, String qualifier) {
+        this.text = text;
+        this.components = components;
+        this.qualifier = qualifier;
+    }
+
+    /**
+     * Get the parsed version, from the cache if possible
+     * @param text The version string
+     * @return The version
+     */
+    public static Version parse(String text) {
+        Version version = CACHE.get(text);
+        if (version == null) {
+            version = create(text);
+            if (CACHE.size() >= CACHE_SIZE) {
+                // Simple bound, versions are cheap to parse again
+                CACHE.clear();
+            }
+            CACHE.putIfAbsent(text, version);
+        }
+        return version;
+    }
+
+    /**
+     * Parse the version string in a single pass.
+     * The result is the same as splitting it with <code>String.split("\\.")</code>
+     * and <code>Integer.parseInt</code> on each part, trailing empty parts are dropped.
+     */
+    static Version create(String text) {
+        int end = text.indexOf('-');
+        String qualifier = null;
+        if (end > 0) {
+            qualifier = text.substring(end + 1).intern();
+        } else {
+            end = text.length();
+        }
+
+        // Count the components first
+        int count = 1;
+        int last = end;
+        while (last > 0 && text.charAt(last - 1) == '.') {
+            last--;
+        }
+        for (int i = 0; i < last; i++) {
+            if (text.charAt(i) == '.') {
+                count++;
+            }
+        }
+        if (last == 0) {
+            // Only separators (no component) or no separator at all (one empty component)
+            count = (end == 0) ? 1 : 0;
+        }
+
+        long[] components = new long[count];
+        int start = 0;
+        for (int c = 0; c < count; c++) {
+            int stop = text.indexOf('.', start);
+            if (stop < 0 || stop > end) {
+                stop = end;
+            }
+            components[c] = parseInt(text, start, stop);
+            start = stop + 1;
+        }
+        return new Version(text, components, qualifier);
+    }
+
+    /**
+     * Same as <code>Integer.parseInt(text.substring(start, end))</code>
+     * @return The value or {@link #INVALID}
+     */
+    private static long parseInt(String text, int start, int end) {
+        if (start >= end) {
+            return INVALID;
+        }
+        boolean negative = false;
+        int i = start;
+        char first = text.charAt(i);
+        if (first == '-' || first == '+') {
+            negative = (first == '-');
+            i++;
+            if (i == end) {
+                return INVALID;
+            }
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = Character.digit(text.charAt(i), 10);
+            if (digit < 0) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                return INVALID;
+            }
+        }
+        if (negative) {
+            value = -value;
+        } else if (value > Integer.MAX_VALUE) {
+            return INVALID;
+        }
+        return value;
+    }
+
+    /**
+     * @return The original version string
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return Number of components
+     */
+    public int getComponentCount() {
+        return components.length;
+    }
+
+    /**
+     * @param index The component index
+     * @return The numeric value of the component, or {@link #INVALID}
+     */
+    public long getComponent(int index) {
+        return components[index];
+    }
+
+    /**
+     * @return The qualifier (interned), null if there is none
+     */
+    public String getQualifier() {
+        return qualifier;
+    }
+
+    @Override
+    public int hashCode() {
+        return text.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Version)) {
+            return false;
+        }
+        return text.equals(((Version) obj).text);
+    }
+
+    @Override
+    public String toString() {
+        return "Version {text=" + text + ", components=" + Arrays.toString(components) + ", qualifier=" + qualifier + '}';
+    }
+}
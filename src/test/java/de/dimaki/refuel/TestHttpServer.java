@@ -0,0 +1,105 @@
+package de.dimaki.refuel;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local HTTP server for tests
+ *
+ * @author Dino Tsoumakis
+ */
+public class TestHttpServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    public TestHttpServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Register a handler, every handled request is counted
+     * @param path The context path
+     * @param handler The handler
+     */
+    public void handle(String path, HttpHandler handler) {
+        server.createContext(path, (HttpExchange exchange) -> {
+            requests.incrementAndGet();
+            try {
+                handler.handle(exchange);
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    public URL url(String path) throws MalformedURLException {
+        return new URL("http", "127.0.0.1", server.getAddress().getPort(), path);
+    }
+
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    public void resetRequestCount() {
+        requests.set(0);
+    }
+
+    /**
+     * Send a complete response
+     * @param exchange The exchange
+     * @param status The HTTP status
+     * @param body The body, may be null
+     * @throws IOException in case of an error
+     */
+    public static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        if (body == null || "HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        }
+    }
+
+    /**
+     * Send the data or the requested byte range of it
+     * @param exchange The exchange
+     * @param data The complete data
+     * @throws IOException in case of an error
+     */
+    public static void respondRange(HttpExchange exchange, byte[] data) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        if (range == null) {
+            respond(exchange, 200, data);
+        } else {
+            String[] fromTo = range.substring(6).split("-");
+            int from = Integer.parseInt(fromTo[0]);
+            int to = (fromTo.length > 1) ? Integer.parseInt(fromTo[1]) : data.length - 1;
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + data.length);
+            respond(exchange, 206, Arrays.copyOfRange(data, from, to + 1));
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -1,24 +1,71 @@
 package de.dimaki.refuel.appcast.boundary;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import de.dimaki.refuel.TestHttpServer;
+import de.dimaki.refuel.appcast.control.AppcastCache;
 import de.dimaki.refuel.appcast.control.AppcastException;
+import de.dimaki.refuel.appcast.control.BlockIndex;
+import de.dimaki.refuel.appcast.control.CircuitBreaker;
+import de.dimaki.refuel.appcast.control.DeltaGenerator;
+import de.dimaki.refuel.appcast.control.DownloadInProgressException;
+import de.dimaki.refuel.appcast.control.HttpStatusException;
+import de.dimaki.refuel.appcast.control.RateLimiter;
+import de.dimaki.refuel.appcast.control.ResumableDownload;
+import de.dimaki.refuel.appcast.control.RetryPolicy;
+import de.dimaki.refuel.appcast.control.StalledTransferException;
+import de.dimaki.refuel.appcast.control.TransferBudget;
 import de.dimaki.refuel.appcast.entity.Appcast;
 import de.dimaki.refuel.appcast.entity.Channel;
 import de.dimaki.refuel.appcast.entity.Enclosure;
 import de.dimaki.refuel.appcast.entity.Item;
+import de.dimaki.refuel.appcast.entity.TransferProgress;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
 import java.net.MalformedURLException;
 import java.net.Proxy;
+import java.net.ServerSocket;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
@@ -70,6 +117,326 @@ public class AppcastManagerTest {
         assertNotNull(enclosure.getUrl());
     }
 
+    @Test
+    public void testFetchConcurrently() throws Exception {
+        final int threads = 16;
+        final int fetchesPerThread = 50;
+        final URL url = getClass().getResource("/appcast.xml");
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        int ok = 0;
+                        for (int i = 0; i < fetchesPerThread; i++) {
+                            // Use fresh managers as well as the shared one
+                            AppcastManager m = (i % 2 == 0) ? manager : new AppcastManager();
+                            Appcast appcast = m.fetch(url);
+                            assertEquals("2.0.4711", appcast.getLatestVersion());
+                            assertEquals("Sparkle Test App Changelog", appcast.getTitle());
+                            assertEquals(1505, appcast.getLatestEnclosure().getLength());
+                            ok++;
+                        }
+                        return ok;
+                    }
+                }));
+            }
+            start.countDown();
+            int total = 0;
+            for (Future<Integer> result : results) {
+                total += result.get(60, TimeUnit.SECONDS);
+            }
+            assertEquals(threads * fetchesPerThread, total);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFetchCached() throws Exception {
+        final byte[] xml = Files.readAllBytes(Paths.get(getClass().getResource("/appcast.xml").toURI()));
+        final String etag = "\"v1\"";
+        final String[] cacheControl = {"no-cache"};
+        Path cacheDir = Files.createTempDirectory("ac-cache-");
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/appcast.xml", exchange -> {
+                exchange.getResponseHeaders().set("Cache-Control", cacheControl[0]);
+                if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    TestHttpServer.respond(exchange, 304, null);
+                } else {
+                    exchange.getResponseHeaders().set("ETag", etag);
+                    TestHttpServer.respond(exchange, 200, xml);
+                }
+            });
+            URL url = server.url("/appcast.xml");
+
+            AppcastManager m = new AppcastManager();
+            m.setCache(new AppcastCache(cacheDir));
+            Appcast first = m.fetch(url);
+            assertEquals("2.0.4711", first.getLatestVersion());
+            assertEquals(1, server.getRequestCount());
+
+            // Not modified
+            Appcast second = m.fetch(url);
+            assertSame(first, second);
+            assertEquals(2, server.getRequestCount());
+
+            // Restart: read from cache directory and revalidated
+            AppcastManager restarted = new AppcastManager();
+            restarted.setCache(new AppcastCache(cacheDir));
+            Appcast third = restarted.fetch(url);
+            assertNotSame(first, third);
+            assertEquals("2.0.4711", third.getLatestVersion());
+            assertEquals(3, server.getRequestCount());
+
+            // Fresh entries skip the network
+            cacheControl[0] = "public, max-age=3600";
+            restarted.fetch(url);
+            assertEquals(4, server.getRequestCount());
+            assertSame(third, restarted.fetch(url));
+            assertEquals(4, server.getRequestCount());
+        } finally {
+            Files.list(cacheDir).forEach(p -> p.toFile().delete());
+            Files.deleteIfExists(cacheDir);
+        }
+    }
+
+    @Test
+    public void testFetchNoStore() throws Exception {
+        final byte[] xml = Files.readAllBytes(Paths.get(getClass().getResource("/appcast.xml").toURI()));
+        final String[] cacheControl = {"no-cache"};
+        final List<String> validators = Collections.synchronizedList(new ArrayList<>());
+        Path cacheDir = Files.createTempDirectory("ac-cache-");
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/appcast.xml", exchange -> {
+                validators.add(String.valueOf(exchange.getRequestHeaders().getFirst("If-None-Match")));
+                exchange.getResponseHeaders().set("Cache-Control", cacheControl[0]);
+                exchange.getResponseHeaders().set("ETag", "\"v" + validators.size() + "\"");
+                TestHttpServer.respond(exchange, 200, xml);
+            });
+            URL url = server.url("/appcast.xml");
+
+            AppcastManager m = new AppcastManager();
+            m.setCache(new AppcastCache(cacheDir));
+            m.fetch(url);
+            try (Stream<Path> files = Files.list(cacheDir)) {
+                assertEquals(2, files.count());
+            }
+
+            // Must not be stored, the persisted copy is removed as well
+            cacheControl[0] = "no-store";
+            m.fetch(url);
+            try (Stream<Path> files = Files.list(cacheDir)) {
+                assertEquals(0, files.count());
+            }
+            AppcastManager restarted = new AppcastManager();
+            restarted.setCache(new AppcastCache(cacheDir));
+            restarted.fetch(url);
+            assertEquals(Arrays.asList("null", "\"v1\"", "null"), validators);
+        } finally {
+            Files.list(cacheDir).forEach(p -> p.toFile().delete());
+            Files.deleteIfExists(cacheDir);
+        }
+    }
+
+    @Test
+    public void testFetchAsync() throws Exception {
+        CompletableFuture<Appcast> future = manager.fetchAsync(getClass().getResource("/appcast.xml"));
+        assertEquals("2.0.4711", future.get(10, TimeUnit.SECONDS).getLatestVersion());
+
+        future = manager.fetchAsync(new URL("http://thisisanotexistingdomainnamethatproducesanerror.com/error"));
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("Fetch should fail");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof AppcastException);
+            assertEquals(404, ((AppcastException) ex.getCause()).getStatus());
+        }
+    }
+
+    @Test
+    public void testFetchAsyncCancel() throws Exception {
+        final CountDownLatch requested = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/slow", exchange -> {
+                requested.countDown();
+                try {
+                    Thread.sleep(20000);
+                } catch (InterruptedException ex) {
+                    // Server stopped
+                }
+            });
+            AppcastManager m = new AppcastManager();
+            m.setExecutor(r -> new Thread(() -> {
+                r.run();
+                finished.countDown();
+            }).start());
+            CompletableFuture<Appcast> future = m.fetchAsync(server.url("/slow"));
+            assertTrue(requested.await(5, TimeUnit.SECONDS));
+            assertTrue(future.cancel(true));
+            // Aborted long before the read timeout
+            assertTrue(finished.await(2, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testFetchAllRejected() throws Exception {
+        final byte[] xml = Files.readAllBytes(Paths.get(getClass().getResource("/appcast.xml").toURI()));
+        final AtomicInteger accepted = new AtomicInteger();
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/app/", exchange -> TestHttpServer.respond(exchange, 200, xml));
+            AppcastManager m = new AppcastManager();
+            // Accepts two tasks, e.g. an executor being shut down
+            m.setExecutor(r -> {
+                if (accepted.incrementAndGet() > 2) {
+                    throw new RejectedExecutionException("Shut down");
+                }
+                new Thread(r).start();
+            });
+            List<URL> urls = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                urls.add(server.url("/app/" + i));
+            }
+            Map<String, CompletableFuture<Appcast>> results = m.fetchAll(urls, 1, 1);
+            assertEquals(5, results.size());
+            int fetched = 0;
+            int rejected = 0;
+            for (CompletableFuture<Appcast> future : results.values()) {
+                try {
+                    assertEquals("2.0.4711", future.get(10, TimeUnit.SECONDS).getLatestVersion());
+                    fetched++;
+                } catch (ExecutionException ex) {
+                    assertTrue(ex.getCause() instanceof RejectedExecutionException);
+                    rejected++;
+                }
+            }
+            assertEquals(2, fetched);
+            assertEquals(3, rejected);
+        }
+    }
+
+    @Test
+    public void testFetchRetryAfter() throws Exception {
+        final byte[] xml = Files.readAllBytes(Paths.get(getClass().getResource("/appcast.xml").toURI()));
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/busy.xml", exchange -> {
+                if (server.getRequestCount() == 1) {
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    TestHttpServer.respond(exchange, 503, null);
+                } else {
+                    TestHttpServer.respond(exchange, 200, xml);
+                }
+            });
+            server.handle("/overloaded.xml", exchange -> {
+                exchange.getResponseHeaders().set("Retry-After", "3600");
+                TestHttpServer.respond(exchange, 429, null);
+            });
+            AppcastManager m = new AppcastManager();
+            m.setRetryPolicy(new RetryPolicy(3, 10, 5000, null));
+
+            long start = System.currentTimeMillis();
+            assertEquals("2.0.4711", m.fetch(server.url("/busy.xml")).getLatestVersion());
+            assertTrue(System.currentTimeMillis() - start >= 1000);
+            assertEquals(2, server.getRequestCount());
+
+            // Longer than the max. backoff: not retried
+            server.resetRequestCount();
+            try {
+                m.fetch(server.url("/overloaded.xml"));
+                fail("Fetch should fail");
+            } catch (AppcastException ex) {
+                assertEquals(429, ex.getStatus());
+                assertEquals(3600000, ex.getRetryAfter());
+            }
+            assertEquals(1, server.getRequestCount());
+        }
+    }
+
+    @Test
+    public void testFetchCircuitBreaker() throws Exception {
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/error.xml", exchange -> TestHttpServer.respond(exchange, 500, null));
+            server.handle("/missing.xml", exchange -> TestHttpServer.respond(exchange, 404, null));
+            AppcastManager m = new AppcastManager();
+            m.setRetryPolicy(new RetryPolicy(1, 0, 0, new CircuitBreaker(2, 60000)));
+
+            for (int i = 0; i < 2; i++) {
+                try {
+                    m.fetch(server.url("/missing.xml"));
+                    fail("Fetch should fail");
+                } catch (AppcastException ex) {
+                    assertEquals(404, ex.getStatus());
+                }
+            }
+            for (int i = 0; i < 3; i++) {
+                try {
+                    m.fetch(server.url("/error.xml"));
+                    fail("Fetch should fail");
+                } catch (AppcastException ex) {
+                    assertEquals((i < 2) ? 500 : 503, ex.getStatus());
+                }
+            }
+            // Missing files do not open the circuit, the third server error is not requested
+            assertEquals(4, server.getRequestCount());
+            assertTrue(m.getRetryPolicy().getCircuitBreaker().getRemainingOpenTime(server.url("/")) > 0);
+        }
+    }
+
+    @Test
+    public void testFetchCircuitOpenFailsFast() throws Exception {
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/error.xml", exchange -> TestHttpServer.respond(exchange, 500, null));
+            AppcastManager m = new AppcastManager();
+            // Retries would wait for the circuit to close again
+            m.setRetryPolicy(new RetryPolicy(3, 10, 60000, new CircuitBreaker(1, 30000)));
+
+            long start = System.nanoTime();
+            for (int i = 0; i < 2; i++) {
+                try {
+                    m.fetch(server.url("/error.xml"));
+                    fail("Fetch should fail");
+                } catch (AppcastException ex) {
+                    assertEquals(503, ex.getStatus());
+                }
+            }
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+            assertEquals(1, server.getRequestCount());
+        }
+    }
+
+    @Test
+    public void testFetchConnectionRefused() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        AppcastManager m = new AppcastManager();
+        m.setRetryPolicy(RetryPolicy.NONE);
+        try {
+            m.fetch(new URL("http://localhost:" + port + "/appcast.xml"));
+            fail("Fetch should fail");
+        } catch (AppcastException ex) {
+            // Not an HTTP response
+            assertEquals(AppcastException.NO_STATUS, ex.getStatus());
+            assertTrue(ex.getCause() instanceof ConnectException);
+        }
+    }
+
+    @Test
+    public void testParseRetryAfter() {
+        long now = 1445412480000L;
+        assertEquals(120000, HttpStatusException.parseRetryAfter("120", now));
+        assertEquals(60000, HttpStatusException.parseRetryAfter("Wed, 21 Oct 2015 07:29:00 GMT", now));
+        assertEquals(0, HttpStatusException.parseRetryAfter("Wed, 21 Oct 2015 07:00:00 GMT", now));
+        assertEquals(-1, HttpStatusException.parseRetryAfter("soon", now));
+        assertEquals(-1, HttpStatusException.parseRetryAfter(null, now));
+    }
+
     @Test
     public void testFetchNoConnection() {
         try {
@@ -185,6 +552,563 @@ public class AppcastManagerTest {
         }
     }
 
+    @Test
+    public void testDownloadWrongHash() throws Exception {
+        Appcast appcast = getAppcast();
+        Enclosure enclosure = appcast.getLatestEnclosure();
+        enclosure.setUrl(getClass().getResource("/jartest.zip").toURI().toURL().toString());
+        enclosure.setSha512("00");
+        Path targetDir = Files.createTempDirectory("ac-");
+        try {
+            manager.download(appcast, targetDir);
+            fail("Wrong hash not detected");
+        } catch (Exception ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("SHA-512"));
+            assertFalse(Files.exists(targetDir.resolve("jartest.zip")));
+        } finally {
+            Files.deleteIfExists(targetDir);
+        }
+    }
+
+    @Test
+    public void testDownloadResume() throws Exception {
+        final byte[] data = new byte[256 * 1024];
+        new Random(4711).nextBytes(data);
+        final String etag = "\"data-1\"";
+        final List<String> ranges = new ArrayList<>();
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/update.zip", exchange -> {
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                ranges.add(range + " " + exchange.getRequestHeaders().getFirst("If-Range"));
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+                if (range == null) {
+                    // Connection drops after the first half
+                    exchange.sendResponseHeaders(200, data.length);
+                    exchange.getResponseBody().write(data, 0, data.length / 2);
+                    exchange.getResponseBody().flush();
+                } else {
+                    int from = Integer.parseInt(range.substring(6, range.length() - 1));
+                    exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + (data.length - 1) + "/" + data.length);
+                    exchange.sendResponseHeaders(206, data.length - from);
+                    exchange.getResponseBody().write(data, from, data.length - from);
+                    exchange.getResponseBody().close();
+                }
+            });
+            Appcast appcast = getAppcast();
+            Enclosure enclosure = appcast.getLatestEnclosure();
+            enclosure.setUrl(server.url("/update.zip").toString());
+            enclosure.setLength(data.length);
+            enclosure.setMd5(toHex(MessageDigest.getInstance("MD5").digest(data)));
+            enclosure.setSha256(toHex(MessageDigest.getInstance("SHA-256").digest(data)));
+
+            Path targetDir = Files.createTempDirectory("ac-");
+            Path partDir = Files.createTempDirectory("ac-part-");
+            AppcastManager m = new AppcastManager();
+            m.setPartDirectory(partDir);
+            m.setRetryPolicy(new RetryPolicy(3, 10, 100));
+            Path downloaded = null;
+            try {
+                downloaded = m.download(appcast, targetDir);
+                assertArrayEquals(data, Files.readAllBytes(downloaded));
+                assertEquals(2, ranges.size());
+                assertEquals("null null", ranges.get(0));
+                assertEquals("bytes=" + (data.length / 2) + "- " + etag, ranges.get(1));
+                // Partial file removed after completion
+                assertEquals(0, Files.list(partDir).count());
+            } finally {
+                if (downloaded != null) {
+                    Files.deleteIfExists(downloaded);
+                }
+                Files.deleteIfExists(targetDir);
+                Files.deleteIfExists(partDir);
+            }
+        }
+    }
+
+    @Test
+    public void testDownloadInProgress() throws Exception {
+        final byte[] data = new byte[128 * 1024];
+        new Random(4716).nextBytes(data);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/update.zip", exchange -> {
+                exchange.sendResponseHeaders(200, data.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(data, 0, data.length / 2);
+                os.flush();
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    // Server stopped
+                }
+                os.write(data, data.length / 2, data.length - data.length / 2);
+                os.close();
+            });
+            Appcast appcast = getAppcast();
+            Enclosure enclosure = appcast.getLatestEnclosure();
+            enclosure.setUrl(server.url("/update.zip").toString());
+            enclosure.setLength(data.length);
+            enclosure.setMd5(null);
+            enclosure.setSha256(toHex(MessageDigest.getInstance("SHA-256").digest(data)));
+
+            final Path targetDir = Files.createTempDirectory("ac-");
+            final AppcastManager m = new AppcastManager();
+            try {
+                CompletableFuture<Path> first = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return m.download(appcast, targetDir);
+                    } catch (Exception ex) {
+                        throw new CompletionException(ex);
+                    }
+                });
+                assertTrue(started.await(5, TimeUnit.SECONDS));
+                long start = System.currentTimeMillis();
+                try {
+                    new AppcastManager().download(appcast, targetDir);
+                    fail("Concurrent download of the same file");
+                } catch (DownloadInProgressException ex) {
+                    // Not retried
+                    assertTrue(System.currentTimeMillis() - start < 1000);
+                }
+                // The partial file of the running download is not discarded
+                Path partFile;
+                try (Stream<Path> files = Files.list(targetDir)) {
+                    partFile = files.filter(p -> p.getFileName().toString().endsWith(".part")).findFirst().get();
+                }
+                ResumableDownload other = new ResumableDownload(server.url("/update.zip"), partFile, RetryPolicy.NONE, 1000, 1000);
+                assertFalse(other.discard());
+                assertTrue(Files.exists(partFile));
+                release.countDown();
+                assertArrayEquals(data, Files.readAllBytes(first.get(10, TimeUnit.SECONDS)));
+                // Partial and lock file removed after completion
+                try (Stream<Path> files = Files.list(targetDir)) {
+                    assertEquals(1, files.count());
+                }
+            } finally {
+                release.countDown();
+                try (Stream<Path> files = Files.list(targetDir)) {
+                    files.forEach(p -> p.toFile().delete());
+                }
+                Files.deleteIfExists(targetDir);
+            }
+        }
+    }
+
+    @Test
+    public void testDownloadSegmented() throws Exception {
+        final byte[] data = new byte[1024 * 1024 + 17];
+        new Random(4712).nextBytes(data);
+        final boolean[] acceptRanges = {true};
+        final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/update.zip", exchange -> {
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                requests.add(exchange.getRequestMethod() + " " + range);
+                exchange.getResponseHeaders().set("ETag", "\"data-2\"");
+                if (acceptRanges[0]) {
+                    exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+                }
+                if (range == null || !acceptRanges[0]) {
+                    TestHttpServer.respond(exchange, 200, data);
+                } else {
+                    String[] fromTo = range.substring(6).split("-");
+                    int from = Integer.parseInt(fromTo[0]);
+                    int to = Integer.parseInt(fromTo[1]);
+                    exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + data.length);
+                    TestHttpServer.respond(exchange, 206, Arrays.copyOfRange(data, from, to + 1));
+                }
+            });
+            Appcast appcast = getAppcast();
+            Enclosure enclosure = appcast.getLatestEnclosure();
+            enclosure.setUrl(server.url("/update.zip").toString());
+            enclosure.setLength(data.length);
+            enclosure.setMd5(toHex(MessageDigest.getInstance("MD5").digest(data)));
+            enclosure.setSha256(toHex(MessageDigest.getInstance("SHA-256").digest(data)));
+
+            Path targetDir = Files.createTempDirectory("ac-");
+            AppcastManager m = new AppcastManager();
+            m.setSegmentCount(4);
+            m.setMinSegmentSize(64 * 1024);
+            try {
+                Path downloaded = m.download(appcast, targetDir);
+                assertArrayEquals(data, Files.readAllBytes(downloaded));
+                // HEAD + 4 segments
+                assertEquals(5, requests.size());
+                assertTrue(requests.contains("HEAD null"));
+                assertTrue(requests.contains("GET bytes=0-262148"));
+                assertTrue(requests.contains("GET bytes=786447-1048592"));
+                // Partial file was moved, not copied
+                assertEquals(1, Files.list(targetDir).count());
+
+                // No range support: single connection
+                requests.clear();
+                acceptRanges[0] = false;
+                downloaded = m.download(appcast, targetDir);
+                assertArrayEquals(data, Files.readAllBytes(downloaded));
+                assertEquals(Arrays.asList("HEAD null", "GET null"), requests);
+            } finally {
+                Files.deleteIfExists(targetDir.resolve("update.zip"));
+                Files.deleteIfExists(targetDir);
+            }
+        }
+    }
+
+    @Test
+    public void testDownloadThrottled() throws Exception {
+        final byte[] data = new byte[96 * 1024];
+        new Random(4713).nextBytes(data);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/update.zip", exchange -> {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                try {
+                    TestHttpServer.respond(exchange, 200, data);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+            Appcast appcast = getAppcast();
+            Enclosure enclosure = appcast.getLatestEnclosure();
+            enclosure.setUrl(server.url("/update.zip").toString());
+            enclosure.setLength(data.length);
+            enclosure.setMd5(toHex(MessageDigest.getInstance("MD5").digest(data)));
+            enclosure.setSha256(toHex(MessageDigest.getInstance("SHA-256").digest(data)));
+
+            TransferBudget budget = new TransferBudget(1, 0);
+            List<Path> targetDirs = new ArrayList<>();
+            List<CompletableFuture<Path>> downloads = new ArrayList<>();
+            long start = System.currentTimeMillis();
+            try {
+                for (int i = 0; i < 2; i++) {
+                    final Path targetDir = Files.createTempDirectory("ac-");
+                    targetDirs.add(targetDir);
+                    final AppcastManager m = new AppcastManager();
+                    m.setRateLimiter(new RateLimiter(64 * 1024, 16 * 1024));
+                    m.setTransferBudget(budget);
+                    downloads.add(CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return m.download(appcast, targetDir);
+                        } catch (Exception ex) {
+                            throw new CompletionException(ex);
+                        }
+                    }));
+                }
+                for (CompletableFuture<Path> download : downloads) {
+                    assertArrayEquals(data, Files.readAllBytes(download.get(30, TimeUnit.SECONDS)));
+                }
+                // Two downloads one after the other, 80 KB each beyond the burst
+                assertTrue(System.currentTimeMillis() - start >= 2000);
+                assertEquals(1, maxInFlight.get());
+                assertEquals(1, budget.getAvailableSlots());
+            } finally {
+                for (Path targetDir : targetDirs) {
+                    Files.deleteIfExists(targetDir.resolve("update.zip"));
+                    Files.deleteIfExists(targetDir);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDownloadProgress() throws Exception {
+        final byte[] data = new byte[96 * 1024];
+        new Random(4714).nextBytes(data);
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/update.zip", exchange -> TestHttpServer.respond(exchange, 200, data));
+            server.handle("/stalled.zip", exchange -> {
+                exchange.sendResponseHeaders(200, data.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    for (int i = 0; i < data.length; i += 1024) {
+                        os.write(data, i, 1024);
+                        os.flush();
+                        Thread.sleep(100);
+                    }
+                } catch (InterruptedException | IOException ex) {
+                    // Aborted by the client
+                }
+            });
+            Appcast appcast = getAppcast();
+            Enclosure enclosure = appcast.getLatestEnclosure();
+            enclosure.setUrl(server.url("/update.zip").toString());
+            enclosure.setLength(data.length);
+            enclosure.setMd5(toHex(MessageDigest.getInstance("MD5").digest(data)));
+            enclosure.setSha256(toHex(MessageDigest.getInstance("SHA-256").digest(data)));
+
+            Path targetDir = Files.createTempDirectory("ac-");
+            List<TransferProgress> events = new CopyOnWriteArrayList<>();
+            AppcastManager m = new AppcastManager();
+            m.setProgressListener(events::add);
+            m.setRateLimiter(new RateLimiter(128 * 1024, 16 * 1024));
+            try {
+                m.download(appcast, targetDir);
+                List<TransferProgress.Phase> phases = new ArrayList<>();
+                for (TransferProgress event : events) {
+                    if (phases.isEmpty() || phases.get(phases.size() - 1) != event.getPhase()) {
+                        phases.add(event.getPhase());
+                    }
+                }
+                assertEquals(Arrays.asList(TransferProgress.Phase.CONNECT, TransferProgress.Phase.TRANSFER, TransferProgress.Phase.VERIFY,
+                        TransferProgress.Phase.MOVE, TransferProgress.Phase.DONE), phases);
+                // Bounded number of events while transferring for about 0.6s
+                long transferEvents = events.stream().filter(e -> e.getPhase() == TransferProgress.Phase.TRANSFER).count();
+                assertTrue("Events: " + transferEvents, transferEvents >= 2 && transferEvents <= 6);
+                TransferProgress done = events.get(events.size() - 1);
+                assertEquals(data.length, done.getBytes());
+                assertEquals(data.length, done.getTotal());
+                assertTrue(done.getAverageRate() > 0);
+                assertEquals(0, done.getEta());
+                Files.deleteIfExists(targetDir.resolve("update.zip"));
+
+                // About 10 KB/s: too slow
+                enclosure.setUrl(server.url("/stalled.zip").toString());
+                m.setRateLimiter(null);
+                m.setRetryPolicy(RetryPolicy.NONE);
+                m.setStallDetection(50 * 1024, 500);
+                long start = System.currentTimeMillis();
+                try {
+                    m.download(appcast, targetDir);
+                    fail("Stalled download not detected");
+                } catch (StalledTransferException ex) {
+                    assertTrue(ex.getRate() < 50 * 1024);
+                }
+                assertTrue(System.currentTimeMillis() - start < 5000);
+            } finally {
+                try (Stream<Path> files = Files.list(targetDir)) {
+                    files.forEach(p -> p.toFile().delete());
+                }
+                Files.deleteIfExists(targetDir);
+            }
+        }
+    }
+
+    @Test
+    public void testFetchCompressed() throws Exception {
+        final byte[] xml = Files.readAllBytes(Paths.get(getClass().getResource("/appcast.xml").toURI()));
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (OutputStream os = new GZIPOutputStream(gzip)) {
+            os.write(xml);
+        }
+        final Map<String, byte[]> deflated = new HashMap<>();
+        for (boolean raw : new boolean[]{false, true}) {
+            ByteArrayOutputStream deflate = new ByteArrayOutputStream();
+            try (OutputStream os = new DeflaterOutputStream(deflate, new Deflater(Deflater.DEFAULT_COMPRESSION, raw))) {
+                os.write(xml);
+            }
+            deflated.put(raw ? "/raw-deflate.xml" : "/deflate.xml", deflate.toByteArray());
+        }
+        final List<String> acceptEncodings = new CopyOnWriteArrayList<>();
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/appcast.xml", exchange -> {
+                String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                acceptEncodings.add(String.valueOf(accept));
+                if (accept != null && accept.contains("gzip")) {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                    TestHttpServer.respond(exchange, 200, gzip.toByteArray());
+                } else {
+                    TestHttpServer.respond(exchange, 200, xml);
+                }
+            });
+            for (Map.Entry<String, byte[]> entry : deflated.entrySet()) {
+                server.handle(entry.getKey(), exchange -> {
+                    exchange.getResponseHeaders().set("Content-Encoding", "deflate");
+                    TestHttpServer.respond(exchange, 200, entry.getValue());
+                });
+            }
+            // Pre-compressed file, served without content encoding
+            server.handle("/appcast.xml.gz", exchange -> TestHttpServer.respond(exchange, 200, gzip.toByteArray()));
+            server.handle("/br.xml", exchange -> {
+                exchange.getResponseHeaders().set("Content-Encoding", "br");
+                TestHttpServer.respond(exchange, 200, xml);
+            });
+
+            AppcastManager m = new AppcastManager();
+            m.setRetryPolicy(RetryPolicy.NONE);
+            assertEquals("2.0.4711", m.fetch(server.url("/appcast.xml")).getLatestVersion());
+            assertEquals("2.0.4711", m.fetch(server.url("/deflate.xml")).getLatestVersion());
+            assertEquals("2.0.4711", m.fetch(server.url("/raw-deflate.xml")).getLatestVersion());
+            assertEquals("2.0.4711", m.fetch(server.url("/appcast.xml.gz")).getLatestVersion());
+            // Request properties override the negotiation
+            assertEquals("2.0.4711", m.fetch(server.url("/appcast.xml"), null, 5000, 5000,
+                    Collections.singletonMap("Accept-Encoding", "identity")).getLatestVersion());
+            assertEquals(Arrays.asList("gzip, deflate", "identity"), acceptEncodings);
+            try {
+                m.fetch(server.url("/br.xml"));
+                fail("Unsupported content encoding accepted");
+            } catch (AppcastException ex) {
+                assertTrue(ex.getStatusInfo(), ex.getStatusInfo().contains("br"));
+            }
+        }
+    }
+
+    @Test
+    public void testConnectionReuse() throws Exception {
+        final byte[] xml = Files.readAllBytes(Paths.get(getClass().getResource("/appcast.xml").toURI()));
+        final byte[] data = new byte[64 * 1024];
+        new Random(4715).nextBytes(data);
+        final Set<Integer> clientPorts = new ConcurrentSkipListSet<>();
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/appcast.xml", exchange -> {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                TestHttpServer.respond(exchange, 200, xml);
+            });
+            server.handle("/missing.xml", exchange -> {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                TestHttpServer.respond(exchange, 404, "Not found".getBytes(StandardCharsets.UTF_8));
+            });
+            server.handle("/update.zip", exchange -> {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                TestHttpServer.respond(exchange, 200, data);
+            });
+
+            AppcastManager m = new AppcastManager();
+            Path targetDir = Files.createTempDirectory("ac-");
+            try {
+                Appcast appcast = m.fetch(server.url("/appcast.xml"));
+                Enclosure enclosure = appcast.getLatestEnclosure();
+                enclosure.setUrl(server.url("/update.zip").toString());
+                enclosure.setLength(data.length);
+                enclosure.setMd5(null);
+                enclosure.setSha256(toHex(MessageDigest.getInstance("SHA-256").digest(data)));
+                assertNotNull(m.download(appcast, targetDir));
+                try {
+                    m.fetch(server.url("/missing.xml"));
+                    fail("Missing appcast fetched");
+                } catch (AppcastException ex) {
+                    assertEquals(404, ex.getStatus());
+                }
+                m.fetch(server.url("/appcast.xml"));
+            } finally {
+                Files.deleteIfExists(targetDir.resolve("update.zip"));
+                Files.deleteIfExists(targetDir);
+            }
+            // All requests on one keep-alive connection
+            assertEquals(4, server.getRequestCount());
+            assertEquals(clientPorts.toString(), 1, clientPorts.size());
+        }
+    }
+
+    @Test
+    public void testDownloadDelta() throws Exception {
+        final byte[] oldData = new byte[200 * 1024];
+        new Random(1).nextBytes(oldData);
+        final byte[] newData = oldData.clone();
+        newData[1000] ^= 1;
+        newData[150000] ^= 1;
+        Path tmpDir = Files.createTempDirectory("ac-");
+        Path targetDir = tmpDir.resolve("update");
+        Path oldFile = Files.write(tmpDir.resolve("app-1.0.jar"), oldData);
+        Path newFile = Files.write(tmpDir.resolve("app-2.0.jar"), newData);
+        Path patchFile = tmpDir.resolve("app-1.0-2.0.delta");
+        new DeltaGenerator().generate(oldFile, newFile, patchFile);
+        final byte[] patch = Files.readAllBytes(patchFile);
+        final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/app.jar", exchange -> {
+                requests.add(exchange.getRequestURI().getPath());
+                TestHttpServer.respond(exchange, 200, newData);
+            });
+            server.handle("/app-1.0.delta", exchange -> {
+                requests.add(exchange.getRequestURI().getPath());
+                TestHttpServer.respond(exchange, 200, patch);
+            });
+            Appcast appcast = getAppcast();
+            Item item = appcast.getChannel().getItems().get(0);
+            Enclosure enclosure = item.getEnclosure();
+            enclosure.setUrl(server.url("/app.jar").toString());
+            enclosure.setLength(newData.length);
+            enclosure.setMd5(null);
+            enclosure.setSha256(toHex(MessageDigest.getInstance("SHA-256").digest(newData)));
+            Enclosure delta = new Enclosure();
+            delta.setUrl(server.url("/app-1.0.delta").toString());
+            delta.setVersion(enclosure.getVersion());
+            delta.setDeltaFrom("1.0");
+            delta.setLength(patch.length);
+            delta.setSha256(toHex(MessageDigest.getInstance("SHA-256").digest(patch)));
+            item.setDeltas(new ArrayList<>(Collections.singletonList(delta)));
+
+            Path downloaded = manager.download(appcast, targetDir, "1.0", oldFile);
+            assertArrayEquals(newData, Files.readAllBytes(downloaded));
+            assertEquals(Collections.singletonList("/app-1.0.delta"), requests);
+            assertEquals(1, Files.list(targetDir).count());
+
+            // Local file does not match the delta: full download
+            requests.clear();
+            Files.write(oldFile, new byte[10]);
+            downloaded = manager.download(appcast, targetDir, "1.0", oldFile);
+            assertArrayEquals(newData, Files.readAllBytes(downloaded));
+            assertEquals(Arrays.asList("/app-1.0.delta", "/app.jar"), requests);
+            assertEquals(1, Files.list(targetDir).count());
+
+            // No delta for this version
+            requests.clear();
+            manager.download(appcast, targetDir, "1.1", oldFile);
+            assertEquals(Collections.singletonList("/app.jar"), requests);
+        } finally {
+            try (Stream<Path> paths = Files.walk(tmpDir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void testDownloadBlocks() throws Exception {
+        final byte[] oldData = new byte[200 * 1024];
+        new Random(2).nextBytes(oldData);
+        final byte[] newData = oldData.clone();
+        newData[150000] ^= 1;
+        Path tmpDir = Files.createTempDirectory("ac-");
+        Path targetDir = tmpDir.resolve("update");
+        Path oldFile = Files.write(tmpDir.resolve("app-1.0.jar"), oldData);
+        Path newFile = Files.write(tmpDir.resolve("app-2.0.jar"), newData);
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        BlockIndex.create(newFile, 4096).write(index);
+        final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/app.jar", exchange -> {
+                requests.add(exchange.getRequestURI().getPath() + " " + exchange.getRequestHeaders().getFirst("Range"));
+                TestHttpServer.respondRange(exchange, newData);
+            });
+            server.handle("/app.jar.blocks", exchange -> {
+                requests.add(exchange.getRequestURI().getPath());
+                // The index is retried like the download
+                if (requests.size() == 1) {
+                    TestHttpServer.respond(exchange, 503, new byte[0]);
+                } else {
+                    TestHttpServer.respond(exchange, 200, index.toByteArray());
+                }
+            });
+            Appcast appcast = getAppcast();
+            Enclosure enclosure = appcast.getLatestEnclosure();
+            enclosure.setUrl(server.url("/app.jar").toString());
+            enclosure.setLength(newData.length);
+            enclosure.setSha256(toHex(MessageDigest.getInstance("SHA-256").digest(newData)));
+            enclosure.setMd5(null);
+            enclosure.setBlockIndex("app.jar.blocks");
+
+            manager.setRetryPolicy(new RetryPolicy(3, 10, 100));
+            Path downloaded = manager.download(appcast, targetDir, "1.0", oldFile);
+            assertArrayEquals(newData, Files.readAllBytes(downloaded));
+            assertEquals(Arrays.asList("/app.jar.blocks", "/app.jar.blocks", "/app.jar bytes=147456-151551"), requests);
+            assertEquals(1, Files.list(targetDir).count());
+        } finally {
+            try (Stream<Path> paths = Files.walk(tmpDir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
     @Test
     public void testDownloadHttpUrl() {
         Appcast appcast = getAppcast();
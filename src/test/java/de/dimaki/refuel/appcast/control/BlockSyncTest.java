@@ -0,0 +1,154 @@
+package de.dimaki.refuel.appcast.control;
+
+import de.dimaki.refuel.TestHttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Dino Tsoumakis
+ */
+public class BlockSyncTest {
+
+    private Path tmpDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tmpDir = Files.createTempDirectory("sync-");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (String name : new String[]{"old", "new", "synced"}) {
+            Files.deleteIfExists(tmpDir.resolve(name));
+        }
+        Files.deleteIfExists(tmpDir);
+    }
+
+    @Test
+    public void testIndexReadWrite() throws Exception {
+        byte[] data = new byte[10000];
+        new Random(3).nextBytes(data);
+        BlockIndex index = BlockIndex.create(Files.write(tmpDir.resolve("new"), data), 1024);
+        assertEquals(10, index.getBlockCount());
+        assertEquals(784, index.getBlockLength(9));
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        index.write(bos);
+        BlockIndex read = BlockIndex.read(new ByteArrayInputStream(bos.toByteArray()));
+        assertEquals(index.getBlockSize(), read.getBlockSize());
+        assertEquals(index.getLength(), read.getLength());
+        for (int block = 0; block < index.getBlockCount(); block++) {
+            assertEquals(index.getChecksum(block), read.getChecksum(block));
+            assertArrayEquals(index.getHash(block), read.getHash(block));
+        }
+    }
+
+    @Test
+    public void testSync() throws Exception {
+        Random random = new Random(4711);
+        byte[] oldData = new byte[256 * 1024 + 100];
+        random.nextBytes(oldData);
+        // Some bytes inserted at the start, one block changed in the middle
+        final byte[] newData = new byte[oldData.length + 10];
+        random.nextBytes(newData);
+        System.arraycopy(oldData, 0, newData, 10, oldData.length);
+        newData[100000] ^= 1;
+
+        Path oldFile = Files.write(tmpDir.resolve("old"), oldData);
+        Path newFile = Files.write(tmpDir.resolve("new"), newData);
+        BlockIndex index = BlockIndex.create(newFile, 4096);
+        final AtomicLong sent = new AtomicLong();
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/app.jar", exchange -> {
+                TestHttpServer.respondRange(exchange, newData);
+                sent.addAndGet(Long.parseLong(exchange.getResponseHeaders().getFirst("Content-length")));
+            });
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            BlockSync sync = new BlockSync(server.url("/app.jar"), index, 1000, 1000);
+            ProgressTracker tracker = new ProgressTracker("app.jar", newData.length, null);
+            sync.setProgressTracker(tracker);
+            Path synced = tmpDir.resolve("synced");
+            sync.run(oldFile, synced, Collections.singletonList(md));
+
+            assertArrayEquals(newData, Files.readAllBytes(synced));
+            assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(newData), md.digest());
+            // First block, changed block and last block
+            assertTrue("Sent " + sent.get() + " bytes", sent.get() <= 3 * 4096);
+            assertEquals(newData.length - sent.get(), sync.getReused());
+            // Reused blocks count as present, fetched blocks as transferred
+            assertEquals(newData.length, tracker.getBytes());
+            assertEquals(sent.get(), tracker.getTransferredBytes());
+        }
+    }
+
+    @Test
+    public void testSyncLargeBlocks() throws Exception {
+        // Blocks larger than the copy buffer
+        byte[] data = new byte[3 * 1024 * 1024 + 100];
+        new Random(5).nextBytes(data);
+        Path file = Files.write(tmpDir.resolve("old"), data);
+        BlockIndex index = BlockIndex.create(file, DeltaGenerator.MAX_BLOCK_SIZE);
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/app.jar", exchange -> TestHttpServer.respondRange(exchange, data));
+            BlockSync sync = new BlockSync(server.url("/app.jar"), index, 1000, 1000);
+            Path synced = tmpDir.resolve("synced");
+            sync.run(file, synced, Collections.<MessageDigest>emptyList());
+
+            assertArrayEquals(data, Files.readAllBytes(synced));
+            assertEquals(data.length, sync.getReused());
+            assertEquals(0, server.getRequestCount());
+        }
+    }
+
+    @Test
+    public void testIndexReadInvalid() throws Exception {
+        for (int blockSize : new int[]{8, DeltaGenerator.MAX_BLOCK_SIZE + 1}) {
+            try {
+                BlockIndex.read(new ByteArrayInputStream(header(blockSize, 4096)));
+                fail("Invalid block size " + blockSize + " accepted");
+            } catch (IOException ex) {
+                // Expected
+            }
+        }
+        // A header announcing far more blocks than sent fails on the data, not on allocation
+        try {
+            BlockIndex.read(new ByteArrayInputStream(header(16, 16L * DeltaGenerator.MAX_BLOCKS)));
+            fail("Truncated index accepted");
+        } catch (EOFException ex) {
+            // Expected
+        }
+        try {
+            BlockIndex.read(new ByteArrayInputStream(header(16, 16L * DeltaGenerator.MAX_BLOCKS + 1)));
+            fail("Too many blocks accepted");
+        } catch (IOException ex) {
+            assertFalse(ex instanceof EOFException);
+        }
+    }
+
+    private static byte[] header(int blockSize, long length) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeInt(BlockIndex.MAGIC);
+        out.writeInt(blockSize);
+        out.writeLong(length);
+        return bos.toByteArray();
+    }
+}
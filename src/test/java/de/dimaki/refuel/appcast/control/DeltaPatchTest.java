@@ -0,0 +1,115 @@
+package de.dimaki.refuel.appcast.control;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Dino Tsoumakis
+ */
+public class DeltaPatchTest {
+
+    private Path tmpDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tmpDir = Files.createTempDirectory("delta-");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (String name : new String[]{"old", "new", "patch", "patched"}) {
+            Files.deleteIfExists(tmpDir.resolve(name));
+        }
+        Files.deleteIfExists(tmpDir);
+    }
+
+    @Test
+    public void testRollingChecksum() {
+        byte[] data = new byte[4096];
+        new Random(1).nextBytes(data);
+        RollingChecksum checksum = new RollingChecksum();
+        checksum.reset(data, 0, 512);
+        for (int i = 1; i + 512 <= data.length; i++) {
+            checksum.roll(data[i - 1], data[i + 511]);
+            assertEquals(RollingChecksum.of(data, i, 512), checksum.getValue());
+        }
+    }
+
+    @Test
+    public void testGenerateAndApply() throws Exception {
+        Random random = new Random(4711);
+        byte[] oldData = new byte[300 * 1024];
+        random.nextBytes(oldData);
+        // New version: changed bytes, inserted and removed ranges
+        byte[] newData = new byte[oldData.length + 1000];
+        random.nextBytes(newData);
+        System.arraycopy(oldData, 0, newData, 0, 100000);
+        newData[5000] ^= 1;
+        System.arraycopy(oldData, 100000, newData, 103000, 150000);
+        System.arraycopy(oldData, 252000, newData, 253000, oldData.length - 252000);
+
+        Path oldFile = Files.write(tmpDir.resolve("old"), oldData);
+        Path newFile = Files.write(tmpDir.resolve("new"), newData);
+        Path patch = tmpDir.resolve("patch");
+        new DeltaGenerator(1024).generate(oldFile, newFile, patch);
+        assertTrue("Patch too large: " + Files.size(patch), Files.size(patch) < 16 * 1024);
+
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        Path patched = tmpDir.resolve("patched");
+        DeltaPatch.apply(oldFile, patch, patched, Collections.singletonList(md));
+        assertArrayEquals(newData, Files.readAllBytes(patched));
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(newData), md.digest());
+    }
+
+    @Test
+    public void testGenerateLargeFile() throws Exception {
+        // Larger than the window of the generator, with a long literal range and a moved block
+        Random random = new Random(42);
+        byte[] oldData = new byte[6 * 1024 * 1024];
+        random.nextBytes(oldData);
+        byte[] newData = new byte[12 * 1024 * 1024];
+        random.nextBytes(newData);
+        System.arraycopy(oldData, 0, newData, 5 * 1024 * 1024 + 17, oldData.length);
+        System.arraycopy(oldData, 1000000, newData, 333, 50000);
+
+        Path oldFile = Files.write(tmpDir.resolve("old"), oldData);
+        Path newFile = Files.write(tmpDir.resolve("new"), newData);
+        Path patch = tmpDir.resolve("patch");
+        new DeltaGenerator().generate(oldFile, newFile, patch);
+        assertTrue("Patch too large: " + Files.size(patch), Files.size(patch) < newData.length - oldData.length);
+
+        Path patched = tmpDir.resolve("patched");
+        DeltaPatch.apply(oldFile, patch, patched, Collections.<MessageDigest>emptyList());
+        assertArrayEquals(newData, Files.readAllBytes(patched));
+    }
+
+    @Test
+    public void testApplyWrongSource() throws Exception {
+        byte[] data = new byte[10000];
+        new Random(7).nextBytes(data);
+        Path oldFile = Files.write(tmpDir.resolve("old"), data);
+        Path newFile = Files.write(tmpDir.resolve("new"), data);
+        Path patch = tmpDir.resolve("patch");
+        new DeltaGenerator().generate(oldFile, newFile, patch);
+
+        Files.write(oldFile, new byte[100]);
+        try {
+            DeltaPatch.apply(oldFile, patch, tmpDir.resolve("patched"), Collections.<MessageDigest>emptyList());
+            fail("Patch applied to wrong source file");
+        } catch (IOException ex) {
+            // Expected
+        }
+    }
+}
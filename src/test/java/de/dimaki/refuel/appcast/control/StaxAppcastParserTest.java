@@ -0,0 +1,128 @@
+package de.dimaki.refuel.appcast.control;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import de.dimaki.refuel.appcast.entity.Appcast;
+import de.dimaki.refuel.appcast.entity.Enclosure;
+import de.dimaki.refuel.appcast.entity.Item;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+/**
+ *
+ * @author Dino Tsoumakis
+ */
+public class StaxAppcastParserTest {
+
+    @Test
+    public void testParseSameAsJaxb() throws Exception {
+        Appcast expected;
+        Appcast actual;
+        try (InputStream is = getClass().getResourceAsStream("/appcast.xml")) {
+            expected = new JaxbAppcastParser().parse(is);
+        }
+        try (InputStream is = getClass().getResourceAsStream("/appcast.xml")) {
+            actual = new StaxAppcastParser().parse(is);
+        }
+
+        assertEquals(expected.getVersion(), actual.getVersion());
+        assertEquals(expected.getTitle(), actual.getTitle());
+        assertEquals(expected.getChannel().getLink(), actual.getChannel().getLink());
+        assertEquals(expected.getChannel().getDescription(), actual.getChannel().getDescription());
+        assertEquals(expected.getChannel().getLanguage(), actual.getChannel().getLanguage());
+        assertEquals(expected.getChannel().getItems().size(), actual.getChannel().getItems().size());
+
+        Item e = expected.getChannel().getItems().get(0);
+        Item a = actual.getChannel().getItems().get(0);
+        assertEquals(e.getTitle(), a.getTitle());
+        assertEquals(e.getDescription(), a.getDescription());
+        assertEquals(e.getPubDate(), a.getPubDate());
+        assertEquals(e.getReleaseNotesLink(), a.getReleaseNotesLink());
+
+        Enclosure ee = e.getEnclosure();
+        Enclosure ae = a.getEnclosure();
+        assertEquals(ee.getUrl(), ae.getUrl());
+        assertEquals(ee.getLength(), ae.getLength());
+        assertEquals(ee.getType(), ae.getType());
+        assertEquals(ee.getVersion(), ae.getVersion());
+        assertEquals(ee.getShortVersionString(), ae.getShortVersionString());
+        assertEquals(ee.getMd5(), ae.getMd5());
+        assertEquals(ee.getSha1(), ae.getSha1());
+        assertEquals(ee.getSha256(), ae.getSha256());
+        assertEquals(ee.getSha512(), ae.getSha512());
+
+        assertEquals(1, e.getDeltas().size());
+        assertEquals(1, a.getDeltas().size());
+        Enclosure ed = e.getDelta("2.0.4700");
+        Enclosure ad = a.getDelta("2.0.4700");
+        assertNotNull(ed);
+        assertEquals(ed.getUrl(), ad.getUrl());
+        assertEquals(ed.getDeltaFrom(), ad.getDeltaFrom());
+        assertEquals(ed.getLength(), ad.getLength());
+        assertEquals(ed.getMd5(), ad.getMd5());
+        assertNull(a.getDelta("2.0.4711"));
+    }
+
+    @Test
+    public void testParseFirstItemsOnly() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<rss version=\"2.0\" xmlns:sparkle=\"http://www.andymatuschak.org/xml-namespaces/sparkle\"><channel><title>Test</title>");
+        for (int i = 100; i > 0; i--) {
+            sb.append("<item><title>Version ").append(i).append("</title><sparkle:dummy><title>x</title></sparkle:dummy>")
+                    .append("<enclosure url=\"http://localhost/").append(i).append(".zip\" sparkle:version=\"1.0.").append(i)
+                    .append("\" length=\"").append(i).append("\"/></item>");
+        }
+        // Broken on purpose, must not be read
+        sb.append("<item><enclosure length=\"NaN\"/></item>");
+        sb.append("</channel></rss>");
+        byte[] xml = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        Appcast appcast = new StaxAppcastParser(1).parse(new ByteArrayInputStream(xml));
+        assertEquals("Test", appcast.getTitle());
+        assertEquals(1, appcast.getChannel().getItems().size());
+        assertEquals("Version 100", appcast.getChannel().getItems().get(0).getTitle());
+        assertEquals("1.0.100", appcast.getLatestVersion());
+
+        appcast = new StaxAppcastParser(10).parse(new ByteArrayInputStream(xml));
+        assertEquals(10, appcast.getChannel().getItems().size());
+        assertEquals("1.0.91", appcast.getChannel().getItems().get(9).getEnclosure().getVersion());
+        assertNull(appcast.getChannel().getItems().get(9).getPubDate());
+
+        try {
+            new StaxAppcastParser().parse(new ByteArrayInputStream(xml));
+            fail("Invalid length not detected");
+        } catch (AppcastParseException ex) {
+            assertNotNull(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testParseChannels() throws Exception {
+        String xml = "<rss version=\"2.0\" xmlns:sparkle=\"http://www.andymatuschak.org/xml-namespaces/sparkle\"><channel><title>Test</title>"
+                + "<item><enclosure url=\"http://localhost/1.2.zip\" sparkle:version=\"1.2\" length=\"1\"/></item>"
+                + "<item><sparkle:channel>beta</sparkle:channel><enclosure url=\"http://localhost/1.10.zip\" sparkle:version=\"1.10\" length=\"1\"/></item>"
+                + "<item><sparkle:minimumSystemVersion>10.15</sparkle:minimumSystemVersion><enclosure url=\"http://localhost/1.3.zip\" sparkle:version=\"1.3\" length=\"1\"/></item>"
+                + "<item><enclosure url=\"http://localhost/1.4.zip\" sparkle:version=\"1.4\" sparkle:os=\"windows\" length=\"1\"/></item>"
+                + "<item><enclosure url=\"http://localhost/1.1.zip\" sparkle:version=\"1.1\" length=\"1\"/></item>"
+                + "</channel></rss>";
+        byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+        Appcast expected = new JaxbAppcastParser().parse(new ByteArrayInputStream(bytes));
+        Appcast actual = new StaxAppcastParser().parse(new ByteArrayInputStream(bytes));
+        for (int i = 0; i < expected.getChannel().getItems().size(); i++) {
+            Item e = expected.getChannel().getItems().get(i);
+            Item a = actual.getChannel().getItems().get(i);
+            assertEquals(e.getChannel(), a.getChannel());
+            assertEquals(e.getMinimumSystemVersion(), a.getMinimumSystemVersion());
+            assertEquals(e.getEnclosure().getOs(), a.getEnclosure().getOs());
+        }
+    }
+
+    @Test(expected = AppcastParseException.class)
+    public void testParseNoAppcast() throws Exception {
+        new StaxAppcastParser().parse(new ByteArrayInputStream("<html><body/></html>".getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,100 @@
+package de.dimaki.refuel.appcast.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import de.dimaki.refuel.updater.control.VersionComparator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Dino Tsoumakis
+ */
+public class AppcastIndexTest {
+
+    private Appcast appcast;
+    private final VersionComparator comparator = new VersionComparator();
+
+    @Before
+    public void setUp() {
+        Channel channel = new Channel();
+        channel.setItems(new ArrayList<>(Arrays.asList(
+                item("1.2", null, null, null),
+                item("1.10", "beta", null, null),
+                item("1.3", null, null, "10.15"),
+                item("1.4", null, "windows", null),
+                item("1.1", null, null, null),
+                item(null, null, null, null))));
+        appcast = new Appcast();
+        appcast.setChannel(channel);
+    }
+
+    @Test
+    public void testGetLatest() {
+        AppcastIndex index = appcast.getIndex(comparator);
+        assertEquals(5, index.size());
+        assertEquals("1.10", index.getLatest().getEnclosure().getVersion());
+        assertEquals("1.3", index.getLatest(null, null, null).getEnclosure().getVersion());
+        assertEquals("1.2", index.getLatest(null, null, "10.14").getEnclosure().getVersion());
+        assertEquals("1.4", index.getLatest(null, "windows", "10.14").getEnclosure().getVersion());
+        assertEquals("1.10", index.getLatest("beta", "windows", null).getEnclosure().getVersion());
+    }
+
+    @Test
+    public void testGetLatestItem() {
+        assertEquals("1.10", appcast.getLatestItem().getEnclosure().getVersion());
+        assertEquals("1.10", appcast.getLatestVersion());
+        assertEquals("http://localhost/1.10.zip", appcast.getLatestEnclosure().getUrl());
+
+        // First item without any version
+        Channel channel = new Channel();
+        channel.setItems(new ArrayList<>(Arrays.asList(item(null, null, null, null))));
+        appcast.setChannel(channel);
+        assertSame(channel.getItems().get(0), appcast.getLatestItem());
+    }
+
+    @Test
+    public void testGetItem() {
+        AppcastIndex index = appcast.getIndex(comparator);
+        assertEquals("1.3", index.getItem("1.3").getEnclosure().getVersion());
+        assertNull(index.getItem("1.5"));
+
+        List<Item> between = index.getItemsBetween("1.2", "1.4");
+        assertEquals(2, between.size());
+        assertEquals("1.3", between.get(0).getEnclosure().getVersion());
+        assertEquals("1.4", between.get(1).getEnclosure().getVersion());
+        assertEquals(4, index.getItemsBetween("1.1", null).size());
+        assertEquals(0, index.getItemsBetween("1.10", null).size());
+    }
+
+    @Test
+    public void testIndexCached() {
+        AppcastIndex index = appcast.getIndex(comparator);
+        assertSame(index, appcast.getIndex(comparator));
+        assertNotSame(index, appcast.getIndex(new VersionComparator()));
+
+        // Rebuilt for changed items
+        index = appcast.getIndex(comparator);
+        appcast.getChannel().getItems().add(item("2.0", null, null, null));
+        assertNotSame(index, appcast.getIndex(comparator));
+        assertEquals("2.0", appcast.getIndex(comparator).getLatest(null, null, null).getEnclosure().getVersion());
+    }
+
+    private static Item item(String version, String channel, String os, String minimumSystemVersion) {
+        Enclosure enclosure = new Enclosure();
+        enclosure.setUrl("http://localhost/" + version + ".zip");
+        enclosure.setVersion(version);
+        enclosure.setOs(os);
+        Item item = new Item();
+        item.setTitle("Version " + version);
+        item.setChannel(channel);
+        item.setMinimumSystemVersion(minimumSystemVersion);
+        item.setEnclosure(enclosure);
+        return item;
+    }
+}
@@ -0,0 +1,90 @@
+package de.dimaki.refuel.metrics.boundary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import de.dimaki.refuel.TestHttpServer;
+import de.dimaki.refuel.appcast.boundary.AppcastManager;
+import de.dimaki.refuel.metrics.control.HistogramInstrumentation;
+import de.dimaki.refuel.metrics.control.Instrumentation;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ *
+ * @author Dino Tsoumakis
+ */
+public class MetricsTest {
+
+    @After
+    public void tearDown() {
+        Metrics.setInstrumentation(Instrumentation.NOOP);
+    }
+
+    @Test
+    public void testFetchMetrics() throws Exception {
+        assertSame(Instrumentation.NOOP, Metrics.get());
+        HistogramInstrumentation histograms = Metrics.enableHistograms();
+        Metrics.registerMBeans(histograms);
+
+        final byte[] xml = Files.readAllBytes(Paths.get(getClass().getResource("/appcast.xml").toURI()));
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/appcast.xml", exchange -> TestHttpServer.respond(exchange, 200, xml));
+            AppcastManager manager = new AppcastManager();
+            for (int i = 0; i < 3; i++) {
+                manager.fetch(server.url("/appcast.xml"));
+            }
+        }
+        for (String metric : new String[]{Instrumentation.FETCH_DNS, Instrumentation.FETCH_CONNECT, Instrumentation.FETCH_TTFB,
+            Instrumentation.FETCH_PARSE, Instrumentation.FETCH_TOTAL}) {
+            assertEquals(metric, 3, histograms.getHistogram(metric).getCount());
+        }
+        assertTrue(histograms.getHistogram(Instrumentation.FETCH_TOTAL).getMax()
+                >= histograms.getHistogram(Instrumentation.FETCH_PARSE).getMin());
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(Metrics.JMX_DOMAIN + ":type=Histogram,name=" + ObjectName.quote(Instrumentation.FETCH_TOTAL));
+        assertEquals(3L, server.getAttribute(name, "Count"));
+    }
+
+    @Test
+    public void testFetchMetricsProxied() throws Exception {
+        HistogramInstrumentation histograms = Metrics.enableHistograms();
+        final byte[] xml = Files.readAllBytes(Paths.get(getClass().getResource("/appcast.xml").toURI()));
+        ProxySelector defaultSelector = ProxySelector.getDefault();
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/appcast.xml", exchange -> TestHttpServer.respond(exchange, 200, xml));
+            final Proxy proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress("localhost", server.url("/").getPort()));
+            ProxySelector.setDefault(new ProxySelector() {
+                @Override
+                public List<Proxy> select(URI uri) {
+                    return Collections.singletonList(proxy);
+                }
+
+                @Override
+                public void connectFailed(URI uri, SocketAddress sa, IOException ioe) {
+                }
+            });
+            // The host is resolved by the proxy only
+            new AppcastManager().fetch(new URL("http://refuel.invalid/appcast.xml"));
+        } finally {
+            ProxySelector.setDefault(defaultSelector);
+        }
+        assertEquals(0, histograms.getHistogram(Instrumentation.FETCH_DNS).getCount());
+        assertEquals(1, histograms.getHistogram(Instrumentation.FETCH_TOTAL).getCount());
+    }
+}
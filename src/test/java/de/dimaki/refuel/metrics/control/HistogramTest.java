@@ -0,0 +1,49 @@
+package de.dimaki.refuel.metrics.control;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ *
+ * @author Dino Tsoumakis
+ */
+public class HistogramTest {
+
+    @Test
+    public void testBuckets() {
+        Random random = new Random(4715);
+        for (int i = 0; i < 100000; i++) {
+            long value = (random.nextLong() & Long.MAX_VALUE) >>> random.nextInt(63);
+            int index = Histogram.index(value);
+            assertTrue(value <= Histogram.upperBound(index));
+            if (index > 0) {
+                assertTrue(value > Histogram.upperBound(index - 1));
+            }
+        }
+        assertEquals(Long.MAX_VALUE, Histogram.upperBound(Histogram.index(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram("test");
+        assertEquals(0, histogram.getMedian());
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        assertEquals(500, histogram.getMedian(), 500 / 8);
+        assertEquals(900, histogram.get90thPercentile(), 900 / 8);
+        assertEquals(990, histogram.get99thPercentile(), 990 / 8);
+        assertEquals(1, histogram.getPercentile(0));
+        assertEquals(1000, histogram.getPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+}
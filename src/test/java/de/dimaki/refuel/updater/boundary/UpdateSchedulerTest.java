@@ -0,0 +1,128 @@
+package de.dimaki.refuel.updater.boundary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import de.dimaki.refuel.TestHttpServer;
+import de.dimaki.refuel.appcast.control.RetryPolicy;
+import de.dimaki.refuel.updater.entity.ApplicationStatus;
+import de.dimaki.refuel.updater.entity.UpdateCheck;
+import de.dimaki.refuel.updater.entity.UpdateStatus;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+/**
+ *
+ * @author Dino Tsoumakis
+ */
+public class UpdateSchedulerTest {
+
+    @Test
+    public void testGetDelay() {
+        UpdateScheduler scheduler = new UpdateScheduler(new Updater());
+        scheduler.setMaxInterval(10000);
+        assertEquals(1000, scheduler.getDelay(1000, 0));
+        assertEquals(2000, scheduler.getDelay(1000, 1));
+        assertEquals(8000, scheduler.getDelay(1000, 3));
+        assertEquals(10000, scheduler.getDelay(1000, 4));
+        assertEquals(10000, scheduler.getDelay(1000, Integer.MAX_VALUE));
+        // Never shorter than the regular interval
+        assertEquals(20000, scheduler.getDelay(20000, 2));
+    }
+
+    @Test
+    public void testSchedule() throws Exception {
+        final byte[] xml = Files.readAllBytes(Paths.get(getClass().getResource("/appcast.xml").toURI()));
+        final AtomicBoolean fail = new AtomicBoolean(true);
+        final List<ApplicationStatus> changes = new CopyOnWriteArrayList<>();
+        final CountDownLatch recovered = new CountDownLatch(1);
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/appcast.xml", exchange -> {
+                if (fail.get()) {
+                    TestHttpServer.respond(exchange, 503, null);
+                } else {
+                    TestHttpServer.respond(exchange, 200, xml);
+                }
+            });
+            Updater updater = new Updater();
+            updater.getAppcastManager().setRetryPolicy(RetryPolicy.NONE);
+            UpdateScheduler scheduler = new UpdateScheduler(updater);
+            scheduler.setInitialDelay(0);
+            scheduler.setJitter(0);
+            scheduler.setMaxInterval(100);
+            scheduler.addListener((check, previous, status) -> {
+                changes.add(status.getStatus());
+                if (status.getStatus() == ApplicationStatus.UPDATE_AVAILABLE) {
+                    recovered.countDown();
+                }
+            });
+            UpdateCheck check = new UpdateCheck("2.0.1044", server.url("/appcast.xml"));
+            assertNull(scheduler.getStatus(check));
+            scheduler.schedule(check, 20, TimeUnit.MILLISECONDS);
+
+            // Backs off: 20, 40, 80, 100, 100... ms
+            Thread.sleep(500);
+            int failed = server.getRequestCount();
+            assertTrue("Requests: " + failed, failed >= 3 && failed <= 10);
+            UpdateStatus status = scheduler.getStatus(check);
+            assertEquals(ApplicationStatus.FAILURE, status.getStatus());
+
+            fail.set(false);
+            assertTrue(recovered.await(5, TimeUnit.SECONDS));
+            scheduler.cancelAll();
+            assertNull(scheduler.getStatus(check));
+        }
+        // Repeated failures with the same info are not published again
+        assertEquals(2, changes.size());
+        assertEquals(ApplicationStatus.FAILURE, changes.get(0));
+        assertEquals(ApplicationStatus.UPDATE_AVAILABLE, changes.get(1));
+    }
+
+    @Test
+    public void testScheduleVersionChanged() throws Exception {
+        final String xml = new String(Files.readAllBytes(Paths.get(getClass().getResource("/appcast.xml").toURI())), StandardCharsets.UTF_8);
+        final AtomicReference<String> version = new AtomicReference<>("2.0.4711");
+        final List<UpdateStatus> changes = new CopyOnWriteArrayList<>();
+        final CountDownLatch newer = new CountDownLatch(1);
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/appcast.xml", exchange -> TestHttpServer.respond(exchange, 200,
+                    xml.replace("2.0.4711", version.get()).getBytes(StandardCharsets.UTF_8)));
+            Updater updater = new Updater();
+            updater.getAppcastManager().setRetryPolicy(RetryPolicy.NONE);
+            UpdateScheduler scheduler = new UpdateScheduler(updater);
+            scheduler.setInitialDelay(0);
+            scheduler.setJitter(0);
+            scheduler.addListener((check, previous, status) -> {
+                changes.add(status);
+                if ("2.0.4712".equals(status.getInfo())) {
+                    newer.countDown();
+                }
+            });
+            UpdateCheck check = new UpdateCheck("2.0.1044", server.url("/appcast.xml"));
+            scheduler.schedule(check, 20, TimeUnit.MILLISECONDS);
+
+            // Same version on every poll
+            Thread.sleep(200);
+            assertTrue(server.getRequestCount() >= 3);
+            assertEquals(1, changes.size());
+
+            // Still an update available, but a newer one
+            version.set("2.0.4712");
+            assertTrue(newer.await(5, TimeUnit.SECONDS));
+            scheduler.cancelAll();
+        }
+        assertEquals(2, changes.size());
+        assertEquals(ApplicationStatus.UPDATE_AVAILABLE, changes.get(0).getStatus());
+        assertEquals("2.0.4711", changes.get(0).getItem().getEnclosure().getVersion());
+        assertEquals(ApplicationStatus.UPDATE_AVAILABLE, changes.get(1).getStatus());
+        assertEquals("2.0.4712", changes.get(1).getItem().getEnclosure().getVersion());
+    }
+}
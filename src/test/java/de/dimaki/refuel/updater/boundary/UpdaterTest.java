@@ -2,11 +2,15 @@ package de.dimaki.refuel.updater.boundary;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import de.dimaki.refuel.TestHttpServer;
 import de.dimaki.refuel.appcast.boundary.AppcastManager;
 import de.dimaki.refuel.appcast.boundary.AppcastManagerTest;
 import de.dimaki.refuel.appcast.control.AppcastException;
@@ -15,15 +19,23 @@ import de.dimaki.refuel.appcast.entity.Channel;
 import de.dimaki.refuel.appcast.entity.Enclosure;
 import de.dimaki.refuel.appcast.entity.Item;
 import de.dimaki.refuel.updater.entity.ApplicationStatus;
+import de.dimaki.refuel.updater.entity.UpdateCheck;
+import de.dimaki.refuel.updater.entity.UpdateStatus;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.Proxy;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 import javax.xml.bind.JAXBException;
 import org.junit.Before;
 import org.junit.Test;
@@ -39,7 +51,7 @@ public class UpdaterTest {
     @Before
     public void init() throws IOException, AppcastException, Exception {
         updater = new Updater();
-        AppcastManager appcastManagerMock = mock(AppcastManager.class);
+        AppcastManager appcastManagerMock = spy(new AppcastManager());
         Appcast appcast = new Appcast();
         Channel c = new Channel();
         Item i = new Item();
@@ -51,9 +63,8 @@ public class UpdaterTest {
         c.setItems(items);
         appcast.setChannel(c);
 
-        when(appcastManagerMock.fetch(any(URL.class), any(Proxy.class), anyInt(), anyInt(), any(Map.class))).thenReturn(appcast);
-        when(appcastManagerMock.getLatestVersion(any(URL.class), any(Proxy.class), anyInt(), anyInt())).thenReturn("2.0.4711");
-        when(appcastManagerMock.download(any(Appcast.class), any(Path.class))).thenCallRealMethod();
+        doReturn(appcast).when(appcastManagerMock).fetch(any(URL.class), any(Proxy.class), anyInt(), anyInt(), any(Map.class));
+        doReturn("2.0.4711").when(appcastManagerMock).getLatestVersion(any(URL.class), any(Proxy.class), anyInt(), anyInt());
         updater.appcastManager = appcastManagerMock;
     }
 
@@ -92,10 +103,139 @@ public class UpdaterTest {
         }
     }
 
+    @Test
+    public void testCheckApplicationStatusAsync() throws Exception {
+        Updater cut = new Updater();
+        URL url = getClass().getResource("/appcast.xml");
+        UpdateStatus status = cut.checkApplicationStatusAsync("2.0.1044", url).get(10, TimeUnit.SECONDS);
+        assertEquals(ApplicationStatus.UPDATE_AVAILABLE, status.getStatus());
+        assertEquals("2.0.4711", status.getInfo());
+        assertNotNull(status.getUpdateTime());
+        assertNotNull(status.getAppcast());
+
+        status = cut.checkApplicationStatusAsync(null, url).get(10, TimeUnit.SECONDS);
+        assertEquals(ApplicationStatus.NOT_INSTALLED, status.getStatus());
+
+        status = cut.checkApplicationStatusAsync("2.0.1044",
+                new URL("http://thisisanotexistingdomainnamethatproducesanerror.com/error")).get(10, TimeUnit.SECONDS);
+        assertEquals(ApplicationStatus.FAILURE, status.getStatus());
+    }
+
+    @Test
+    public void testCheckApplicationStatus() throws Exception {
+        UpdateStatus update = updater.checkApplicationStatus("2.0.1044", new URL("http://TESTURL"));
+        UpdateStatus ok = updater.checkApplicationStatus("2.0.4711", new URL("http://TESTURL"));
+        // Results do not affect each other
+        assertEquals(ApplicationStatus.UPDATE_AVAILABLE, update.getStatus());
+        assertEquals("2.0.4711", update.getInfo());
+        assertNotNull(update.getAppcast());
+        assertEquals(ApplicationStatus.OK, ok.getStatus());
+        assertEquals("No update available", ok.getInfo());
+        assertNull(ok.getAppcast());
+        assertNotNull(ok.getUpdateTime());
+
+        UpdateStatus notInstalled = updater.checkApplicationStatus(null, new URL("http://TESTURL"));
+        assertEquals(ApplicationStatus.NOT_INSTALLED, notInstalled.getStatus());
+        assertNull(notInstalled.getUpdateTime());
+    }
+
+    @Test
+    public void testCheckApplicationStatusForSystem() throws Exception {
+        Appcast appcast = new Appcast();
+        Channel c = new Channel();
+        c.setItems(new ArrayList<>(Arrays.asList(
+                item("1.2", null, null), item("1.10", "beta", null), item("1.4", null, "windows"))));
+        appcast.setChannel(c);
+        doReturn(appcast).when(updater.appcastManager).fetch(any(URL.class), any(Proxy.class), anyInt(), anyInt(), any(Map.class));
+        URL url = new URL("http://TESTURL");
+
+        UpdateStatus status = updater.checkApplicationStatus("1.2", url, null, null, null);
+        assertEquals(ApplicationStatus.OK, status.getStatus());
+        assertNull(status.getItem());
+        status = updater.checkApplicationStatus("1.2", url, null, "windows", null);
+        assertEquals(ApplicationStatus.UPDATE_AVAILABLE, status.getStatus());
+        assertEquals("1.4", status.getInfo());
+        assertSame(appcast, status.getAppcast());
+        assertSame(c.getItems().get(2), status.getItem());
+        status = updater.checkApplicationStatus("1.2", url, "beta", "windows", null);
+        assertEquals("1.10", status.getItem().getEnclosure().getVersion());
+
+        // Only updates for other systems
+        c.setItems(new ArrayList<>(Arrays.asList(item("1.4", null, "windows"))));
+        status = updater.checkApplicationStatus("1.2", url, null, "linux", null);
+        assertEquals(ApplicationStatus.OK, status.getStatus());
+        assertEquals("No compatible update available", status.getInfo());
+
+        // The selected item is installed
+        Path targetDir = Files.createTempDirectory("ac-");
+        try {
+            Item item = c.getItems().get(0);
+            item.getEnclosure().setUrl(getClass().getResource("/jartest.zip").toURI().toURL().toString());
+            item.getEnclosure().setLength(1505);
+            assertTrue(updater.update(appcast, item, targetDir, "1.2", null).size() > 0);
+        } finally {
+            try (Stream<Path> paths = Files.walk(targetDir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    private static Item item(String version, String channel, String os) {
+        Enclosure enclosure = new Enclosure();
+        enclosure.setVersion(version);
+        enclosure.setOs(os);
+        Item item = new Item();
+        item.setChannel(channel);
+        item.setEnclosure(enclosure);
+        return item;
+    }
+
+    @Test
+    public void testGetApplicationStatuses() throws Exception {
+        final int apps = 24;
+        final int maxPerHost = 8;
+        final byte[] xml = Files.readAllBytes(Paths.get(getClass().getResource("/appcast.xml").toURI()));
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.handle("/app/", exchange -> {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(25);
+                } catch (InterruptedException ex) {
+                    // Server stopped
+                    return;
+                } finally {
+                    // Before the response, the client may send the next request right after it
+                    inFlight.decrementAndGet();
+                }
+                TestHttpServer.respond(exchange, 200, xml);
+            });
+            // Every appcast URL is used by two applications
+            List<UpdateCheck> checks = new ArrayList<>();
+            for (int i = 0; i < apps; i++) {
+                checks.add(new UpdateCheck("2.0.1044", server.url("/app/" + i)));
+                checks.add(new UpdateCheck("2.0.4711", server.url("/app/" + i)));
+            }
+            checks.add(new UpdateCheck(null, server.url("/app/0")));
+
+            Updater cut = new Updater();
+            Map<UpdateCheck, UpdateStatus> statuses = cut.getApplicationStatuses(checks, 16, maxPerHost);
+
+            assertEquals(checks.size(), statuses.size());
+            // Every appcast URL is fetched once
+            assertEquals(apps, server.getRequestCount());
+            assertTrue(maxInFlight.get() <= maxPerHost);
+            assertEquals(ApplicationStatus.UPDATE_AVAILABLE, statuses.get(checks.get(0)).getStatus());
+            assertEquals(ApplicationStatus.OK, statuses.get(checks.get(1)).getStatus());
+            assertEquals(ApplicationStatus.NOT_INSTALLED, statuses.get(checks.get(checks.size() - 1)).getStatus());
+        }
+    }
+
     @Test
     public void testGetApplicationStatusShortVersionString() {
         try {
-            AppcastManager appcastManagerMock = mock(AppcastManager.class);
+            AppcastManager appcastManagerMock = spy(new AppcastManager());
             Appcast appcast = new Appcast();
             Channel c = new Channel();
             Item i = new Item();
@@ -108,9 +248,8 @@ public class UpdaterTest {
             c.setItems(items);
             appcast.setChannel(c);
 
-            when(appcastManagerMock.fetch(any(URL.class), any(Proxy.class), anyInt(), anyInt(), any(Map.class))).thenReturn(appcast);
-            when(appcastManagerMock.getLatestVersion(any(URL.class), any(Proxy.class), anyInt(), anyInt())).thenReturn("4711");
-            when(appcastManagerMock.download(any(Appcast.class), any(Path.class))).thenCallRealMethod();
+            doReturn(appcast).when(appcastManagerMock).fetch(any(URL.class), any(Proxy.class), anyInt(), anyInt(), any(Map.class));
+            doReturn("4711").when(appcastManagerMock).getLatestVersion(any(URL.class), any(Proxy.class), anyInt(), anyInt());
             updater.appcastManager = appcastManagerMock;
 
             ApplicationStatus applicationStatus = updater.getApplicationStatus("4710", new URL("http://TESTURL"));
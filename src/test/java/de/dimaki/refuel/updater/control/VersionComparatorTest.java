@@ -1,6 +1,9 @@
 package de.dimaki.refuel.updater.control;
 
+import de.dimaki.refuel.updater.entity.Version;
+import java.util.Random;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
@@ -126,4 +129,119 @@ public class VersionComparatorTest {
         compare = vc.compare(localVersion, remoteVersion);
         assertEquals(localVersion + " > " + remoteVersion, 1, compare);
     }
+
+    @Test
+    public void testParse() {
+        Version v = Version.parse("2.0.4711-SNAPSHOT");
+        assertSame(v, Version.parse("2.0.4711-SNAPSHOT"));
+        assertEquals(3, v.getComponentCount());
+        assertEquals(4711, v.getComponent(2));
+        assertSame("SNAPSHOT", v.getQualifier());
+
+        v = Version.parse("1.x..99999999999.");
+        assertEquals(4, v.getComponentCount());
+        assertEquals(Version.INVALID, v.getComponent(1));
+        assertEquals(Version.INVALID, v.getComponent(2));
+        assertEquals(Version.INVALID, v.getComponent(3));
+        assertEquals(null, v.getQualifier());
+    }
+
+    @Test
+    public void testSameAsSplitAndParse() {
+        String[] versions = {"", ".", "..", "1", "1.", ".1", "1..2", "-1.0", "1.0-", "1.0-a", "1.0-a-b", "+1.2", "-", "1.-2",
+            "2147483647", "2147483648", "-2147483648.1", "1.0.0.0", "1.a.2", "1.2-x.3", "\u0661.2"};
+        for (String v1 : versions) {
+            for (String v2 : versions) {
+                assertEquals(v1 + " <> " + v2, splitCompare(v1, v2), vc.compare(v1, v2));
+            }
+        }
+        Random random = new Random(4711);
+        String chars = "0123456789..--+a";
+        for (int i = 0; i < 20000; i++) {
+            String v1 = randomVersion(random, chars);
+            String v2 = randomVersion(random, chars);
+            assertEquals(v1 + " <> " + v2, splitCompare(v1, v2), vc.compare(v1, v2));
+        }
+    }
+
+    @Test
+    public void testCompareSemantic() {
+        VersionComparator svc = new VersionComparator(VersionComparator.Mode.SEMANTIC);
+        String[] ordered = {"0.9", "1.0-dev", "1.0-alpha", "1.0-alpha.1", "1.0-alpha.beta", "1.0-beta", "1.0-beta.2",
+            "1.0-beta.11", "1.0-milestone1", "1.0-rc1", "1.0-RC2", "1.0-SNAPSHOT", "1.0", "1.0.1", "1.0.10",
+            "1.1", "2.0.4711", "18446744073709551616", "18446744073709551617.1"};
+        for (int i = 0; i < ordered.length; i++) {
+            for (int j = 0; j < ordered.length; j++) {
+                int expected = Integer.compare(i, j);
+                assertEquals(ordered[i] + " <> " + ordered[j], expected, Integer.signum(svc.compare(ordered[i], ordered[j])));
+            }
+        }
+        assertEquals(0, svc.compare("1.0", "1.0.0"));
+        assertEquals(0, svc.compare("1.0", "1.0-final"));
+        assertEquals(0, svc.compare("1.0", "v1.0.0+build.42"));
+        assertEquals(0, svc.compare("1.0-beta1", "1.0beta-1"));
+        assertEquals(0, svc.compare("01.002", "1.2"));
+        assertTrue(svc.compare("1.0-beta1", "1.0-rc2") < 0);
+        // Legacy mode: any qualifiers are equal
+        assertEquals(0, vc.compare("1.0-beta1", "1.0-rc2"));
+        assertTrue(svc.compare(Version.parse("2.0.2-SNAPSHOT"), Version.parse("2.0.2.4711")) < 0);
+    }
+
+    private static String randomVersion(Random random, String chars) {
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(12);
+        for (int i = 0; i < length; i++) {
+            sb.append(chars.charAt(random.nextInt(chars.length())));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The original implementation based on String.split and Integer.parseInt
+     */
+    private static int splitCompare(String localVersion, String remoteVersion) {
+        String local = localVersion;
+        String qualifierLocal = null;
+        String remote = remoteVersion;
+        String qualifierRemote = null;
+        int qualifierIndexLocal = localVersion.indexOf("-");
+        int qualifierIndexRemote = remoteVersion.indexOf("-");
+        if (qualifierIndexLocal > 0) {
+            qualifierLocal = localVersion.substring(qualifierIndexLocal + 1);
+            local = localVersion.substring(0, qualifierIndexLocal);
+        }
+        if (qualifierIndexRemote > 0) {
+            qualifierRemote = remoteVersion.substring(qualifierIndexRemote + 1);
+            remote = remoteVersion.substring(0, qualifierIndexRemote);
+        }
+        String[] p1 = local.split("\\.");
+        String[] p2 = remote.split("\\.");
+        int n = Math.min(p1.length, p2.length);
+        for (int i = 0; i < n; i++) {
+            try {
+                int a1 = Integer.parseInt(p1[i]);
+                int a2 = Integer.parseInt(p2[i]);
+                if (a1 < a2) {
+                    return -1;
+                } else if (a1 > a2) {
+                    return 1;
+                }
+            } catch (NumberFormatException nfe) {
+                // Ignore
+            }
+        }
+        if (p1.length > p2.length) {
+            return 1;
+        } else if (p1.length < p2.length) {
+            return -1;
+        }
+        if (qualifierLocal != null) {
+            if (qualifierRemote == null || qualifierRemote.isEmpty()) {
+                return -1;
+            }
+        } else if (qualifierRemote != null) {
+            return 1;
+        }
+        return 0;
+    }
 }
@@ -0,0 +1,156 @@
+package de.dimaki.refuel.updater.control;
+
+import de.dimaki.refuel.appcast.entity.TransferProgress;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Dino Tsoumakis
+ */
+public class ZipExtractorTest {
+
+    private Path tmpDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tmpDir = Files.createTempDirectory("zx-");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(tmpDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testExtract() throws Exception {
+        Path zipFile = tmpDir.resolve("update.zip");
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zipFile))) {
+            zos.putNextEntry(new ZipEntry("lib/"));
+            zos.closeEntry();
+            for (int i = 0; i < 500; i++) {
+                zos.putNextEntry(new ZipEntry("lib/dir" + (i % 7) + "/file" + i + ".txt"));
+                zos.write(content(i));
+                zos.closeEntry();
+            }
+        }
+        Path targetDir = tmpDir.resolve("target");
+        Files.createDirectories(targetDir.resolve("lib/dir3"));
+        Files.write(targetDir.resolve("lib/dir3/file3.txt"), "old".getBytes(StandardCharsets.UTF_8));
+
+        List<TransferProgress> events = new CopyOnWriteArrayList<>();
+        Set<Path> files = new ZipExtractor().extract(zipFile, targetDir, events::add);
+
+        assertEquals(500, files.size());
+        assertEquals(TransferProgress.Phase.EXTRACT, events.get(0).getPhase());
+        TransferProgress done = events.get(events.size() - 1);
+        assertEquals(TransferProgress.Phase.DONE, done.getPhase());
+        assertTrue(done.getTotal() > 0);
+        assertEquals(done.getTotal(), done.getBytes());
+        for (int i = 0; i < 500; i++) {
+            Path file = targetDir.resolve("lib/dir" + (i % 7) + "/file" + i + ".txt");
+            assertTrue(files.contains(file));
+            assertArrayEquals(content(i), Files.readAllBytes(file));
+        }
+    }
+
+    @Test
+    public void testExtractIncremental() throws Exception {
+        Path zipFile = tmpDir.resolve("update.zip");
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zipFile))) {
+            for (int i = 0; i < 20; i++) {
+                zos.putNextEntry(new ZipEntry("file" + i + ".txt"));
+                zos.write(content(i));
+                zos.closeEntry();
+            }
+        }
+        Path targetDir = tmpDir.resolve("target");
+        ZipExtractor extractor = new ZipExtractor();
+        extractor.setIncremental(true);
+        extractor.setManifestEnabled(true);
+        assertEquals(20, extractor.extract(zipFile, targetDir).size());
+        assertTrue(Files.exists(targetDir.resolve(ZipExtractor.MANIFEST_FILE)));
+
+        // Unchanged content, but not as recorded
+        FileTime past = FileTime.fromMillis(1000000000000L);
+        Files.setLastModifiedTime(targetDir.resolve("file0.txt"), past);
+        // Changed content, same size
+        byte[] changed = content(1);
+        changed[0] = 'X';
+        Files.write(targetDir.resolve("file1.txt"), changed);
+        Files.delete(targetDir.resolve("file2.txt"));
+        FileTime unchanged = Files.getLastModifiedTime(targetDir.resolve("file3.txt"));
+        Thread.sleep(20);
+
+        Set<Path> files = extractor.extract(zipFile, targetDir);
+        assertEquals(20, files.size());
+        assertEquals(past, Files.getLastModifiedTime(targetDir.resolve("file0.txt")));
+        assertEquals(unchanged, Files.getLastModifiedTime(targetDir.resolve("file3.txt")));
+        for (int i = 0; i < 20; i++) {
+            assertArrayEquals(content(i), Files.readAllBytes(targetDir.resolve("file" + i + ".txt")));
+        }
+    }
+
+    @Test
+    public void testIsUnchanged() throws Exception {
+        Path file = tmpDir.resolve("file.txt");
+        Files.write(file, content(1));
+        CRC32 crc = new CRC32();
+        crc.update(content(1));
+        ZipEntry entry = new ZipEntry("file.txt");
+        entry.setSize(content(1).length);
+        entry.setCrc(crc.getValue());
+        assertTrue(ZipExtractor.isUnchanged(entry, file, null));
+
+        entry.setCrc(crc.getValue() + 1);
+        assertFalse(ZipExtractor.isUnchanged(entry, file, null));
+        // Recorded CRC is trusted if size and modification time match
+        String record = entry.getSize() + "," + entry.getCrc() + "," + Files.getLastModifiedTime(file).toMillis();
+        assertTrue(ZipExtractor.isUnchanged(entry, file, record));
+    }
+
+    @Test
+    public void testExtractOutsideTargetDir() throws Exception {
+        Path zipFile = tmpDir.resolve("evil.zip");
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zipFile))) {
+            zos.putNextEntry(new ZipEntry("../evil.txt"));
+            zos.write(content(1));
+            zos.closeEntry();
+        }
+        try {
+            new ZipExtractor().extract(zipFile, tmpDir.resolve("target"));
+            fail("Entry outside of target dir extracted");
+        } catch (IOException ex) {
+            assertFalse(Files.exists(tmpDir.resolve("evil.txt")));
+        }
+    }
+
+    private static byte[] content(int i) {
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j <= i % 50; j++) {
+            sb.append("File ").append(i).append(" line ").append(j).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}